@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.nutch.indexer.NutchDocument;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.util.NamedList;
+import org.kblight.benchmarks.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of Nutch documents to Solr documents by
+ * {@link SolrIndexWriter#write(NutchDocument)}: field mapping, value
+ * conversion and batching, with batches of documents or streamed
+ * documents. Batches are serialized but not sent, the network and Solr
+ * itself are left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SolrIndexWriterBenchmark {
+
+    private static final int DOCUMENT_COUNT = 200;
+    private static final String[] COMPANIES = {"Acme Corp", "Globex", "Initech", "Hooli", "Umbrella Software"};
+    private static final String[] LOCATIONS = {"Paris (75)", "Lyon (69)", "Nantes (44)", "Remote"};
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"0", "262144"})
+    public int streamMaxBytes;
+
+    private SolrIndexWriter writer;
+    private NutchDocument[] documents;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        JobConf job = new JobConf(NutchConfiguration.create());
+        job.setInt(SolrConstants.COMMIT_SIZE, batchSize);
+        job.setInt(SolrConstants.STREAM_MAX_BYTES, streamMaxBytes);
+        job.set(SolrConstants.MAPPING_FILE, "solrindex-mapping-benchmark.xml");
+
+        writer = new SolrIndexWriter();
+        writer.init(new NullSolrServer(), job);
+
+        // The detail page text stands for the content of every document
+        String text = new String(Corpus.load().getPage("detail").getContent(), "UTF-8")
+                .replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ").trim();
+
+        documents = new NutchDocument[DOCUMENT_COUNT];
+        for (int i = 0; i < DOCUMENT_COUNT; i++) {
+            NutchDocument doc = new NutchDocument();
+            doc.add("url", "http://www.example-jobs.com/job/" + (104000 + i));
+            doc.add("host", "www.example-jobs.com");
+            doc.add("digest", Integer.toHexString(text.hashCode() + i));
+            doc.add("tstamp", Long.toString(1395100800000L + i * 60000L));
+            doc.add("boost", "1.0");
+            doc.add("title", "Senior Java Developer - " + COMPANIES[i % COMPANIES.length]);
+            doc.add("content", text);
+            doc.add("jobtitle", "Senior Java Developer");
+            doc.add("company", COMPANIES[i % COMPANIES.length]);
+            doc.add("location", LOCATIONS[i % LOCATIONS.length]);
+            doc.add("contract", "CDI");
+            doc.add("salary", Integer.toString(40000 + i * 100));
+            doc.add("score", "0.75");
+            doc.add("remote", Boolean.toString(i % LOCATIONS.length == 3));
+            doc.add("offerdate", String.format("%02d.03.2014", 1 + i % 28));
+            doc.add("itemType", "jobItem");
+            documents[i] = doc;
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        writer.write(documents[next]);
+        next = next + 1 == documents.length ? 0 : next + 1;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Serializes the update requests like the http server does, and drops them.
+     */
+    static class NullSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) throws IOException {
+            if (request instanceof UpdateRequest) {
+                ((UpdateRequest) request).getXML();
+            }
+            return new NamedList<Object>();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.kblight.benchmarks;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.html.DOMContentUtils;
+import org.apache.nutch.parse.html.DOMContentWalker;
+import org.apache.nutch.parse.html.HTMLMetaProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.DocumentFragment;
+
+/**
+ * Content extraction of the html parser from a page of the corpus: meta
+ * tags, text, title, base url and outlinks, in a single traversal with
+ * {@link DOMContentWalker} or one traversal each for comparison. Both
+ * extract the same content, checked by the setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContentWalkBenchmark {
+
+	@Param({"listing", "detail"})
+	public String page;
+
+	private DOMContentUtils utils;
+	private URL baseUrl;
+	private DocumentFragment fragment;
+
+	@Setup
+	public void setUp() throws Exception {
+		Corpus.Page corpusPage = Corpus.load().getPage(page);
+		Configuration configuration = Fixtures.newConfiguration("CLEANER");
+
+		utils = new DOMContentUtils(configuration);
+		baseUrl = new URL(corpusPage.toContent(configuration).getBaseUrl());
+		fragment = Fixtures.parseFragment(corpusPage);
+
+		if (!fused().equals(separate())) {
+			throw new IllegalStateException("Different contents extracted from " + page);
+		}
+	}
+
+	@Benchmark
+	public List<Object> fused() {
+		HTMLMetaTags metaTags = new HTMLMetaTags();
+		DOMContentWalker walker = new DOMContentWalker(utils);
+		walker.walk(fragment, metaTags, baseUrl);
+
+		ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+		URL baseTag = walker.getBase();
+		walker.getOutlinks(baseTag != null ? baseTag : baseUrl, outlinks);
+		return content(metaTags, walker.getText(), walker.getTitle().trim(), outlinks);
+	}
+
+	@Benchmark
+	public List<Object> separate() {
+		HTMLMetaTags metaTags = new HTMLMetaTags();
+		HTMLMetaProcessor.getMetaTags(metaTags, fragment, baseUrl);
+
+		StringBuilder sb = new StringBuilder();
+		utils.getText(sb, fragment);
+		String text = sb.toString();
+		sb.setLength(0);
+		utils.getTitle(sb, fragment);
+		String title = sb.toString().trim();
+
+		ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+		URL baseTag = utils.getBase(fragment);
+		utils.getOutlinks(baseTag != null ? baseTag : baseUrl, outlinks, fragment);
+		return content(metaTags, text, title, outlinks);
+	}
+
+	private static List<Object> content(HTMLMetaTags metaTags, String text, String title, List<Outlink> outlinks) {
+		List<Object> content = new ArrayList<Object>();
+		content.add(metaTags.toString());
+		content.add(text);
+		content.add(title);
+		content.add(outlinks);
+		return content;
+	}
+}
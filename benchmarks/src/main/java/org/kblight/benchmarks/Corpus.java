@@ -0,0 +1,168 @@
+package org.kblight.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.protocol.Content;
+
+import com.atlantbh.nutch.filter.xpath.XPathHtmlParserFilter;
+
+/**
+ * The saved pages the benchmarks run on.
+ *
+ * The corpus is a directory holding the pages and an <code>index.txt</code>
+ * manifest with one <code>&lt;file&gt; &lt;url&gt; &lt;content type&gt;</code>
+ * line per page. The corpus bundled in the benchmarks jar is used unless the
+ * <code>corpus.dir</code> system property points to another directory, so
+ * the same suites can be run on pages saved from the crawled job boards.
+ */
+public class Corpus {
+
+	// Constants
+	public static final String CORPUS_DIR_PROPERTY = "corpus.dir";
+	private static final String MANIFEST = "index.txt";
+	private static final String RESOURCE_DIR = "corpus/";
+	private static final int BUFFER_SIZE = 4096;
+
+	private final List<Page> pages;
+
+	private Corpus(List<Page> pages) {
+		this.pages = Collections.unmodifiableList(pages);
+	}
+
+	/**
+	 * Loads the corpus from the <code>corpus.dir</code> directory or, if the
+	 * property is not set, from the classpath.
+	 */
+	public static Corpus load() throws IOException {
+		String directory = System.getProperty(CORPUS_DIR_PROPERTY);
+
+		List<Page> pages = new ArrayList<Page>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(open(directory, MANIFEST), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] columns = line.split("\\s+");
+				if (columns.length != 3) {
+					throw new IOException("Invalid corpus manifest line: " + line);
+				}
+				pages.add(new Page(columns[0], columns[1], columns[2], read(open(directory, columns[0]))));
+			}
+		} finally {
+			reader.close();
+		}
+
+		return new Corpus(pages);
+	}
+
+	private static InputStream open(String directory, String file) throws IOException {
+		if (directory != null) {
+			return new FileInputStream(new File(directory, file));
+		}
+
+		InputStream inputStream = Corpus.class.getClassLoader().getResourceAsStream(RESOURCE_DIR + file);
+		if (inputStream == null) {
+			throw new FileNotFoundException("Corpus resource " + RESOURCE_DIR + file + " not found");
+		}
+		return inputStream;
+	}
+
+	private static byte[] read(InputStream inputStream) throws IOException {
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+			return outputStream.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	public List<Page> getPages() {
+		return pages;
+	}
+
+	/**
+	 * @param name The file name of the page without its extension.
+	 * @throws IllegalArgumentException If the corpus has no such page.
+	 */
+	public Page getPage(String name) {
+		for (Page page : pages) {
+			if (page.getName().equals(name)) {
+				return page;
+			}
+		}
+		throw new IllegalArgumentException("No page " + name + " in the corpus");
+	}
+
+	/**
+	 * A saved page and the url it was fetched from.
+	 */
+	public static class Page {
+
+		private final String name;
+		private final String url;
+		private final String contentType;
+		private final byte[] content;
+
+		Page(String file, String url, String contentType, byte[] content) {
+			int extension = file.lastIndexOf('.');
+			this.name = extension > 0 ? file.substring(0, extension) : file;
+			this.url = url;
+			this.contentType = contentType;
+			this.content = content;
+		}
+
+		/**
+		 * Builds the fetched content of the page, with the metadata the
+		 * fetcher and the crawler plugins set.
+		 */
+		public Content toContent(Configuration configuration) {
+			Metadata metadata = new Metadata();
+			metadata.set("Content-Type", contentType);
+			metadata.set(Nutch.FETCH_TIME_KEY, "0");
+			metadata.set(XPathHtmlParserFilter.LAST_FETCH_TIME, "0");
+			return new Content(url, url, content, contentType, metadata, configuration);
+		}
+
+		public boolean isHtml() {
+			return contentType.equals("text/html") || contentType.equals("application/xhtml+xml");
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.kblight.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseImpl;
+import org.apache.nutch.parse.ParseResult;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+
+import com.atlantbh.nutch.filter.xpath.DOMContentUtils;
+import com.atlantbh.nutch.filter.xpath.config.DocumentSource;
+import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanCache;
+
+/**
+ * Shared setup of the benchmarks: configuration, parser output and parse
+ * results, built the way the Nutch parse job builds them.
+ */
+public final class Fixtures {
+
+	// Constants
+	private static final String ENCODING = "UTF-8";
+
+	private Fixtures() {}
+
+	/**
+	 * Creates a Nutch configuration using the sample xpath filter
+	 * configuration of the document source, with hot reload disabled.
+	 *
+	 * @param documentSource CLEANER or PARSER, the document the html profiles are evaluated on.
+	 */
+	public static Configuration newConfiguration(String documentSource) {
+		Configuration configuration = NutchConfiguration.create();
+		String source = DocumentSource.valueOf(documentSource).name().toLowerCase(Locale.ROOT);
+		configuration.set(XPathFilterConfiguration.CONFIG_FILE_PATH_PROPERTY, "xpath-filter-" + source + ".xml");
+		configuration.setLong(XPathFilterPlanCache.RELOAD_INTERVAL_PROPERTY, 0);
+		configuration.set("parser.character.encoding.default", ENCODING);
+		return configuration;
+	}
+
+	/**
+	 * Parses the page with Neko, configured like the html parser plugin does.
+	 */
+	public static DocumentFragment parseFragment(Corpus.Page page) throws Exception {
+		DOMFragmentParser parser = new DOMFragmentParser();
+		parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe", true);
+		parser.setFeature("http://cyberneko.org/html/features/augmentations", true);
+		parser.setProperty("http://cyberneko.org/html/properties/default-encoding", ENCODING);
+		parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", true);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", false);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+
+		HTMLDocumentImpl document = new HTMLDocumentImpl();
+		document.setErrorChecking(false);
+		DocumentFragment fragment = document.createDocumentFragment();
+		InputSource input = new InputSource(new ByteArrayInputStream(page.getContent()));
+		input.setEncoding(ENCODING);
+		parser.parse(input, fragment);
+		return fragment;
+	}
+
+	/**
+	 * Extracts the outlinks of the fragment, as the html parser does.
+	 */
+	public static Outlink[] getOutlinks(Configuration configuration, Content content, DocumentFragment fragment) throws MalformedURLException {
+		ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+		new DOMContentUtils(configuration).getOutlinks(new URL(content.getBaseUrl()), outlinks, fragment);
+		return outlinks.toArray(new Outlink[outlinks.size()]);
+	}
+
+	/**
+	 * Copies the outlinks, the xpath filter rewrites the urls of the outlinks
+	 * it keeps so every run needs its own copies.
+	 */
+	public static Outlink[] copyOutlinks(Outlink[] outlinks) throws MalformedURLException {
+		Outlink[] copies = new Outlink[outlinks.length];
+		for (int i = 0; i < outlinks.length; i++) {
+			copies[i] = new Outlink(outlinks[i].getToUrl(), outlinks[i].getAnchor());
+		}
+		return copies;
+	}
+
+	/**
+	 * Creates the parse result the html parser hands over to the parse filters.
+	 */
+	public static ParseResult newParseResult(Content content, Outlink[] outlinks) {
+		ParseData parseData = new ParseData(ParseStatus.STATUS_SUCCESS, "", outlinks, content.getMetadata(), new Metadata());
+		return ParseResult.createParseResult(content.getUrl(), new ParseImpl("", parseData));
+	}
+}
@@ -0,0 +1,84 @@
+package org.kblight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.HtmlParseFilter;
+import org.apache.nutch.parse.ParseResult;
+import org.apache.nutch.parse.html.HtmlParser;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.ObjectCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atlantbh.nutch.filter.xpath.XPathHtmlParserFilter;
+
+/**
+ * {@link HtmlParser} run on an html page of the corpus: encoding detection,
+ * Neko or TagSoup parsing into a Xerces or compact DOM, text, title and
+ * outlink extraction, and the html parse filters, either none or the xpath
+ * filter for the whole parse step. With streaming, the content is
+ * extracted while parsing when no filter needs the DOM of the page.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HtmlParserBenchmark {
+
+	@Param({"listing", "detail", "fragment"})
+	public String page;
+
+	@Param({"neko", "tagsoup"})
+	public String parserImpl;
+
+	@Param({"false", "true"})
+	public boolean xpathFilter;
+
+	@Param({"false", "true"})
+	public boolean compactDom;
+
+	@Param({"false", "true"})
+	public boolean streaming;
+
+	private HtmlParser parser;
+	private Content content;
+
+	@Setup
+	public void setUp() throws Exception {
+		Configuration configuration = Fixtures.newConfiguration("PARSER");
+		configuration.set("parser.html.impl", parserImpl);
+		configuration.setBoolean("parser.html.dom.compact", compactDom);
+		configuration.setBoolean("parser.html.dom.streaming", streaming);
+
+		// The parse filters are looked up in the object cache first, which
+		// keeps the plugin repository out of the benchmark
+		HtmlParseFilter[] htmlParseFilters = new HtmlParseFilter[0];
+		if (xpathFilter) {
+			XPathHtmlParserFilter filter = new XPathHtmlParserFilter();
+			filter.setConf(configuration);
+			htmlParseFilters = new HtmlParseFilter[] {filter};
+		}
+		ObjectCache.get(configuration).setObject(HtmlParseFilter.class.getName(), htmlParseFilters);
+
+		parser = new HtmlParser();
+		parser.setConf(configuration);
+		content = Corpus.load().getPage(page).toContent(configuration);
+	}
+
+	@Benchmark
+	public ParseResult parse() {
+		return parser.getParse(content);
+	}
+}
@@ -0,0 +1,126 @@
+package org.kblight.benchmarks;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.protocol.Content;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.DocumentFragment;
+
+import com.atlantbh.nutch.filter.xpath.DOMContentUtils;
+import com.atlantbh.nutch.filter.xpath.config.OutlinkFilter;
+import com.atlantbh.nutch.filter.xpath.config.Rule;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+import com.atlantbh.nutch.filter.xpath.plan.OutlinkFilterEngine;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlan;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanCache;
+
+/**
+ * Outlinks of an html page of the corpus: their extraction from the parsed
+ * page, and their filtering by the outlink filters of the profiles
+ * matching the page, through the compiled {@link OutlinkFilterEngine}s
+ * or rule by rule for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OutlinkBenchmark {
+
+	@Param({"listing", "detail"})
+	public String page;
+
+	private DOMContentUtils utils;
+	private URL baseUrl;
+	private DocumentFragment fragment;
+	private Outlink[] outlinks;
+	private List<OutlinkFilter> outlinkFilters;
+	private List<OutlinkFilterEngine> outlinkFilterEngines;
+	private XPathFilterPlan plan;
+
+	@Setup
+	public void setUp() throws Exception {
+		Corpus.Page corpusPage = Corpus.load().getPage(page);
+		Configuration configuration = Fixtures.newConfiguration("CLEANER");
+		Content content = corpusPage.toContent(configuration);
+
+		utils = new DOMContentUtils(configuration);
+		baseUrl = new URL(content.getBaseUrl());
+		fragment = Fixtures.parseFragment(corpusPage);
+		outlinks = Fixtures.getOutlinks(configuration, content, fragment);
+
+		plan = XPathFilterPlanCache.getPlan(configuration);
+		outlinkFilters = new ArrayList<OutlinkFilter>();
+		outlinkFilterEngines = new ArrayList<OutlinkFilterEngine>();
+		for (XPathIndexerProperties xPathIndexerProperties : plan.getMatchingProperties(content.getBaseUrl())) {
+			OutlinkFilterEngine outlinkFilterEngine = plan.getOutlinkFilterEngine(xPathIndexerProperties);
+			if (outlinkFilterEngine != null) {
+				outlinkFilters.addAll(xPathIndexerProperties.getOutlinkFilterList());
+				outlinkFilterEngines.add(outlinkFilterEngine);
+			}
+		}
+	}
+
+	@Benchmark
+	public List<Outlink> extract() {
+		ArrayList<Outlink> extracted = new ArrayList<Outlink>();
+		utils.getOutlinks(baseUrl, extracted, fragment);
+		return extracted;
+	}
+
+	@Benchmark
+	public List<Outlink> filter() throws Exception {
+		List<Outlink> filteredLinks = Arrays.asList(Fixtures.copyOutlinks(outlinks));
+		for (OutlinkFilterEngine outlinkFilterEngine : outlinkFilterEngines) {
+			filteredLinks = outlinkFilterEngine.filter(filteredLinks);
+		}
+		return filteredLinks;
+	}
+
+	@Benchmark
+	public List<Outlink> filterRuleByRule() throws Exception {
+		List<Outlink> filteredLinks = new ArrayList<Outlink>();
+		for (Outlink outlink : Fixtures.copyOutlinks(outlinks)) {
+
+			// First capturing rule wins, url rules rewrite the outlink
+			boolean filtered = false;
+			for (OutlinkFilter outlinkFilter : outlinkFilters) {
+				for (Rule rule : outlinkFilter.getRegexpRuleList()) {
+					String capturedText = plan.getCompiledRule(rule).execute(outlink);
+					if (capturedText != null) {
+						filtered = true;
+						if (!rule.getIsAnchorRule()) {
+							outlink.setUrl(capturedText);
+						}
+						break;
+					}
+				}
+				if (filtered) {
+					break;
+				}
+			}
+
+			if (filtered) {
+				filteredLinks.add(outlink);
+			}
+		}
+		return filteredLinks;
+	}
+}
@@ -0,0 +1,71 @@
+package org.kblight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseResult;
+import org.apache.nutch.protocol.Content;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.DocumentFragment;
+
+import com.atlantbh.nutch.filter.xpath.XPathHtmlParserFilter;
+
+/**
+ * Full {@link XPathHtmlParserFilter} run on a page of the corpus, from the
+ * parser output to the filtered parse result: page selection, document
+ * cleaning or parsing, xpath evaluation, rules, sub parse results and
+ * outlink filtering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParseFilterBenchmark {
+
+	@Param({"listing", "detail", "feed"})
+	public String page;
+
+	@Param({"CLEANER", "PARSER"})
+	public String documentSource;
+
+	private XPathHtmlParserFilter filter;
+	private Content content;
+	private DocumentFragment fragment;
+	private Outlink[] outlinks;
+	private HTMLMetaTags metaTags;
+
+	@Setup
+	public void setUp() throws Exception {
+		Corpus.Page corpusPage = Corpus.load().getPage(page);
+		Configuration configuration = Fixtures.newConfiguration(documentSource);
+
+		filter = new XPathHtmlParserFilter();
+		filter.setConf(configuration);
+
+		// The parser output is the filter input, it is built once
+		content = corpusPage.toContent(configuration);
+		fragment = Fixtures.parseFragment(corpusPage);
+		outlinks = Fixtures.getOutlinks(configuration, content, fragment);
+		metaTags = new HTMLMetaTags();
+	}
+
+	@Benchmark
+	public ParseResult filter() throws Exception {
+		ParseResult parseResult = Fixtures.newParseResult(content, Fixtures.copyOutlinks(outlinks));
+		return filter.filter(content, parseResult, metaTags, fragment);
+	}
+}
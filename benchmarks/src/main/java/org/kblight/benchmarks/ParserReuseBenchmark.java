@@ -0,0 +1,119 @@
+package org.kblight.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.apache.nutch.parse.html.DOMBuilder;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+
+/**
+ * Neko or TagSoup parsing of a small ajax fragment or of a large page of
+ * the corpus, with a parser configured for each document as the html
+ * parser used to, or with the parser of the thread reused as it does now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParserReuseBenchmark {
+
+	// Constants
+	private static final String ENCODING = "UTF-8";
+	private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+	@Param({"fragment", "listing"})
+	public String page;
+
+	@Param({"neko", "tagsoup"})
+	public String parserImpl;
+
+	private byte[] content;
+	private DOMFragmentParser nekoParser;
+	private org.ccil.cowan.tagsoup.Parser tagSoupParser;
+
+	@Setup
+	public void setUp() throws Exception {
+		content = Corpus.load().getPage(page).getContent();
+		nekoParser = newNekoParser();
+		tagSoupParser = newTagSoupParser();
+	}
+
+	@Benchmark
+	public DocumentFragment fresh() throws Exception {
+		if ("tagsoup".equals(parserImpl)) {
+			return parseTagSoup(newTagSoupParser());
+		}
+		return parseNeko(newNekoParser());
+	}
+
+	@Benchmark
+	public DocumentFragment reused() throws Exception {
+		if ("tagsoup".equals(parserImpl)) {
+			DocumentFragment fragment = parseTagSoup(tagSoupParser);
+			tagSoupParser.setContentHandler(null);
+			tagSoupParser.setProperty(LEXICAL_HANDLER, null);
+			return fragment;
+		}
+		return parseNeko(nekoParser);
+	}
+
+	private DocumentFragment parseNeko(DOMFragmentParser parser) throws Exception {
+		HTMLDocumentImpl document = new HTMLDocumentImpl();
+		document.setErrorChecking(false);
+		DocumentFragment fragment = document.createDocumentFragment();
+		parser.parse(newInput(), fragment);
+		return fragment;
+	}
+
+	private DocumentFragment parseTagSoup(org.ccil.cowan.tagsoup.Parser parser) throws Exception {
+		HTMLDocumentImpl document = new HTMLDocumentImpl();
+		DocumentFragment fragment = document.createDocumentFragment();
+		DOMBuilder builder = new DOMBuilder(document, fragment);
+		parser.setContentHandler(builder);
+		parser.setProperty(LEXICAL_HANDLER, builder);
+		parser.parse(newInput());
+		return fragment;
+	}
+
+	private InputSource newInput() {
+		InputSource input = new InputSource(new ByteArrayInputStream(content));
+		input.setEncoding(ENCODING);
+		return input;
+	}
+
+	// Same settings as the html parser
+	private static DOMFragmentParser newNekoParser() throws Exception {
+		DOMFragmentParser parser = new DOMFragmentParser();
+		parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe", true);
+		parser.setFeature("http://cyberneko.org/html/features/augmentations", true);
+		parser.setProperty("http://cyberneko.org/html/properties/default-encoding", ENCODING);
+		parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset", true);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", false);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+		parser.setFeature("http://cyberneko.org/html/features/report-errors", false);
+		return parser;
+	}
+
+	private static org.ccil.cowan.tagsoup.Parser newTagSoupParser() throws Exception {
+		org.ccil.cowan.tagsoup.Parser parser = new org.ccil.cowan.tagsoup.Parser();
+		parser.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+		parser.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+		return parser;
+	}
+}
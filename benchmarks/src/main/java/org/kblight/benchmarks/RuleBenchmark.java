@@ -0,0 +1,162 @@
+package org.kblight.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.protocol.Content;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.atlantbh.nutch.filter.xpath.config.OutlinkFilter;
+import com.atlantbh.nutch.filter.xpath.config.Rule;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlan;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanCache;
+
+/**
+ * {@link Rule} execution with the rules of the sample configuration: the
+ * url rules on the outlinks of the corpus and the date rules on posting
+ * dates. The rules are executed through the compiled rules of the plan
+ * and shared like in a parse job, the shared variants run them from
+ * several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RuleBenchmark {
+
+	// Constants
+	private static final int DATE_COUNT = 365;
+	private static final int SHARED_THREADS = 4;
+
+	private XPathFilterPlan plan;
+	private Rule[] urlRules;
+	private Rule[] dateRules;
+	private Outlink[] outlinks;
+	private String[] dates;
+
+	/**
+	 * Position of a thread in the inputs.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int next;
+
+		int next(int length) {
+			int index = next;
+			next = index + 1 == length ? 0 : index + 1;
+			return index;
+		}
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		Configuration configuration = Fixtures.newConfiguration("CLEANER");
+		plan = XPathFilterPlanCache.getPlan(configuration);
+
+		List<Rule> urlRuleList = new ArrayList<Rule>();
+		List<Rule> dateRuleList = new ArrayList<Rule>();
+		for (XPathIndexerProperties xPathIndexerProperties : plan.getConfiguration().getXPathIndexerPropertiesList()) {
+			if (xPathIndexerProperties.getOutlinkFilterList() != null) {
+				for (OutlinkFilter outlinkFilter : xPathIndexerProperties.getOutlinkFilterList()) {
+					urlRuleList.addAll(outlinkFilter.getRegexpRuleList());
+				}
+			}
+			for (XPathIndexerPropertiesField xPathIndexerPropertiesField : xPathIndexerProperties.getXPathIndexerPropertiesFieldList()) {
+				addRules(xPathIndexerPropertiesField, urlRuleList, dateRuleList);
+			}
+		}
+		urlRules = urlRuleList.toArray(new Rule[urlRuleList.size()]);
+		dateRules = dateRuleList.toArray(new Rule[dateRuleList.size()]);
+
+		List<Outlink> outlinkList = new ArrayList<Outlink>();
+		for (Corpus.Page page : Corpus.load().getPages()) {
+			if (page.isHtml()) {
+				Content content = page.toContent(configuration);
+				outlinkList.addAll(Arrays.asList(Fixtures.getOutlinks(configuration, content, Fixtures.parseFragment(page))));
+			}
+		}
+		outlinks = outlinkList.toArray(new Outlink[outlinkList.size()]);
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+		Calendar calendar = Calendar.getInstance();
+		dates = new String[DATE_COUNT];
+		for (int i = 0; i < DATE_COUNT; i++) {
+			dates[i] = "Posted on " + dateFormat.format(calendar.getTime());
+			calendar.add(Calendar.DAY_OF_MONTH, -1);
+		}
+	}
+
+	private static void addRules(XPathIndexerPropertiesField xPathIndexerPropertiesField, List<Rule> urlRuleList, List<Rule> dateRuleList) {
+		Rule rule = xPathIndexerPropertiesField.getRegexpRule();
+		if (rule != null) {
+			if (rule.getInDateFormat() != null) {
+				dateRuleList.add(rule);
+			} else if (rule.isParseResultUrl()) {
+				urlRuleList.add(rule);
+			}
+		}
+		if (xPathIndexerPropertiesField.getParseMetas() != null) {
+			for (XPathIndexerPropertiesField parseMeta : xPathIndexerPropertiesField.getParseMetas()) {
+				addRules(parseMeta, urlRuleList, dateRuleList);
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void urlRules(Cursor cursor, Blackhole blackhole) {
+		executeUrlRules(outlinks[cursor.next(outlinks.length)], blackhole);
+	}
+
+	@Benchmark
+	@Threads(SHARED_THREADS)
+	public void urlRulesShared(Cursor cursor, Blackhole blackhole) {
+		executeUrlRules(outlinks[cursor.next(outlinks.length)], blackhole);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void dateRules(Cursor cursor, Blackhole blackhole) {
+		executeDateRules(dates[cursor.next(dates.length)], blackhole);
+	}
+
+	@Benchmark
+	@Threads(SHARED_THREADS)
+	public void dateRulesShared(Cursor cursor, Blackhole blackhole) {
+		executeDateRules(dates[cursor.next(dates.length)], blackhole);
+	}
+
+	private void executeUrlRules(Outlink outlink, Blackhole blackhole) {
+		for (Rule rule : urlRules) {
+			blackhole.consume(plan.getCompiledRule(rule).execute(outlink));
+		}
+	}
+
+	private void executeDateRules(String date, Blackhole blackhole) {
+		for (Rule rule : dateRules) {
+			blackhole.consume(plan.getCompiledRule(rule).execute(date));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.kblight.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NodeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+
+import com.atlantbh.nutch.filter.xpath.DOMContentUtils;
+
+/**
+ * Text extraction of an html page of the corpus: the single pass
+ * extraction of {@link DOMContentUtils}, and the previous regex based one
+ * for comparison. Both extract the same text, checked by the setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TextExtractionBenchmark {
+
+	@Param({"listing", "detail"})
+	public String page;
+
+	private DOMContentUtils utils;
+	private DocumentFragment fragment;
+
+	@Setup
+	public void setUp() throws Exception {
+		Configuration configuration = Fixtures.newConfiguration("CLEANER");
+		utils = new DOMContentUtils(configuration);
+		fragment = Fixtures.parseFragment(Corpus.load().getPage(page));
+
+		if (!collapsed().equals(regex())) {
+			throw new IllegalStateException("Different texts extracted from " + page);
+		}
+	}
+
+	@Benchmark
+	public String collapsed() {
+		StringBuilder sb = new StringBuilder();
+		utils.getText(sb, fragment);
+		return sb.toString();
+	}
+
+	@Benchmark
+	public String regex() {
+		StringBuffer sb = new StringBuffer();
+		getRegexText(sb, fragment);
+		return sb.toString();
+	}
+
+	// Text extraction before the single pass one
+	private static void getRegexText(StringBuffer sb, Node node) {
+		NodeWalker walker = new NodeWalker(node);
+		while (walker.hasNext()) {
+			Node currentNode = walker.nextNode();
+			String nodeName = currentNode.getNodeName();
+			short nodeType = currentNode.getNodeType();
+
+			if ("script".equalsIgnoreCase(nodeName)) {
+				walker.skipChildren();
+			}
+			if ("style".equalsIgnoreCase(nodeName)) {
+				walker.skipChildren();
+			}
+			if (nodeType == Node.COMMENT_NODE) {
+				walker.skipChildren();
+			}
+			if (nodeType == Node.TEXT_NODE) {
+				String text = currentNode.getNodeValue();
+				text = text.replaceAll("\\s+", " ");
+				text = text.trim();
+				if (text.length() > 0) {
+					if (sb.length() > 0) sb.append(' ');
+					sb.append(text);
+				}
+			}
+		}
+	}
+}
@@ -2,11 +2,19 @@ package com.atlantbh.nutch.filter.xpath;
 
 import java.util.regex.Pattern;
 
-import org.apache.nutch.util.NodeWalker;
 import org.w3c.dom.Node;
 
 public class FilterUtils {
 
+	// Text buffer of the thread, dropped when grown by a large text
+	private static final int MAX_TEXT_BUFFER = 64 * 1024;
+	private static final ThreadLocal<StringBuilder> TEXT_BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(1024);
+		}
+	};
+
 	/**
 	 * Returns the same value. If null returns the defaultValue.
 	 * 
@@ -30,11 +38,15 @@ public class FilterUtils {
 		String value = null;
 		if (node instanceof Node) {
 			if(withchildrenText){
-				StringBuffer sb = new StringBuffer();
+				StringBuilder sb = TEXT_BUFFER.get();
+				sb.setLength(0);
 				
-				getTextHelper(sb, (Node)node, false, 0);
+				DOMContentUtils.appendText(sb, (Node)node, false);
 				
 				value = sb.toString();
+				if (sb.capacity() > MAX_TEXT_BUFFER) {
+					TEXT_BUFFER.remove();
+				}
 			}else{
 				value = ((Node) node).getTextContent();
 			}
@@ -45,49 +57,6 @@ public class FilterUtils {
 		return value;
 	}
 
-	private static boolean getTextHelper(StringBuffer sb, Node node, 
-			boolean abortOnNestedAnchors,
-			int anchorDepth) {
-		boolean abort = false;
-		NodeWalker walker = new NodeWalker(node);
-		
-		while (walker.hasNext()) {
-
-			Node currentNode = walker.nextNode();
-			String nodeName = currentNode.getNodeName();
-			short nodeType = currentNode.getNodeType();
-
-			if ("script".equalsIgnoreCase(nodeName)) {
-				walker.skipChildren();
-			}
-			if ("style".equalsIgnoreCase(nodeName)) {
-				walker.skipChildren();
-			}
-			if (abortOnNestedAnchors && "a".equalsIgnoreCase(nodeName)) {
-				anchorDepth++;
-				if (anchorDepth > 1) {
-					abort = true;
-					break;
-				}        
-			}
-			if (nodeType == Node.COMMENT_NODE) {
-				walker.skipChildren();
-			}
-			if (nodeType == Node.TEXT_NODE) {
-				// cleanup and trim the value
-				String text = currentNode.getNodeValue();
-				text = text.replaceAll("\\s+", " ");
-				text = text.trim();
-				if (text.length() > 0) {
-					if (sb.length() > 0) sb.append(' ');
-					sb.append(text);
-				}
-			}
-		}
-		
-		return abort;
-	}
-
 	/**
 	 * Check's if the url math the regex. Regex null safe.
 	 * 
@@ -114,6 +83,17 @@ public class FilterUtils {
 		return false;
 	}
 
+	/**
+	 * Check's if the data matches the precompiled pattern. Pattern null safe.
+	 * 
+	 * @param pattern The pattern to match against, null matches everything.
+	 * @param data The data to match.
+	 * @return True if the data matches the pattern, otherwise false.
+	 */
+	public static boolean isMatch(Pattern pattern, String data) {
+		return pattern == null || pattern.matcher(data).matches();
+	}
+
 	/**
 	 * Checks if the string is entirely made of the provided characters.
 	 * 
@@ -12,13 +12,19 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -46,7 +52,6 @@ import org.htmlcleaner.SimpleHtmlSerializer;
 import org.htmlcleaner.TagNode;
 import org.jaxen.JaxenException;
 import org.jaxen.XPath;
-import org.jaxen.dom.DOMXPath;
 import org.mortbay.log.Log;
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
@@ -54,12 +59,21 @@ import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import com.atlantbh.nutch.filter.xpath.config.CompiledRule;
+import com.atlantbh.nutch.filter.xpath.config.DocumentSource;
 import com.atlantbh.nutch.filter.xpath.config.FieldType;
-import com.atlantbh.nutch.filter.xpath.config.OutlinkFilter;
 import com.atlantbh.nutch.filter.xpath.config.Rule;
-import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
 import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
 import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
+import com.atlantbh.nutch.filter.xpath.metrics.ParseMetrics;
+import com.atlantbh.nutch.filter.xpath.metrics.Stage;
+import com.atlantbh.nutch.filter.xpath.plan.OutlinkFilterEngine;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlan;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanCache;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanReference;
+import com.atlantbh.nutch.filter.xpath.stream.StreamablePath;
+import com.atlantbh.nutch.filter.xpath.stream.XmlStreamExtractor;
+import com.atlantbh.nutch.filter.xpath.stream.XmlStreamHandler;
 
 
 /**
@@ -77,19 +91,23 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 	// Constants
 	private static final Logger LOG= Logger.getLogger(XPathHtmlParserFilter.class);
 	private static final List<String> htmlMimeTypes = Arrays.asList(new String[] {"text/html", "application/xhtml+xml"});
+	private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
 	
 	// OLD WAY TO DETERMIN IF IT'S AN XML FORMAT
 	//private static final List<String> xmlMimeTypes = Arrays.asList(new String[] {"text/xml", "application/xml"});
 	
 	// Configuration
 	private Configuration configuration;
-	private XPathFilterConfiguration xpathFilterConfiguration;
+	private XPathFilterPlanReference xpathFilterPlanReference;
 	private String defaultEncoding;
 	
 	// Internal data
 	private HtmlCleaner cleaner;
 	private DomSerializer domSerializer;
 	private DocumentBuilder documentBuilder;
+	private XMLInputFactory xmlInputFactory;
+	private boolean xmlStreaming;
+	private ParseMetrics metrics = ParseMetrics.DISABLED;
 	private SimpleHtmlSerializer htmlSerializer;
 	private  DOMContentUtils utils;
 	private boolean exportSamplePage;
@@ -97,6 +115,8 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 	private SimpleDateFormat dateFormat = new SimpleDateFormat("dd.MM.yyyy");
 	 public static String LAST_FETCH_TIME = "LAST_FETCH_TIME";
 	private long jobItemFetchInterval;
+	// Plan picked by needsDocument for the page being parsed by the thread
+	private final ThreadLocal<PlanSelection> planSelections = new ThreadLocal<PlanSelection>();
 	
 	public XPathHtmlParserFilter() {
 		init();
@@ -123,12 +143,18 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 		} catch (ParserConfigurationException e) {
 			// THIS CAN NEVER HAPPEN
 		}
+		
+		// Initialize streaming xml parser, CDATA is reported apart like in the DOM
+		xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		if(xmlInputFactory.isPropertySupported(REPORT_CDATA_PROPERTY))
+			xmlInputFactory.setProperty(REPORT_CDATA_PROPERTY, Boolean.TRUE);
 	}
 	
 	private void initConfig() {
 
 		// Initialize configuration
-		xpathFilterConfiguration  = XPathFilterConfiguration.getInstance(configuration);
+		xpathFilterPlanReference = XPathFilterPlanCache.getReference(configuration);
 		defaultEncoding = configuration.get("parser.character.encoding.default", "UTF-8");
 		this.utils = new DOMContentUtils(configuration);
 		
@@ -139,6 +165,8 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 		}
 		
 		jobItemFetchInterval = configuration.getLong("jobitem.fetch.interval", 7776000);
+		xmlStreaming = configuration.getBoolean("filter.xpath.xml.streaming", true);
+		metrics = ParseMetrics.getInstance(configuration);
 	}
 
 	@Override
@@ -149,37 +177,76 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 	@Override
 	public void setConf(Configuration configuration) {
 		this.configuration = configuration;
-		initConfig(); 
+		initConfig();
 	}
+
+	/**
+	 * @return The compiled plan currently used by this filter, exposes the xpath compile and hit statistics.
+	 */
+	public XPathFilterPlan getXPathFilterPlan() {
+		return xpathFilterPlanReference.get();
+	}
+
 	
-	
+	/**
+	 * @return The parse metrics of this filter, disabled unless filter.xpath.metrics.enabled is set.
+	 */
+	public ParseMetrics getMetrics() {
+		return metrics;
+	}
+
 	public ParseResult filter(Content content, ParseResult parseResult, HTMLMetaTags metaTags, DocumentFragment doc) {
+		long start = metrics.start();
+		try {
+			return doFilter(content, parseResult, doc);
+		} finally {
+			metrics.stop(Stage.FILTER, start);
+		}
+	}
+	
+	/**
+	 * Tells the html parser whether it must build the DOM of the page, which
+	 * is only read by the matching profiles evaluated on the parser document.
+	 * Without it, the parser extracts the content while parsing.
+	 * 
+	 * The plan used for the decision is kept for the filtering of the same
+	 * page, so a reload in between cannot leave a PARSER profile without DOM.
+	 * 
+	 * @return True if a profile matching the page uses the PARSER document source.
+	 */
+	public boolean needsDocument(Content content) {
+		if(!htmlMimeTypes.contains(content.getContentType()))
+			return false;
 		
-		Metadata metadata = parseResult.get(content.getUrl()).getData().getParseMeta();
+		XPathFilterPlan xpathFilterPlan = getXPathFilterPlan();
+		planSelections.set(new PlanSelection(content, xpathFilterPlan));
+		for(XPathIndexerProperties xPathIndexerProperties : xpathFilterPlan.getMatchingProperties(content.getBaseUrl())) {
+			if(XPathFilterPlan.getDocumentSource(xPathIndexerProperties) == DocumentSource.PARSER)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return The plan picked by needsDocument for this page, the current plan otherwise.
+	 */
+	private XPathFilterPlan takeXPathFilterPlan(Content content) {
+		PlanSelection planSelection = planSelections.get();
+		if(planSelection == null)
+			return getXPathFilterPlan();
 		
+		planSelections.remove();
+		return planSelection.content == content ? planSelection.plan : getXPathFilterPlan();
+	}
+	
+	private ParseResult doFilter(Content content, ParseResult parseResult, DocumentFragment doc) {
 		
-		byte[] rawContent = content.getContent();
+		Metadata metadata = parseResult.get(content.getUrl()).getData().getParseMeta();
 		
 		try {
-			Document cleanedXmlHtml = documentBuilder.newDocument();
-			if(htmlMimeTypes.contains(content.getContentType())) {
-				
-				// Create reader so the input can be read in UTF-8
-				Reader rawContentReader = new InputStreamReader(new ByteArrayInputStream(rawContent), FilterUtils.getNullSafe(metadata.get(Metadata.ORIGINAL_CHAR_ENCODING), defaultEncoding));
-				
-				// Use the cleaner to "clean" the HTML and return it as a TagNode object
-				TagNode tagNode = cleaner.clean(rawContentReader);
-				if(exportSamplePage)
-					htmlSerializer.writeToFile(tagNode, samplePageExportPath,FilterUtils.getNullSafe(metadata.get(Metadata.ORIGINAL_CHAR_ENCODING), defaultEncoding));
-				
-				
-				cleanedXmlHtml = domSerializer.createDOM(tagNode);
-				
-			} else if(content.getContentType().contains(new StringBuilder("/xml")) || content.getContentType().contains(new StringBuilder("+xml"))) {
-				
-				// Parse as xml - don't clean
-				cleanedXmlHtml = documentBuilder.parse(new InputSource(new ByteArrayInputStream(rawContent)));	
-			} 
+			// Built on first use, only for the profiles that need the HtmlCleaner document
+			Document cleanedXmlHtml = null;
+			
 			//We suppress all outlinks (this should go in an OutlinkFilterplugin).
 			//By default outlink will eventually be enriched by the filter if an outlink filter is found for the url
 			
@@ -194,7 +261,13 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 			
 			// Once the HTML is cleaned, then you can run your XPATH expressions on the node, 
 			// which will then return an array of TagNode objects 
-			List<XPathIndexerProperties> xPathIndexerPropertiesList = xpathFilterConfiguration.getXPathIndexerPropertiesList();
+			// Only the profiles whose url regex matches the page are returned
+			// The plan may be reloaded at any time, the whole page goes through the same one
+			XPathFilterPlan xpathFilterPlan = takeXPathFilterPlan(content);
+			List<XPathIndexerProperties> xPathIndexerPropertiesList = xpathFilterPlan.getMatchingProperties(content.getBaseUrl());
+			
+			// XML feeds are read in a single streaming pass for the profiles that allow it
+			Map<XPathIndexerProperties, StreamedProfile> streamedProfiles = streamProfiles(content, parseResult, xpathFilterPlan, xPathIndexerPropertiesList);
 			
 			for(XPathIndexerProperties xPathIndexerProperties : xPathIndexerPropertiesList) {
 				
@@ -206,10 +279,28 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 				if(content.getMetadata().get("Location")!=null)
 					pageMatches = pageToProcess(xPathIndexerProperties, cleanedXmlHtml, content.getMetadata().get("Location"));
 				if(!pageMatches)*/
-					boolean pageMatches = pageToProcess(xPathIndexerProperties, cleanedXmlHtml, content.getBaseUrl());
+					// Pick the document to evaluate the profile on
+				StreamedProfile streamedProfile = streamedProfiles.get(xPathIndexerProperties);
+				DocumentSource source = XPathFilterPlan.getDocumentSource(xPathIndexerProperties);
+				Node document = null;
+				if(streamedProfile != null) {
+					source = DocumentSource.CLEANER;
+				} else if(source == DocumentSource.PARSER && doc != null && htmlMimeTypes.contains(content.getContentType())) {
+					document = doc;
+				} else {
+					source = DocumentSource.CLEANER;
+					if(cleanedXmlHtml == null)
+						cleanedXmlHtml = createCleanedDocument(content, metadata);
+					document = cleanedXmlHtml;
+				}
+				
+					boolean pageMatches = streamedProfile != null ? isPageContentMatch(xpathFilterPlan, xPathIndexerProperties, streamedProfile.pageContentValues) : pageToProcess(xpathFilterPlan, xPathIndexerProperties, document, source);
+				String profileName = xpathFilterPlan.getProfileName(xPathIndexerProperties);
+				metrics.count(profileName, ParseMetrics.PROFILE_EVALUATED);
 				/*
 				*/
 				if(pageMatches) {
+					metrics.count(profileName, ParseMetrics.PROFILE_MATCHED);
 					if(LOG.isDebugEnabled())
 						LOG.debug(content.getBaseUrl());
 						
@@ -222,7 +313,7 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 							String value = content.getMetadata().get(xPathIndexerPropertiesField.getName()).trim();
 							//selenium has set a value for this field
 							if(xPathIndexerPropertiesField.getRegexpRule()!=null){
-								value = xPathIndexerPropertiesField.getRegexpRule().execute(value);
+								value = xpathFilterPlan.getCompiledRule(xPathIndexerPropertiesField.getRegexpRule()).execute(value);
 							}
 							if(value!=null){
 								metadata.add(xPathIndexerPropertiesField.getName(), value);	
@@ -237,10 +328,20 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 						if(xPathIndexerPropertiesField.getXPath().length() == 0)
 							continue;
 						
+						// Values already extracted by the streaming pass
+						if(streamedProfile != null) {
+							countEvaluation(profileName, xPathIndexerPropertiesField, streamedProfile.getNodeCount(xPathIndexerPropertiesField));
+							streamedProfile.apply(xPathIndexerPropertiesField, metadata, parseResult, capturedOutlinks);
+							continue;
+						}
+						
 						// Evaluate xpath			
-						XPath xPath = new DOMXPath(xPathIndexerPropertiesField.getXPath());
+						XPath xPath = xpathFilterPlan.getXPath(xPathIndexerPropertiesField.getXPath(), source);
 						
-						List nodeList = xPath.selectNodes(cleanedXmlHtml);
+						long xPathStart = metrics.start();
+						List nodeList = xPath.selectNodes(document);
+						metrics.stop(Stage.XPATH, xPathStart);
+						countEvaluation(profileName, xPathIndexerPropertiesField, nodeList.size());
 						
 						if(LOG.isDebugEnabled())
 							LOG.debug("evaluating "+xPathIndexerPropertiesField.toString());
@@ -278,10 +379,14 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 						} else {
 							switch (type) {
 							case SUBPARSERESULT:
-								getSubParseResults(utils,content,parseResult,nodeList,xPathIndexerPropertiesField);
+								long subParseStart = metrics.start();
+								getSubParseResults(utils,xpathFilterPlan,content,parseResult,nodeList,xPathIndexerPropertiesField,source);
+								metrics.stop(Stage.SUBPARSE, subParseStart);
 								break;
 							case OUTLINK:
-								getOutlink(utils,content,parseResult,nodeList,xPathIndexerPropertiesField,capturedOutlinks);
+								long outlinkStart = metrics.start();
+								getOutlink(utils,xpathFilterPlan,content,parseResult,nodeList,xPathIndexerPropertiesField,capturedOutlinks,source);
+								metrics.stop(Stage.SUBPARSE, outlinkStart);
 								break;
 							default:
 								// Iterate trough all found nodes
@@ -293,7 +398,7 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 									value = filterValue(value, trim);
 									if(value != null) {
 										if(xPathIndexerPropertiesField.getRegexpRule()!=null){
-											value = xPathIndexerPropertiesField.getRegexpRule().execute(value);
+											value = executeRule(xpathFilterPlan, profileName, xPathIndexerPropertiesField, value);
 										}
 										if(value!=null){
 											metadata.add(xPathIndexerPropertiesField.getName(), value);	
@@ -330,56 +435,12 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 						}
 					}*/
 					
-					//filter outlinks
-					if(xPathIndexerProperties.getOutlinkFilterList()!=null && xPathIndexerProperties.getOutlinkFilterList().size() > 0){
-						
-						List<OutlinkFilter> outlinkfiltersList = xPathIndexerProperties.getOutlinkFilterList();
-						List<Outlink> tempArray = new ArrayList<Outlink>();
-						
-						tempArray.addAll(filteredLinks);
-						filteredLinks.clear();
-						
-						
-						for (Outlink outlink : tempArray) {
-							/*if(LOG.isDebugEnabled()){
-								LOG.debug("filtering outlink : "+outlink.toString());
-							}*/
-							boolean filtered = false;
-							
-							for( OutlinkFilter outlinkFilter: outlinkfiltersList){
-										
-									List<Rule> rulesList = outlinkFilter.getRegexpRuleList();
-									
-									for (Rule rule : rulesList) {
-									
-										String capturedText = rule.execute(outlink);
-										if(capturedText!=null){
-											filtered = true;
-											if(rule.getIsAnchorRule()){
-												LOG.debug("filtering outlink text link: "+capturedText);
-											}else{
-												outlink.setUrl(capturedText);
-											}
-											break;
-										}
-										
-									}
-									if(filtered)
-										break;
-									
-							}	
-							
-							if(filtered){
-								
-								filteredLinks.add(outlink);
-								if(LOG.isDebugEnabled()){
-									LOG.debug("adding filtered outlink : "+outlink.toString());
-								}
-							}
-							
-						}
-						
-						
+					//filter outlinks, the first capturing rule of the profile keeps the outlink
+					OutlinkFilterEngine outlinkFilterEngine = xpathFilterPlan.getOutlinkFilterEngine(xPathIndexerProperties);
+					if(outlinkFilterEngine != null){
+						long outlinkFilterStart = metrics.start();
+						filteredLinks = outlinkFilterEngine.filter(filteredLinks);
+						metrics.stop(Stage.OUTLINK_FILTER, outlinkFilterStart);
 					}
 					
 					filteredLinks.addAll(capturedOutlinks);
@@ -445,6 +506,9 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 			System.err.println(e.getMessage());
 			LOG.error("XML parsing error: " + e.getMessage());
 			return new ParseStatus(ParseStatus.FAILED, "XML parsing error: " + e.getMessage()).getEmptyParseResult(content.getUrl(), configuration);
+		} catch (XMLStreamException e) {
+			LOG.error("XML parsing error: " + e.getMessage(), e);
+			return new ParseStatus(ParseStatus.FAILED, "XML parsing error: " + e.getMessage()).getEmptyParseResult(content.getUrl(), configuration);
 		} catch (JaxenException e) {
 			System.err.println(e.getMessage());
 			LOG.error("XPath error: " + e.getMessage());
@@ -454,7 +518,7 @@ public class XPathHtmlParserFilter implements HtmlParseFilter {
 		return parseResult;
 	}
 	
-public  void getSubParseResults(DOMContentUtils utils,Content parentContent,ParseResult parentParseResult,List nodeList,XPathIndexerPropertiesField subParsesField) throws MalformedURLException,JaxenException, ParserConfigurationException{
+public  void getSubParseResults(DOMContentUtils utils,XPathFilterPlan xpathFilterPlan,Content parentContent,ParseResult parentParseResult,List nodeList,XPathIndexerPropertiesField subParsesField,DocumentSource source) throws MalformedURLException,JaxenException, ParserConfigurationException{
 		
 		String baseURL = parentContent.getBaseUrl();
 		
@@ -463,6 +527,7 @@ public  void getSubParseResults(DOMContentUtils utils,Content parentContent,Pars
 		ArrayList<Outlink> subLinks = new ArrayList<Outlink>();
 		
 		Rule parseResultUrlRule = subParsesField.getRegexpRule();
+		CompiledRule compiledParseResultUrlRule = xpathFilterPlan.getCompiledRule(parseResultUrlRule);
 		
 		for (int i = 0;i<nodeList.size();i++) {
 			
@@ -480,7 +545,7 @@ public  void getSubParseResults(DOMContentUtils utils,Content parentContent,Pars
 			for (Outlink outlink : subLinks) {
 				
 				//we  examine  outlinks to capture the url of the subparse
-				String capturedText = parseResultUrlRule.execute(outlink);
+				String capturedText = compiledParseResultUrlRule.execute(outlink);
 				if(capturedText!=null){
 					
 					
@@ -530,7 +595,7 @@ public  void getSubParseResults(DOMContentUtils utils,Content parentContent,Pars
 						LOG.debug(parseMeta.getName()+"-> "+ parseMeta.getXPath());
 					*/	
 						
-						XPath xPath = new DOMXPath(parseMeta.getXPath());
+						XPath xPath = xpathFilterPlan.getXPath(parseMeta.getXPath(), source);
 						Node currNode = (Node)xPath.selectSingleNode(subNode);
 						if(currNode!=null){
 							//Node currentNode = (Node)subNodes.get(0);
@@ -541,7 +606,7 @@ public  void getSubParseResults(DOMContentUtils utils,Content parentContent,Pars
 							if(value!=null){
 								
 								if(parseMeta.getRegexpRule()!=null){
-									value = parseMeta.getRegexpRule().execute(value);
+									value = xpathFilterPlan.getCompiledRule(parseMeta.getRegexpRule()).execute(value);
 								}
 								if(value!=null){
 									sb.append(value);
@@ -629,13 +694,14 @@ public  void getSubParseResults(DOMContentUtils utils,Content parentContent,Pars
 		
 	}
 
-public  void getOutlink(DOMContentUtils utils,Content parentContent,ParseResult parentParseResult,List nodeList,XPathIndexerPropertiesField subParsesField,List<Outlink> links) throws MalformedURLException,JaxenException, ParserConfigurationException{
+public  void getOutlink(DOMContentUtils utils,XPathFilterPlan xpathFilterPlan,Content parentContent,ParseResult parentParseResult,List nodeList,XPathIndexerPropertiesField subParsesField,List<Outlink> links,DocumentSource source) throws MalformedURLException,JaxenException, ParserConfigurationException{
 	
 	String baseURL = parentContent.getBaseUrl();
 	
 	ArrayList<Outlink> subLinks = new ArrayList<Outlink>();
 	
 	Rule parseResultUrlRule = subParsesField.getRegexpRule();
+	CompiledRule compiledParseResultUrlRule = xpathFilterPlan.getCompiledRule(parseResultUrlRule);
 	
 	for (int i = 0;i<nodeList.size();i++) {
 		
@@ -657,7 +723,7 @@ public  void getOutlink(DOMContentUtils utils,Content parentContent,ParseResult
 		for (Outlink subLink : subLinks) {
 			
 			//we  examine  outlinks to capture the url of the subparse
-			String capturedText = parseResultUrlRule.execute(subLink);
+			String capturedText = compiledParseResultUrlRule.execute(subLink);
 			
 			if(capturedText!=null){
 				
@@ -708,7 +774,7 @@ public  void getOutlink(DOMContentUtils utils,Content parentContent,ParseResult
 					LOG.debug(parseMeta.getName()+"-> "+ parseMeta.getXPath());
 				*/	
 					
-					XPath xPath = new DOMXPath(parseMeta.getXPath());
+					XPath xPath = xpathFilterPlan.getXPath(parseMeta.getXPath(), source);
 					Node currNode = (Node)xPath.selectSingleNode(subNode);
 					if(currNode!=null){
 						//Node currentNode = (Node)subNodes.get(0);
@@ -719,7 +785,7 @@ public  void getOutlink(DOMContentUtils utils,Content parentContent,ParseResult
 						if(value!=null){
 							
 							if(parseMeta.getRegexpRule()!=null){
-								value = parseMeta.getRegexpRule().execute(value);
+								value = xpathFilterPlan.getCompiledRule(parseMeta.getRegexpRule()).execute(value);
 							}
 							if(value!=null){
 								sb.append(value);
@@ -759,66 +825,365 @@ public  void getOutlink(DOMContentUtils utils,Content parentContent,ParseResult
 	
 	
 	@SuppressWarnings("rawtypes")
-	private boolean pageToProcess(XPathIndexerProperties xPathIndexerProperties, Document cleanedXmlHtml, String url) throws JaxenException {
+	private boolean pageToProcess(XPathFilterPlan xpathFilterPlan, XPathIndexerProperties xPathIndexerProperties, Node document, DocumentSource source) throws JaxenException {
 
 		boolean processPage = true;
 		
-		// *************************************
-		// URL REGEX CONTENT PAGE FILTERING
-		// *************************************
-		processPage = processPage && FilterUtils.isMatch(xPathIndexerProperties.getPageUrlFilterRegex(), url);
-
-		// Check return status
-		if (!processPage) {
-			return false;
-		}
+		// URL regex filtering is done by the plan when selecting the profiles
 
 		// *************************************
 		// XPATH CONTENT PAGE FILTERING
 		// *************************************
 
 		if (xPathIndexerProperties.getPageContentFilterXPath() != null) {
-			XPath xPathPageContentFilter = new DOMXPath(xPathIndexerProperties.getPageContentFilterXPath());
-			List pageContentFilterNodeList = xPathPageContentFilter.selectNodes(cleanedXmlHtml);
+			XPath xPathPageContentFilter = xpathFilterPlan.getXPath(xPathIndexerProperties.getPageContentFilterXPath(), source);
+			long xPathStart = metrics.start();
+			List pageContentFilterNodeList = xPathPageContentFilter.selectNodes(document);
+			metrics.stop(Stage.XPATH, xPathStart);
 			boolean trim = FilterUtils.getNullSafe(xPathIndexerProperties.isTrimPageContentFilterXPathData(), true);
 			
-			if (FilterUtils.getNullSafe(xPathIndexerProperties.isConcatPageContentFilterXPathData(), false)) {
+			List<String> values = new ArrayList<String>(pageContentFilterNodeList.size());
+			for (Object node : pageContentFilterNodeList) {
+				values.add(filterValue(FilterUtils.extractTextContentFromRawNode(node,false), trim));
+			}
+			processPage = isPageContentMatch(xpathFilterPlan, xPathIndexerProperties, values);
+		}
 
-				// Iterate trough all found nodes
-				String value = new String();
-				String concatDelimiter = FilterUtils.getNullSafe(xPathIndexerProperties.getConcatPageContentFilterXPathDataDelimiter(), "");
+		return processPage;
+	}
+	
+	/**
+	 * Checks the values selected by the page content filter xpath against the
+	 * page content filter regex.
+	 * 
+	 * @param xpathFilterPlan The plan the page goes through.
+	 * @param xPathIndexerProperties The profile.
+	 * @param values The filtered values of the selected nodes, null if the profile has no page content filter.
+	 * @return True if the page has to be processed by the profile.
+	 */
+	private boolean isPageContentMatch(XPathFilterPlan xpathFilterPlan, XPathIndexerProperties xPathIndexerProperties, List<String> values) {
+		
+		boolean processPage = true;
+		if (values == null)
+			return processPage;
+		
+		Pattern pageContentFilterPattern = xpathFilterPlan.getPattern(xPathIndexerProperties.getPageContentFilterRegex());
+		if (FilterUtils.getNullSafe(xPathIndexerProperties.isConcatPageContentFilterXPathData(), false)) {
 
-				for (Object node : pageContentFilterNodeList) {
+			// Iterate trough all found values
+			String value = new String();
+			String concatDelimiter = FilterUtils.getNullSafe(xPathIndexerProperties.getConcatPageContentFilterXPathDataDelimiter(), "");
 
-					// Extract data
-					String tempValue = FilterUtils.extractTextContentFromRawNode(node,false);
-					tempValue = filterValue(tempValue, trim);
+			for (String tempValue : values) {
+
+				// Concatenate tempValue to value
+				if(tempValue != null) {
+					if (value.isEmpty()) {
+						value = tempValue;
+					} else {
+						value = value + concatDelimiter + tempValue;
+					}
+				}
+			}
 
-					// Concatenate tempValue to value
+			processPage = processPage && FilterUtils.isMatch(pageContentFilterPattern, value);
+		} else {
+			for (String value : values) {
+				if(value != null) {
+					processPage = processPage && FilterUtils.isMatch(pageContentFilterPattern, value);
+				}
+			}
+		}
+		
+		return processPage;
+	}
+	
+	/**
+	 * Re-parses the raw content into a W3C document: HTML is cleaned by
+	 * HtmlCleaner, XML is parsed as is, other content types give an empty document.
+	 */
+	private Document createCleanedDocument(Content content, Metadata metadata) throws IOException, ParserConfigurationException, SAXException {
+		
+		byte[] rawContent = content.getContent();
+		Document cleanedXmlHtml = documentBuilder.newDocument();
+		if(htmlMimeTypes.contains(content.getContentType())) {
+			
+			// Create reader so the input can be read in UTF-8
+			Reader rawContentReader = metrics.timeDecoding(new InputStreamReader(new ByteArrayInputStream(rawContent), FilterUtils.getNullSafe(metadata.get(Metadata.ORIGINAL_CHAR_ENCODING), defaultEncoding)));
+			
+			// Use the cleaner to "clean" the HTML and return it as a TagNode object
+			long cleanStart = metrics.start();
+			TagNode tagNode = cleaner.clean(rawContentReader);
+			if(metrics.isEnabled()) {
+				long decodeNanos = metrics.getDecodeNanos(rawContentReader);
+				metrics.record(Stage.DECODE, decodeNanos);
+				metrics.record(Stage.CLEAN, System.nanoTime() - cleanStart - decodeNanos);
+			}
+			if(exportSamplePage)
+				htmlSerializer.writeToFile(tagNode, samplePageExportPath,FilterUtils.getNullSafe(metadata.get(Metadata.ORIGINAL_CHAR_ENCODING), defaultEncoding));
+			
+			
+			long serializeStart = metrics.start();
+			cleanedXmlHtml = domSerializer.createDOM(tagNode);
+			metrics.stop(Stage.SERIALIZE, serializeStart);
+			
+		} else if(content.getContentType().contains(new StringBuilder("/xml")) || content.getContentType().contains(new StringBuilder("+xml"))) {
+			
+			// Parse as xml - don't clean
+			long parseStart = metrics.start();
+			cleanedXmlHtml = documentBuilder.parse(new InputSource(new ByteArrayInputStream(rawContent)));	
+			metrics.stop(Stage.XML_PARSE, parseStart);
+		}
+		
+		return cleanedXmlHtml;
+	}
+	
+	private void countEvaluation(String profileName, XPathIndexerPropertiesField xPathIndexerPropertiesField, int nodeCount) {
+		if(metrics.isEnabled()) {
+			metrics.count(profileName, xPathIndexerPropertiesField.getName(), ParseMetrics.FIELD_EVALUATIONS);
+			metrics.count(profileName, xPathIndexerPropertiesField.getName(), nodeCount > 0 ? ParseMetrics.FIELD_MATCHES : ParseMetrics.FIELD_EMPTY);
+		}
+	}
+	
+	private String executeRule(XPathFilterPlan xpathFilterPlan, String profileName, XPathIndexerPropertiesField xPathIndexerPropertiesField, String value) {
+		long start = metrics.start();
+		String result = xpathFilterPlan.getCompiledRule(xPathIndexerPropertiesField.getRegexpRule()).execute(value);
+		metrics.stop(Stage.RULE, start);
+		if(result == null)
+			metrics.count(profileName, xPathIndexerPropertiesField.getName(), ParseMetrics.FIELD_RULE_FAILURES);
+		return result;
+	}
+	
+	private boolean isXmlContent(Content content) {
+		String contentType = content.getContentType();
+		return contentType != null && !htmlMimeTypes.contains(contentType) && (contentType.contains("/xml") || contentType.contains("+xml"));
+	}
+	
+	/**
+	 * Runs the streamable profiles of an XML page in a single StAX pass.
+	 * Every selected node is processed as soon as it is read, sub parse
+	 * results and outlinks item by item, and only the extracted values are
+	 * kept until the profiles are applied. Profiles using an expression out
+	 * of the streamable subset are left to the DOM.
+	 * 
+	 * @return The extracted data of the streamed profiles, empty if the page is not streamed.
+	 */
+	private Map<XPathIndexerProperties, StreamedProfile> streamProfiles(final Content content, final ParseResult parseResult, final XPathFilterPlan xpathFilterPlan, List<XPathIndexerProperties> xPathIndexerPropertiesList) throws XMLStreamException, JaxenException, IOException, ParserConfigurationException {
+		
+		Map<XPathIndexerProperties, StreamedProfile> streamedProfiles = new IdentityHashMap<XPathIndexerProperties, StreamedProfile>();
+		if(!xmlStreaming || xPathIndexerPropertiesList.isEmpty() || !isXmlContent(content))
+			return streamedProfiles;
+		
+		XmlStreamExtractor extractor = new XmlStreamExtractor(xmlInputFactory, documentBuilder.newDocument());
+		for(XPathIndexerProperties xPathIndexerProperties : xPathIndexerPropertiesList) {
+			if(!isStreamable(xpathFilterPlan, xPathIndexerProperties, content.getMetadata()))
+				continue;
+			
+			final StreamedProfile streamedProfile = new StreamedProfile();
+			final String profileName = xpathFilterPlan.getProfileName(xPathIndexerProperties);
+			streamedProfiles.put(xPathIndexerProperties, streamedProfile);
+			
+			if(xPathIndexerProperties.getPageContentFilterXPath() != null) {
+				final boolean trim = FilterUtils.getNullSafe(xPathIndexerProperties.isTrimPageContentFilterXPathData(), true);
+				streamedProfile.pageContentValues = new ArrayList<String>();
+				extractor.addTarget(xpathFilterPlan.getStreamablePath(xPathIndexerProperties.getPageContentFilterXPath()), new XmlStreamHandler() {
+					public void handle(Node node) {
+						streamedProfile.pageContentValues.add(filterValue(FilterUtils.extractTextContentFromRawNode(node,false), trim));
+					}
+				});
+			}
+			
+			for(final XPathIndexerPropertiesField xPathIndexerPropertiesField : xPathIndexerProperties.getXPathIndexerPropertiesFieldList()) {
+				if(content.getMetadata().get(xPathIndexerPropertiesField.getName())!=null || xPathIndexerPropertiesField.getXPath().length() == 0)
+					continue;
+				
+				final boolean trim = FilterUtils.getNullSafe(xPathIndexerPropertiesField.getTrimXPathData(), true);
+				XmlStreamHandler handler;
+				if(FilterUtils.getNullSafe(xPathIndexerPropertiesField.isConcat(), false)) {
+					final List<String> values = streamedProfile.getValues(xPathIndexerPropertiesField);
+					handler = new XmlStreamHandler() {
+						public void handle(Node node) {
+							streamedProfile.count(xPathIndexerPropertiesField);
+							values.add(filterValue(FilterUtils.extractTextContentFromRawNode(node,false), trim));
+						}
+					};
+				} else if(xPathIndexerPropertiesField.getType() == FieldType.SUBPARSERESULT) {
+					final ParseResult subParseResults = new ParseResult(content.getUrl());
+					streamedProfile.subParseResults.put(xPathIndexerPropertiesField, subParseResults);
+					handler = new XmlStreamHandler() {
+						public void handle(Node node) throws JaxenException, IOException, ParserConfigurationException {
+							streamedProfile.count(xPathIndexerPropertiesField);
+							getSubParseResults(utils, xpathFilterPlan, content, subParseResults, Collections.singletonList(node), xPathIndexerPropertiesField, DocumentSource.CLEANER);
+						}
+					};
+				} else if(xPathIndexerPropertiesField.getType() == FieldType.OUTLINK) {
+					final List<Outlink> outlinks = new ArrayList<Outlink>();
+					streamedProfile.outlinks.put(xPathIndexerPropertiesField, outlinks);
+					handler = new XmlStreamHandler() {
+						public void handle(Node node) throws JaxenException, IOException, ParserConfigurationException {
+							streamedProfile.count(xPathIndexerPropertiesField);
+							getOutlink(utils, xpathFilterPlan, content, parseResult, Collections.singletonList(node), xPathIndexerPropertiesField, outlinks, DocumentSource.CLEANER);
+						}
+					};
+				} else {
+					final List<String> values = streamedProfile.getValues(xPathIndexerPropertiesField);
+					handler = new XmlStreamHandler() {
+						public void handle(Node node) {
+							streamedProfile.count(xPathIndexerPropertiesField);
+							Boolean childrentext = xPathIndexerPropertiesField.getWithChildrenText();
+							String value = FilterUtils.extractTextContentFromRawNode(node,childrentext);
+							value = filterValue(value, trim);
+							if(value != null && xPathIndexerPropertiesField.getRegexpRule()!=null) {
+								value = executeRule(xpathFilterPlan, profileName, xPathIndexerPropertiesField, value);
+							}
+							if(value != null) {
+								values.add(value);
+							}
+						}
+					};
+				}
+				extractor.addTarget(xpathFilterPlan.getStreamablePath(xPathIndexerPropertiesField.getXPath()), handler);
+			}
+		}
+		
+		if(extractor.hasTargets()) {
+			long streamStart = metrics.start();
+			extractor.extract(new ByteArrayInputStream(content.getContent()));
+			metrics.stop(Stage.XML_STREAM, streamStart);
+		}
+		
+		return streamedProfiles;
+	}
+	
+	/**
+	 * A profile can be streamed when its page content filter and field
+	 * expressions are in the streamable subset and the parse metas of its
+	 * sub parse result and outlink fields only look inside the item.
+	 */
+	private boolean isStreamable(XPathFilterPlan xpathFilterPlan, XPathIndexerProperties xPathIndexerProperties, Metadata contentMetadata) {
+		
+		if(xPathIndexerProperties.getPageContentFilterXPath() != null && xpathFilterPlan.getStreamablePath(xPathIndexerProperties.getPageContentFilterXPath()) == null)
+			return false;
+		
+		for(XPathIndexerPropertiesField xPathIndexerPropertiesField : xPathIndexerProperties.getXPathIndexerPropertiesFieldList()) {
+			if(contentMetadata.get(xPathIndexerPropertiesField.getName())!=null)
+				continue;
+			if(xPathIndexerPropertiesField.getXPath() == null)
+				return false;
+			if(xPathIndexerPropertiesField.getXPath().length() == 0)
+				continue;
+			
+			StreamablePath path = xpathFilterPlan.getStreamablePath(xPathIndexerPropertiesField.getXPath());
+			if(path == null)
+				return false;
+			if(FilterUtils.getNullSafe(xPathIndexerPropertiesField.isConcat(), false))
+				continue;
+			
+			FieldType type = xPathIndexerPropertiesField.getType();
+			if(type == null)
+				return false;
+			if(type == FieldType.SUBPARSERESULT || type == FieldType.OUTLINK) {
+				
+				// Items are detached from the document
+				if(path.getAttributeName() != null)
+					return false;
+				if(xPathIndexerPropertiesField.getParseMetas() != null) {
+					for(XPathIndexerPropertiesField parseMeta : xPathIndexerPropertiesField.getParseMetas()) {
+						if(!StreamablePath.isLocal(parseMeta.getXPath()))
+							return false;
+					}
+				} else if(type == FieldType.SUBPARSERESULT) {
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * The plan picked for a page by needsDocument.
+	 */
+	private static class PlanSelection {
+
+		private final Content content;
+		private final XPathFilterPlan plan;
+
+		private PlanSelection(Content content, XPathFilterPlan plan) {
+			this.content = content;
+			this.plan = plan;
+		}
+	}
+
+	/**
+	 * Data extracted by the streaming pass for one profile.
+	 */
+	private static class StreamedProfile {
+		
+		private List<String> pageContentValues;
+		private final Map<XPathIndexerPropertiesField, List<String>> values = new IdentityHashMap<XPathIndexerPropertiesField, List<String>>();
+		private final Map<XPathIndexerPropertiesField, ParseResult> subParseResults = new IdentityHashMap<XPathIndexerPropertiesField, ParseResult>();
+		private final Map<XPathIndexerPropertiesField, List<Outlink>> outlinks = new IdentityHashMap<XPathIndexerPropertiesField, List<Outlink>>();
+		private final Map<XPathIndexerPropertiesField, int[]> nodeCounts = new IdentityHashMap<XPathIndexerPropertiesField, int[]>();
+		
+		private void count(XPathIndexerPropertiesField xPathIndexerPropertiesField) {
+			int[] nodeCount = nodeCounts.get(xPathIndexerPropertiesField);
+			if(nodeCount == null) {
+				nodeCount = new int[1];
+				nodeCounts.put(xPathIndexerPropertiesField, nodeCount);
+			}
+			nodeCount[0]++;
+		}
+		
+		private int getNodeCount(XPathIndexerPropertiesField xPathIndexerPropertiesField) {
+			int[] nodeCount = nodeCounts.get(xPathIndexerPropertiesField);
+			return nodeCount != null ? nodeCount[0] : 0;
+		}
+		
+		private List<String> getValues(XPathIndexerPropertiesField xPathIndexerPropertiesField) {
+			List<String> fieldValues = values.get(xPathIndexerPropertiesField);
+			if(fieldValues == null) {
+				fieldValues = new ArrayList<String>();
+				values.put(xPathIndexerPropertiesField, fieldValues);
+			}
+			return fieldValues;
+		}
+		
+		/**
+		 * Adds the data of the field to the page, the same way the DOM evaluation does.
+		 */
+		private void apply(XPathIndexerPropertiesField xPathIndexerPropertiesField, Metadata metadata, ParseResult parseResult, List<Outlink> capturedOutlinks) {
+			
+			if(FilterUtils.getNullSafe(xPathIndexerPropertiesField.isConcat(), false)) {
+				String value = new String();
+				String concatDelimiter = FilterUtils.getNullSafe(xPathIndexerPropertiesField.getConcatDelimiter(), "");
+				for(String tempValue : getValues(xPathIndexerPropertiesField)) {
 					if(tempValue != null) {
-						if (value.isEmpty()) {
+						if(value.isEmpty()) {
 							value = tempValue;
 						} else {
 							value = value + concatDelimiter + tempValue;
 						}
 					}
 				}
-
-				processPage = processPage && FilterUtils.isMatch(xPathIndexerProperties.getPageContentFilterRegex(), value);
+				metadata.add(xPathIndexerPropertiesField.getName(), value);
+				
+			} else if(subParseResults.containsKey(xPathIndexerPropertiesField)) {
+				for(Map.Entry<Text, Parse> entry : subParseResults.get(xPathIndexerPropertiesField)) {
+					parseResult.put(entry.getKey(), new ParseText(entry.getValue().getText()), entry.getValue().getData());
+				}
+				
+			} else if(outlinks.containsKey(xPathIndexerPropertiesField)) {
+				capturedOutlinks.addAll(outlinks.get(xPathIndexerPropertiesField));
+				
 			} else {
-				for (Object node : pageContentFilterNodeList) {
-
-					// Add the extracted data to meta
-					String value = FilterUtils.extractTextContentFromRawNode(node,false);
-					value = filterValue(value, trim);
-					if(value != null) {
-						processPage = processPage && FilterUtils.isMatch(xPathIndexerProperties.getPageContentFilterRegex(), value);
-					}
+				for(String value : getValues(xPathIndexerPropertiesField)) {
+					metadata.add(xPathIndexerPropertiesField.getName(), value);
+					if(LOG.isDebugEnabled())
+						LOG.debug("result "+xPathIndexerPropertiesField.getName()+"->"+value.trim().substring(0,Math.min(value.trim().length(), 25)));
 				}
 			}
 		}
-
-		return processPage;
 	}
 	
 	private String filterValue(String value, boolean trim) {
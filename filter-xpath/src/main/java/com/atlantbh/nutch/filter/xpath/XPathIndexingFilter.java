@@ -19,9 +19,10 @@ import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.parse.Parse;
 
 import com.atlantbh.nutch.filter.xpath.config.FieldType;
-import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
 import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
 import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanCache;
+import com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlanReference;
 
 /**
  * Second stage of {@link XPathHtmlParserFilter} the IndexingFilter.
@@ -41,14 +42,14 @@ public class XPathIndexingFilter implements IndexingFilter {
 	
 	// Configuration
 	private Configuration configuration;
-	private XPathFilterConfiguration xpathFilterConfiguration;
+	private XPathFilterPlanReference xpathFilterPlanReference;
 	
 	public XPathIndexingFilter() {}
 	
 	private void initConfig() {
 		
 		// Initialize configuration
-		xpathFilterConfiguration  = XPathFilterConfiguration.getInstance(configuration);
+		xpathFilterPlanReference = XPathFilterPlanCache.getReference(configuration);
 	}
 	
 	@Override
@@ -69,18 +70,13 @@ public class XPathIndexingFilter implements IndexingFilter {
 		
 		String filteredUrl = (parseParentUrl!=null) ?parseParentUrl:new String(url.getBytes()).substring(0, url.getLength());
 	
-		List<XPathIndexerProperties> xPathIndexerPropertiesList = xpathFilterConfiguration.getXPathIndexerPropertiesList();
+		// Only the profiles whose url regex matches are returned
+		List<XPathIndexerProperties> xPathIndexerPropertiesList = xpathFilterPlanReference.get().getMatchingProperties(filteredUrl);
 		for(XPathIndexerProperties xPathIndexerProperties : xPathIndexerPropertiesList) {
 				
+			List<XPathIndexerPropertiesField> xPathIndexerPropertiesFieldList = xPathIndexerProperties.getXPathIndexerPropertiesFieldList();
 			
-			if(FilterUtils.isMatch(xPathIndexerProperties.getPageUrlFilterRegex(),filteredUrl)) {
-				
-				List<XPathIndexerPropertiesField> xPathIndexerPropertiesFieldList = xPathIndexerProperties.getXPathIndexerPropertiesFieldList();
-				
-				transferMeta(datum,metadata, xPathIndexerPropertiesFieldList, doc);
-				
-				
-			}
+			transferMeta(datum,metadata, xPathIndexerPropertiesFieldList, doc);
 		}
 		
 		return doc;
@@ -0,0 +1,256 @@
+package com.atlantbh.nutch.filter.xpath.config;
+
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.nutch.parse.Outlink;
+
+import com.ibm.icu.text.SimpleDateFormat;
+
+/**
+ * Immutable, executable form of a {@link Rule}.
+ *
+ * Everything that only depends on the rule attributes is resolved once:
+ * the pattern, the group index, whether the replacement is literal and
+ * the date formats. Date formatters are not thread safe and are kept per
+ * thread, so a compiled rule can be executed concurrently without locking.
+ * Sub rules are compiled with their parent, the compiled rule doesn't
+ * refer to the {@link Rule} it was built from.
+ */
+public class CompiledRule {
+
+	// Constants
+	private static final Log LOG = LogFactory.getLog(CompiledRule.class);
+	private static final String DEFAULT_OUT_DATE_FORMAT = "dd.MM.yyyy";
+	private static final String REGEX_METACHARACTERS = "\\[](){}.*+?^$|";
+	private static final int WHOLE_MATCH = -1;
+	private static final int INVALID_GROUP = -2;
+
+	private final Pattern pattern;
+	private final boolean accept;
+	private final int groupIndex;
+	private final String replaceAll;
+	private final boolean literalReplacement;
+	private final long relativeDateUnit;
+	private final ThreadLocal<SimpleDateFormat> inDateFormat;
+	private final boolean inDateFormatHasYear;
+	private final ThreadLocal<SimpleDateFormat> outDateFormat;
+	private final boolean anchorRule;
+	private final CompiledRule[] subRules;
+	private final PatternSyntaxException error;
+
+	/**
+	 * Compiles the rule and its sub rules.
+	 *
+	 * @param rule The rule to compile.
+	 * @throws PatternSyntaxException If the regex of the rule is invalid.
+	 */
+	public CompiledRule(Rule rule) {
+		this.pattern = Pattern.compile(rule.getRegexp());
+		this.accept = rule.accept();
+		this.anchorRule = rule.getIsAnchorRule();
+		this.error = null;
+		this.groupIndex = resolveGroupIndex(rule.getGroupIndex(), pattern);
+		this.replaceAll = rule.getReplaceAll();
+		this.literalReplacement = replaceAll != null && replaceAll.indexOf('$') < 0 && replaceAll.indexOf('\\') < 0;
+		this.subRules = compileSubRules(rule.getSubRules());
+
+		String inDateFormatPattern = rule.getInDateFormat();
+		if (inDateFormatPattern == null) {
+			this.relativeDateUnit = 0;
+			this.inDateFormat = null;
+			this.inDateFormatHasYear = false;
+			this.outDateFormat = null;
+		} else {
+			// "d", "H" and "m" mean the value is a number of days, hours or minutes ago
+			if (inDateFormatPattern.equals("d")) {
+				this.relativeDateUnit = 24 * 3600 * 1000L;
+			} else if (inDateFormatPattern.equals("H")) {
+				this.relativeDateUnit = 3600 * 1000L;
+			} else if (inDateFormatPattern.equals("m")) {
+				this.relativeDateUnit = 60 * 1000L;
+			} else {
+				this.relativeDateUnit = 0;
+			}
+			this.inDateFormat = relativeDateUnit == 0 ? newDateFormat(inDateFormatPattern) : null;
+			this.inDateFormatHasYear = inDateFormatPattern.contains("y");
+			this.outDateFormat = newDateFormat(rule.getOutDateFormat() != null ? rule.getOutDateFormat() : DEFAULT_OUT_DATE_FORMAT);
+		}
+	}
+
+	/**
+	 * Placeholder for a sub rule with an invalid regex, which fails when executed.
+	 */
+	private CompiledRule(PatternSyntaxException error) {
+		this.pattern = null;
+		this.accept = false;
+		this.groupIndex = INVALID_GROUP;
+		this.replaceAll = null;
+		this.literalReplacement = false;
+		this.relativeDateUnit = 0;
+		this.inDateFormat = null;
+		this.inDateFormatHasYear = false;
+		this.outDateFormat = null;
+		this.anchorRule = false;
+		this.subRules = null;
+		this.error = error;
+	}
+
+	private static CompiledRule[] compileSubRules(List<Rule> rules) {
+		if (rules == null) {
+			return null;
+		}
+
+		CompiledRule[] compiledRules = new CompiledRule[rules.size()];
+		for (int i = 0; i < compiledRules.length; i++) {
+			try {
+				compiledRules[i] = new CompiledRule(rules.get(i));
+			} catch (PatternSyntaxException e) {
+				compiledRules[i] = new CompiledRule(e);
+			}
+		}
+		return compiledRules;
+	}
+
+	private static int resolveGroupIndex(String groupIndex, Pattern pattern) {
+		if (groupIndex == null) {
+			return WHOLE_MATCH;
+		}
+
+		// An invalid or out of range group never captures anything
+		try {
+			int index = Integer.parseInt(groupIndex);
+			return index >= 0 && index <= pattern.matcher("").groupCount() ? index : INVALID_GROUP;
+		} catch (NumberFormatException e) {
+			return INVALID_GROUP;
+		}
+	}
+
+	private static ThreadLocal<SimpleDateFormat> newDateFormat(final String dateFormat) {
+		return new ThreadLocal<SimpleDateFormat>() {
+			@Override
+			protected SimpleDateFormat initialValue() {
+				return new SimpleDateFormat(dateFormat);
+			}
+		};
+	}
+
+	/**
+	 * Executes the rule on the anchor of the outlink for anchor rules, on
+	 * its url otherwise.
+	 *
+	 * @param outlink The outlink to execute the rule on.
+	 * @return The captured, and eventually rewritten, text or null if the rule doesn't apply.
+	 */
+	public String execute(Outlink outlink) {
+		return execute(anchorRule ? outlink.getAnchor().trim() : outlink.getToUrl().trim());
+	}
+
+	/**
+	 * Executes the rule on the text.
+	 *
+	 * @param text The text to execute the rule on.
+	 * @return The captured, and eventually rewritten, text or null if the rule doesn't apply.
+	 */
+	public String execute(String text) {
+		String result = null;
+		try {
+			Matcher matcher = pattern.matcher(text);
+
+			// Rejecting rules never capture anything
+			if (!accept || !matcher.find() || groupIndex == INVALID_GROUP) {
+				return result;
+			}
+
+			String captured = groupIndex == WHOLE_MATCH ? matcher.group() : matcher.group(groupIndex);
+			String tempResult = "";
+			if (captured != null && captured.length() > 0) {
+				tempResult = replaceAll != null ? replace(text, captured) : captured;
+			}
+
+			if (outDateFormat != null && tempResult.length() > 0) {
+				tempResult = formatDate(tempResult);
+			}
+
+			result = tempResult;
+			if (subRules != null) {
+				for (CompiledRule subRule : subRules) {
+					// Like an invalid rule compiled on execution, stops the sub rules
+					if (subRule.error != null) {
+						throw subRule.error;
+					}
+					tempResult = subRule.execute(result);
+					if (tempResult != null)
+						result = tempResult;
+				}
+			}
+		} catch (Exception e) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Failed to execute Rule " + pattern.pattern() + ": " + e.getMessage());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces the captured text, as a regex, by the replacement in the text.
+	 * Plain captures with a plain replacement are replaced without compiling a pattern.
+	 */
+	private String replace(String text, String captured) {
+		if (!literalReplacement || !isLiteral(captured)) {
+			return text.replaceAll(captured, replaceAll);
+		}
+
+		int index = text.indexOf(captured);
+		if (index < 0) {
+			return text;
+		}
+
+		StringBuilder sb = new StringBuilder(text.length());
+		int start = 0;
+		while (index >= 0) {
+			sb.append(text, start, index).append(replaceAll);
+			start = index + captured.length();
+			index = text.indexOf(captured, start);
+		}
+		sb.append(text, start, text.length());
+
+		return sb.toString();
+	}
+
+	private static boolean isLiteral(String regex) {
+		for (int i = 0; i < regex.length(); i++) {
+			if (REGEX_METACHARACTERS.indexOf(regex.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("deprecation")
+	private String formatDate(String value) {
+		try {
+			Date date;
+			if (relativeDateUnit > 0) {
+				long timeEllapsed = Long.valueOf(value.trim()).longValue() * relativeDateUnit;
+				date = new Date(System.currentTimeMillis() - timeEllapsed);
+			} else {
+				date = (Date) inDateFormat.get().parseObject(value);
+				if (!inDateFormatHasYear) {
+					date.setYear(new Date(System.currentTimeMillis()).getYear());
+				}
+			}
+
+			return outDateFormat.get().format(date);
+		} catch (Exception e) {
+			LOG.error("Failed to execute Rule ", e);
+		}
+		return value;
+	}
+
+}
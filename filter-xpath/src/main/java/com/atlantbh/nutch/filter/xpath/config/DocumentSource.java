@@ -0,0 +1,22 @@
+package com.atlantbh.nutch.filter.xpath.config;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The document the xpath expressions of a {@link XPathIndexerProperties}
+ * are evaluated against.
+ */
+@XmlEnum
+@XmlRootElement(name="documentSource")
+public enum DocumentSource {
+	
+	/** The raw content re-parsed and normalized by HtmlCleaner (default). */
+	@XmlEnumValue("CLEANER")
+	CLEANER,
+	
+	/** The DocumentFragment already built by the html parser, no second parse. */
+	@XmlEnumValue("PARSER")
+	PARSER
+}
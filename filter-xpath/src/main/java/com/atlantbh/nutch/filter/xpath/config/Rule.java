@@ -1,8 +1,6 @@
 package com.atlantbh.nutch.filter.xpath.config;
 
 
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.regex.*;
 
@@ -14,8 +12,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.nutch.parse.Outlink;
 
-import com.ibm.icu.text.SimpleDateFormat;
-
 
 
 public class Rule  {
@@ -85,134 +81,17 @@ public Rule(boolean sign, String regex, String type) {
 		return execute(text);
     }
     
-    public synchronized String execute(String text) {
-    	String result = null;
-    	try {
-	    	Matcher matcher = pattern.matcher(text);
-	    	
-	    	if(!accept(text))
-	    		return result;
-	    	
-	    	if(matcher.find()){
-	    		
-	    			StringBuffer contentBuffer = new StringBuffer();
-	    			
-	    			String captured = null;
-	    			if(groupIndex!=null){
-	    				Integer index = Integer.valueOf(groupIndex);
-	    				 captured = matcher.group(index);
-	    			}else{
-	    			
-	    				captured = matcher.group();
-	    			
-	    			}
-	    				
-    				if(captured!=null && captured.length() > 0){
-    					
-    					if(replaceAll!=null)
-    						captured = text.replaceAll(captured, replaceAll);
-    					
-    					contentBuffer.append(captured);
-    					
-    				}
-	    			//if(groupsIndexes.size() > 0){
-	    			
-	    				//contentBuffer.append(matcher.group(groupsIndexes.get(0)));
-	    				/*if(groupsIndexes.size() > 0 && groupsSeparator.size() > 0){
-	    					contentBuffer.append(groupsSeparator.get(0));
-	    				}*/
-	    				/*for (int i = 1; i < groupsIndexes.size(); i++)
-	    				{
-	    					String groupStr = matcher.group(groupsIndexes.get(i));
-	    					if(groupStr!=null){
-	    						if(trimToLowerCase){
-	    							groupStr = groupStr.trim().toLowerCase();
-	    						}
-		    					contentBuffer.append(groupStr);
-		    					if(groupsSeparator.size() > i && groupsSeparator.get(i)!=null){
-		    						contentBuffer.append(groupsSeparator.get(i));
-		    					}
-	    					}
-	    						
-	    				}*/
-	    				
-	    			
-	    			
-	    			String tempResult = contentBuffer.toString();
-	    			
-	    			if(inDateFormat!=null && !tempResult.equals("")){
-	    				try
-						{
-	    					Date date = null;
-	    					
-	    					if(inDateFormat.equals("d")){
-	    						
-	    						long timeEllapsed = Long.valueOf(tempResult.trim()).longValue() * 24 *3600 *1000;
-	    						long currTime = System.currentTimeMillis();
-	    						long  refTime = currTime;//-(currTime%(24 *3600 *1000));
-	    						
-	    						date = new Date(refTime - timeEllapsed);
-	    						
-	    					}else if(inDateFormat.equals("H")){
-	    						
-	    						long timeEllapsed = Long.valueOf(tempResult.trim()).longValue() * 3600 *1000;
-	    						long currTime = System.currentTimeMillis();
-	    						long  refTime = currTime;//-(currTime%(3600 *1000));
-	    						date = new Date(refTime - timeEllapsed);
-	    					}else if(inDateFormat.equals("m")){
-	    						
-	    						long timeEllapsed = Long.valueOf(tempResult.trim()).longValue() * 60 *1000;
-	    						long currTime = System.currentTimeMillis();
-	    						long  refTime = currTime;//-(currTime%(60 *1000));
-	    						date = new Date(refTime - timeEllapsed);
-	    					}else{
-	    						SimpleDateFormat sd = new SimpleDateFormat(inDateFormat);
-	    						date = (Date)sd.parseObject(tempResult);
-		    					if(!inDateFormat.contains("y")){
-		    						date.setYear(new Date(System.currentTimeMillis()).getYear());
-		    						
-		    					}
-	    					}
-	    					
-	    					SimpleDateFormat sdo =  (outDateFormat!=null?new SimpleDateFormat(outDateFormat):new SimpleDateFormat("dd.MM.yyyy"));
-	    					
-	    					tempResult = sdo.format(date);
-	    					
-	    					
-						}
-						catch (Exception e)
-						{
-							LOG.error("Failed to execute Rule ",e);
-						}
-	    				
-	    			}
-	    			result = tempResult;	
-	    		if(getSubRules()!=null){
-	    			for (Rule rule : subRules) {
-						tempResult = rule.execute(result);
-						if(tempResult!=null)
-							result = tempResult;
-					}
-	    		}
-	    			
-	    		
-	    	}else if(defaultResult!=null){
-	    		result=defaultResult;
-	    	}
-	    	
-    	} catch (Exception e) {
-			if(LOG.isFatalEnabled()){
-				//e.printStackTrace(LogUt.getFatalStream(LOG));
-			}
-		}
-    	return result;
+    /**
+     * Executes the rule through a {@link CompiledRule} built for this call.
+     * The filters execute the rules compiled once by their
+     * {@link com.atlantbh.nutch.filter.xpath.plan.XPathFilterPlan}, the only
+     * place compiled rules are kept, this one is for rules used on their own.
+     */
+    public String execute(String text) {
+    	return new CompiledRule(this).execute(text);
     }
    
     
-    private String replace(String base){
-    	return base.replaceAll(regexp, replaceAll);
-    }
-    
 
     
     
@@ -1,6 +1,6 @@
 package com.atlantbh.nutch.filter.xpath.config;
 
-import java.io.Reader;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,33 +17,50 @@ import org.apache.log4j.Logger;
 public class XPathFilterConfiguration {
 
 	// Constants
-	private static final String CONFIG_FILE_PATH_PROPERTY = "filter.xpath.file";
+	public static final String CONFIG_FILE_PATH_PROPERTY = "filter.xpath.file";
 	private static final Logger log = Logger.getLogger(XPathFilterConfiguration.class);
 	
+	// JAXB context is thread safe and expensive to create, it is shared by every instance
+	private static JAXBContext context;
+	
 	private List<XPathIndexerProperties> xPathIndexerPropertiesList = new ArrayList<XPathIndexerProperties>(0);
 
 	public static XPathFilterConfiguration getInstance(Configuration configuration) {
+		
+		// Get configuration from Nutch /conf folder
+		return getInstance(configuration.getConfResourceAsInputStream(configuration.get(CONFIG_FILE_PATH_PROPERTY)));
+	}
+	
+	/**
+	 * Unmarshals a configuration from the supplied XML.
+	 * 
+	 * @param inputStream The configuration XML.
+	 * @return The configuration or null if the XML can't be unmarshalled.
+	 */
+	public static XPathFilterConfiguration getInstance(InputStream inputStream) {
 		try {
 			
-			// Get configuration from Nutch /conf folder
-			Reader configReader = configuration.getConfResourceAsReader(configuration.get(CONFIG_FILE_PATH_PROPERTY));
-						
 			// Initialize JAXB
-			JAXBContext context = JAXBContext.newInstance(new Class[] {XPathFilterConfiguration.class, XPathIndexerProperties.class, XPathIndexerPropertiesField.class, FieldType.class});
-			Unmarshaller unmarshaller = context.createUnmarshaller();
+			Unmarshaller unmarshaller = getContext().createUnmarshaller();
 						
 			// Initialize configuration
-			XPathFilterConfiguration xPathFilterConfiguration  = (XPathFilterConfiguration) unmarshaller.unmarshal(configReader);
+			XPathFilterConfiguration xPathFilterConfiguration  = (XPathFilterConfiguration) unmarshaller.unmarshal(inputStream);
 			return xPathFilterConfiguration;
 			
 		} catch (JAXBException e) {
-			System.out.println(e.toString());
-			log.error("Configuration initialization error!");
+			log.error("Configuration initialization error!", e);
 		}
 		
 		return null;
 	}
 	
+	private static synchronized JAXBContext getContext() throws JAXBException {
+		if (context == null) {
+			context = JAXBContext.newInstance(new Class[] {XPathFilterConfiguration.class, XPathIndexerProperties.class, XPathIndexerPropertiesField.class, FieldType.class, DocumentSource.class});
+		}
+		return context;
+	}
+	
 	// needed for XML binding
 	@SuppressWarnings("unused")
 	private XPathFilterConfiguration() {}
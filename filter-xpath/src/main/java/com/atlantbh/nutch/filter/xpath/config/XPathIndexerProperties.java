@@ -17,6 +17,8 @@ public class XPathIndexerProperties {
 	private List<XPathIndexerPropertiesField> xPathIndexerPropertiesFieldList = new ArrayList<XPathIndexerPropertiesField>(0);
 	private String refetchOutlinkRegexp;
 	private List<OutlinkFilter> outlinkFiltersList= new ArrayList<OutlinkFilter>();
+	private DocumentSource documentSource;
+	private String name;
 
 	
 	public XPathIndexerProperties() {}
@@ -36,6 +38,33 @@ public class XPathIndexerProperties {
 		this.refetchOutlinkRegexp = refetchOutlinkRegexp;
 	}
 
+	/**
+	 * PARSER evaluates the expressions directly on the DocumentFragment built
+	 * by the html parser, element names are matched in lower case. CLEANER,
+	 * the default, re-parses the raw content with HtmlCleaner.
+	 */
+	@XmlAttribute(name="documentSource", required=false)
+	public DocumentSource getDocumentSource() {
+		return documentSource;
+	}
+
+	public void setDocumentSource(DocumentSource documentSource) {
+		this.documentSource = documentSource;
+	}
+
+	/**
+	 * Name of the profile in the metrics, the position of the profile in
+	 * the configuration is used when not set.
+	 */
+	@XmlAttribute(name="name", required=false)
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
 	@XmlAttribute(name="pageUrlFilterRegex", required=false)
 	public String getPageUrlFilterRegex() {
 		return pageUrlFilterRegex;
@@ -0,0 +1,80 @@
+package com.atlantbh.nutch.filter.xpath.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with power of two microsecond buckets:
+ * bucket i counts the latencies in [2^(i-1), 2^i) microseconds. Percentiles
+ * are reported as the upper bound of their bucket.
+ */
+public class LatencyHistogram {
+
+	// Constants
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		long micros = nanos / 1000;
+		int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalMicros() {
+		return totalNanos.get() / 1000;
+	}
+
+	public long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	public double getMeanMicros() {
+		long count = getCount();
+		return count == 0 ? 0 : totalNanos.get() / 1000.0 / count;
+	}
+
+	/**
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return Upper bound, in microseconds, of the bucket holding the percentile.
+	 */
+	public long getPercentileMicros(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return 1L << i;
+			}
+		}
+		return getMaxMicros();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%dus p99=%dus max=%dus", getCount(), getMeanMicros(), getPercentileMicros(50), getPercentileMicros(99), getMaxMicros());
+	}
+}
@@ -0,0 +1,38 @@
+package com.atlantbh.nutch.filter.xpath.metrics;
+
+import java.util.Map;
+
+/**
+ * Destination of the filter-xpath metrics. The registry used is set by
+ * <code>filter.xpath.metrics.registry</code>, {@link DefaultMetricsRegistry}
+ * by default. Implementations must be thread safe and should be cheap, they
+ * are called on the parse path. Implementations that are
+ * {@link org.apache.hadoop.conf.Configurable} get the Nutch configuration.
+ */
+public interface MetricsRegistry {
+
+	/**
+	 * Adds the amount to a counter.
+	 *
+	 * @param name The counter name.
+	 * @param amount The amount to add.
+	 */
+	void increment(String name, long amount);
+
+	/**
+	 * Records the latency of a stage.
+	 *
+	 * @param name The stage name.
+	 * @param nanos The latency in nanoseconds.
+	 */
+	void record(String name, long nanos);
+
+	/**
+	 * Returns the current value of every counter, the stage latencies
+	 * included as a count and a total in microseconds. Registries that
+	 * publish their metrics elsewhere can return an empty map.
+	 *
+	 * @return The counter values by name.
+	 */
+	Map<String, Long> getCounters();
+}
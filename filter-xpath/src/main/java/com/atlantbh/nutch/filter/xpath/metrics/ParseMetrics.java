@@ -0,0 +1,183 @@
+package com.atlantbh.nutch.filter.xpath.metrics;
+
+import java.io.Reader;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+/**
+ * Instrumentation of the filter-xpath parse path: stage latencies and
+ * profile and field counters, recorded in a {@link MetricsRegistry}.
+ *
+ * Metrics are off unless <code>filter.xpath.metrics.enabled</code> is
+ * true. Disabled metrics are a shared instance whose methods return
+ * without reading the clock, so instrumented code costs a field read and
+ * a branch. Enabled metrics are shared by every filter instance of the
+ * process and logged every <code>filter.xpath.metrics.log.interval</code>
+ * seconds (300 by default, 0 disables it).
+ *
+ * The metrics are not exported as Hadoop counters: neither the parse
+ * filters nor the indexing filters are handed the Reporter of their task,
+ * so a custom {@link MetricsRegistry} is the way to publish them.
+ */
+public class ParseMetrics {
+
+	// Constants
+	public static final String ENABLED_PROPERTY = "filter.xpath.metrics.enabled";
+	public static final String REGISTRY_PROPERTY = "filter.xpath.metrics.registry";
+	public static final String LOG_INTERVAL_PROPERTY = "filter.xpath.metrics.log.interval";
+	private static final Logger LOG = Logger.getLogger(ParseMetrics.class);
+	private static final long DEFAULT_LOG_INTERVAL = 300;
+
+	// Profile events
+	public static final String PROFILE_EVALUATED = "evaluated";
+	public static final String PROFILE_MATCHED = "matched";
+
+	// Field events
+	public static final String FIELD_EVALUATIONS = "evaluations";
+	public static final String FIELD_MATCHES = "matches";
+	public static final String FIELD_EMPTY = "empty";
+	public static final String FIELD_RULE_FAILURES = "ruleFailures";
+
+	public static final ParseMetrics DISABLED = new ParseMetrics(null);
+	private static ParseMetrics instance;
+
+	private final MetricsRegistry registry;
+
+	private ParseMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Returns the metrics of the process, {@link #DISABLED} if metrics are off.
+	 *
+	 * @param configuration The Nutch configuration.
+	 * @return The metrics, never null.
+	 */
+	public static synchronized ParseMetrics getInstance(Configuration configuration) {
+		if (!configuration.getBoolean(ENABLED_PROPERTY, false)) {
+			return DISABLED;
+		}
+
+		if (instance == null) {
+			MetricsRegistry registry = createRegistry(configuration);
+			instance = new ParseMetrics(registry);
+			scheduleLog(registry, configuration.getLong(LOG_INTERVAL_PROPERTY, DEFAULT_LOG_INTERVAL));
+
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Parse metrics enabled, registry " + registry.getClass().getName());
+			}
+		}
+
+		return instance;
+	}
+
+	private static MetricsRegistry createRegistry(Configuration configuration) {
+		String className = configuration.get(REGISTRY_PROPERTY);
+		if (className == null) {
+			return new DefaultMetricsRegistry();
+		}
+
+		try {
+			MetricsRegistry registry = (MetricsRegistry) Class.forName(className, true, ParseMetrics.class.getClassLoader()).newInstance();
+			if (registry instanceof Configurable) {
+				((Configurable) registry).setConf(configuration);
+			}
+			return registry;
+		} catch (Exception e) {
+			LOG.error("Failed to create metrics registry " + className + ", using the default one: " + e.toString());
+			return new DefaultMetricsRegistry();
+		}
+	}
+
+	private static void scheduleLog(final MetricsRegistry registry, long interval) {
+		if (interval <= 0) {
+			return;
+		}
+
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "xpath-filter-metrics-log");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				LOG.info("Parse metrics\n" + registry);
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	public boolean isEnabled() {
+		return registry != null;
+	}
+
+	/**
+	 * @return The start time of a stage, 0 if metrics are disabled.
+	 */
+	public long start() {
+		return registry != null ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the latency of a stage started by {@link #start()}.
+	 */
+	public void stop(Stage stage, long start) {
+		if (registry != null) {
+			registry.record(stage.getKey(), System.nanoTime() - start);
+		}
+	}
+
+	public void record(Stage stage, long nanos) {
+		if (registry != null) {
+			registry.record(stage.getKey(), nanos);
+		}
+	}
+
+	/**
+	 * Counts a profile event, "profile.&lt;profile&gt;.&lt;event&gt;".
+	 */
+	public void count(String profile, String event) {
+		if (registry != null) {
+			registry.increment("profile." + profile + "." + event, 1);
+		}
+	}
+
+	/**
+	 * Counts a field event, "field.&lt;profile&gt;.&lt;field&gt;.&lt;event&gt;".
+	 */
+	public void count(String profile, String field, String event) {
+		if (registry != null) {
+			registry.increment("field." + profile + "." + field + "." + event, 1);
+		}
+	}
+
+	/**
+	 * Wraps the reader to time its decoding, see {@link #getDecodeNanos(Reader)}.
+	 *
+	 * @return The wrapped reader or the reader itself if metrics are disabled.
+	 */
+	public Reader timeDecoding(Reader reader) {
+		return registry != null ? new TimingReader(reader) : reader;
+	}
+
+	/**
+	 * @return Time spent reading a reader returned by {@link #timeDecoding(Reader)}.
+	 */
+	public long getDecodeNanos(Reader reader) {
+		return reader instanceof TimingReader ? ((TimingReader) reader).getNanos() : 0;
+	}
+
+	/**
+	 * @return The registry, null if metrics are disabled.
+	 */
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+}
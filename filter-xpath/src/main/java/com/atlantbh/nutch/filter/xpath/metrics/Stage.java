@@ -0,0 +1,38 @@
+package com.atlantbh.nutch.filter.xpath.metrics;
+
+/**
+ * The timed stages of the filter-xpath parse path.
+ */
+public enum Stage {
+
+	/** Whole {@link com.atlantbh.nutch.filter.xpath.XPathHtmlParserFilter#filter} call. */
+	FILTER("filter"),
+	/** Charset decoding of the raw html. */
+	DECODE("decode"),
+	/** HtmlCleaner clean, decoding excluded. */
+	CLEAN("clean"),
+	/** DomSerializer createDOM. */
+	SERIALIZE("serialize"),
+	/** DOM parsing of xml content. */
+	XML_PARSE("xmlParse"),
+	/** Streaming pass over xml content. */
+	XML_STREAM("xmlStream"),
+	/** Field and page content filter xpath evaluation. */
+	XPATH("xpath"),
+	/** Field rule execution. */
+	RULE("rule"),
+	/** Sub parse result and outlink field extraction. */
+	SUBPARSE("subparse"),
+	/** Outlink filtering. */
+	OUTLINK_FILTER("outlinkFilter");
+
+	private final String key;
+
+	private Stage(String key) {
+		this.key = key;
+	}
+
+	public String getKey() {
+		return key;
+	}
+}
@@ -0,0 +1,42 @@
+package com.atlantbh.nutch.filter.xpath.metrics;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader accumulating the time spent reading, that is decoding, the
+ * underlying reader.
+ */
+class TimingReader extends FilterReader {
+
+	private long nanos;
+
+	TimingReader(Reader reader) {
+		super(reader);
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		try {
+			return super.read();
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public int read(char[] buffer, int offset, int length) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return super.read(buffer, offset, length);
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	long getNanos() {
+		return nanos;
+	}
+}
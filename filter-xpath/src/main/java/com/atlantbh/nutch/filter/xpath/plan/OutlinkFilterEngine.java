@@ -0,0 +1,233 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+import org.apache.nutch.parse.Outlink;
+
+import com.atlantbh.nutch.filter.xpath.config.CompiledRule;
+import com.atlantbh.nutch.filter.xpath.config.OutlinkFilter;
+import com.atlantbh.nutch.filter.xpath.config.Rule;
+
+/**
+ * Compiled form of the outlink filters of a profile.
+ *
+ * An outlink is kept when one of the rules captures something from its
+ * url, or from its anchor for anchor rules; the first capturing rule, in
+ * configuration order, wins and a url rule replaces the url by the
+ * captured text. Outlinks captured by no rule are dropped.
+ *
+ * Instead of running every rule on every outlink, the rules are split by
+ * target (url or anchor) and analysed once:
+ * <ul>
+ * <li>a rule whose regex starts with a literal text, or with a literal
+ * scheme and host, is only run on texts starting with, or containing, that
+ * text or host,</li>
+ * <li>the rules of a target are combined in a single alternation, run once
+ * per outlink, which tells if any of them can capture something at all.</li>
+ * </ul>
+ * Both are necessary conditions of a match, the remaining rules are run as
+ * before and the result is the same as running every rule in turn.
+ */
+public class OutlinkFilterEngine {
+
+	// Constants
+	private static final Logger LOG = Logger.getLogger(OutlinkFilterEngine.class);
+	private static final int URL = 0;
+	private static final int ANCHOR = 1;
+	private static final int GATE_UNKNOWN = 0;
+	private static final int GATE_OPEN = 1;
+	private static final int GATE_CLOSED = 2;
+
+	private final Entry[] entries;
+	private final Pattern[] gates = new Pattern[2];
+
+	OutlinkFilterEngine(List<OutlinkFilter> outlinkFilters) {
+		List<Entry> entryList = new ArrayList<Entry>();
+		for (OutlinkFilter outlinkFilter : outlinkFilters) {
+			if (outlinkFilter.getRegexpRuleList() == null)
+				continue;
+
+			for (Rule rule : outlinkFilter.getRegexpRuleList()) {
+				Entry entry = new Entry(rule);
+
+				// A rejecting rule never captures anything
+				if (entry.analysed && !rule.accept())
+					continue;
+				entryList.add(entry);
+			}
+		}
+		entries = entryList.toArray(new Entry[entryList.size()]);
+
+		gates[URL] = buildGate(URL);
+		gates[ANCHOR] = buildGate(ANCHOR);
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format("Compiled %d outlink rules (url gate: %b, anchor gate: %b)", entries.length, gates[URL] != null, gates[ANCHOR] != null));
+		}
+	}
+
+	/**
+	 * Combines the regexes of the target in a single alternation, or returns
+	 * null if there are less than two of them or one can't be combined.
+	 */
+	private Pattern buildGate(int target) {
+		StringBuilder combined = new StringBuilder();
+		int count = 0;
+		for (Entry entry : entries) {
+			if (entry.target != target)
+				continue;
+			if (!entry.analysed || !isCombinable(entry.rule.getRegexp()))
+				return null;
+
+			if (count++ > 0) {
+				combined.append('|');
+			}
+			combined.append("(?:").append(entry.rule.getRegexp()).append(')');
+		}
+
+		if (count < 2)
+			return null;
+
+		try {
+			return Pattern.compile(combined.toString());
+		} catch (PatternSyntaxException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Back references and named groups would refer to other groups once
+	 * combined, quotes and comments could swallow the closing parenthesis.
+	 */
+	private static boolean isCombinable(String regex) {
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\' && i + 1 < regex.length()) {
+				char escaped = regex.charAt(i + 1);
+				if (Character.isDigit(escaped) || escaped == 'k' || escaped == 'Q')
+					return false;
+				i++;
+			} else if (c == '#') {
+				return false;
+			} else if (c == '(' && regex.startsWith("(?<", i) && !regex.startsWith("(?<=", i) && !regex.startsWith("(?<!", i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Filters the outlinks in a single pass.
+	 *
+	 * @param outlinks The outlinks to filter, the urls of the kept ones are rewritten in place.
+	 * @return The kept outlinks, in their original order.
+	 * @throws PatternSyntaxException If a rule has an invalid regex.
+	 */
+	public List<Outlink> filter(List<Outlink> outlinks) {
+		List<Outlink> filteredLinks = new ArrayList<Outlink>(outlinks.size());
+		int[] gateStates = new int[2];
+
+		for (Outlink outlink : outlinks) {
+			String[] texts = new String[] {outlink.getToUrl().trim(), outlink.getAnchor().trim()};
+			gateStates[URL] = GATE_UNKNOWN;
+			gateStates[ANCHOR] = GATE_UNKNOWN;
+
+			for (Entry entry : entries) {
+				String text = texts[entry.target];
+				if (!entry.mayMatch(text))
+					continue;
+
+				// The gate is only run once a rule of its target can match
+				if (gateStates[entry.target] == GATE_UNKNOWN) {
+					Pattern gate = gates[entry.target];
+					gateStates[entry.target] = gate == null || gate.matcher(text).find() ? GATE_OPEN : GATE_CLOSED;
+				}
+				if (gateStates[entry.target] == GATE_CLOSED)
+					continue;
+
+				String capturedText = entry.execute(text);
+				if (capturedText != null) {
+					if (entry.target == ANCHOR) {
+						if (LOG.isDebugEnabled())
+							LOG.debug("filtering outlink text link: " + capturedText);
+					} else {
+						outlink.setUrl(capturedText);
+					}
+
+					filteredLinks.add(outlink);
+					if (LOG.isDebugEnabled())
+						LOG.debug("adding filtered outlink : " + outlink.toString());
+					break;
+				}
+			}
+		}
+
+		return filteredLinks;
+	}
+
+	/**
+	 * @return Number of rules that can capture outlinks.
+	 */
+	public int getRuleCount() {
+		return entries.length;
+	}
+
+	/**
+	 * A rule and the literal texts every one of its matches contains.
+	 */
+	private static class Entry {
+
+		private final Rule rule;
+		private final CompiledRule compiledRule;
+		private final int target;
+		private final boolean analysed;
+		private final String prefix;
+		private final boolean anchored;
+		private final String[] hosts;
+
+		Entry(Rule rule) {
+			this.rule = rule;
+			this.target = rule.getIsAnchorRule() ? ANCHOR : URL;
+
+			// Invalid rules fail when executed, like before
+			CompiledRule compiledRule;
+			try {
+				compiledRule = new CompiledRule(rule);
+			} catch (PatternSyntaxException e) {
+				compiledRule = null;
+			}
+			this.compiledRule = compiledRule;
+			boolean compiled = compiledRule != null;
+
+			String regex = rule.getRegexp();
+			this.analysed = compiled;
+			this.anchored = compiled && regex.startsWith("^");
+			this.prefix = compiled ? PageUrlDispatcher.extractLiteralPrefix(regex) : "";
+			this.hosts = compiled && target == URL ? PageUrlDispatcher.extractHosts(regex) : null;
+		}
+
+		String execute(String text) {
+			return (compiledRule != null ? compiledRule : new CompiledRule(rule)).execute(text);
+		}
+
+		boolean mayMatch(String text) {
+			if (prefix.length() > 0 && !(anchored ? text.startsWith(prefix) : text.contains(prefix)))
+				return false;
+
+			if (hosts != null) {
+				String host = anchored ? PageUrlDispatcher.getHost(text) : null;
+				for (String candidate : hosts) {
+					if (anchored ? candidate.equals(host) : text.contains(candidate))
+						return true;
+				}
+				return false;
+			}
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+
+/**
+ * Selects the {@link XPathIndexerProperties} whose pageUrlFilterRegex
+ * matches a page url.
+ *
+ * The regexes are compiled once. Where a regex starts with a literal
+ * scheme and host (e.g. <code>https?://www\.site\.com/jobs/.*</code>) the
+ * profile is bucketed by host, otherwise the literal prefix of the regex,
+ * if any, is indexed in a prefix trie. A url is then only matched against
+ * the regexes of the profiles found in its host bucket and along its path
+ * in the trie, plus the few profiles that could not be indexed.
+ *
+ * Profiles are always returned in configuration order and the result is
+ * the same as testing every regex in turn with {@link java.util.regex.Matcher#matches()}.
+ */
+public class PageUrlDispatcher {
+
+	// Constants
+	private static final Logger LOG = Logger.getLogger(PageUrlDispatcher.class);
+	private static final String[] SCHEME_PREFIXES = new String[] {"https?://", "http://", "https://", "(http|https)://", "(https|http)://", "(?:http|https)://", "(?:https|http)://"};
+	private static final String[] OPTIONAL_WWW_PREFIXES = new String[] {"(www\\.)?", "(?:www\\.)?"};
+	private static final String METACHARACTERS = "\\[](){}.*+?^$|";
+
+	// Profiles
+	private final List<XPathIndexerProperties> propertiesList;
+	private final Pattern[] patterns;
+
+	// Index
+	private final Map<String, int[]> hostBuckets = new HashMap<String, int[]>();
+	private final TrieNode prefixTrie = new TrieNode();
+	private final BitSet alwaysCandidates;
+	private int invalidPatternCount;
+
+	public PageUrlDispatcher(List<XPathIndexerProperties> propertiesList) {
+		this.propertiesList = new ArrayList<XPathIndexerProperties>(propertiesList);
+		this.patterns = new Pattern[propertiesList.size()];
+		this.alwaysCandidates = new BitSet(propertiesList.size());
+
+		Map<String, List<Integer>> hostIndexes = new HashMap<String, List<Integer>>();
+		int indexed = 0;
+
+		for (int i = 0; i < this.propertiesList.size(); i++) {
+			String regex = this.propertiesList.get(i).getPageUrlFilterRegex();
+
+			// No regex matches every url
+			if (regex == null) {
+				alwaysCandidates.set(i);
+				continue;
+			}
+
+			try {
+				patterns[i] = Pattern.compile(regex);
+			} catch (PatternSyntaxException e) {
+				// Recompiled, and reported, on every match like before
+				LOG.error("Invalid pageUrlFilterRegex " + regex + ": " + e.getDescription());
+				invalidPatternCount++;
+				alwaysCandidates.set(i);
+				continue;
+			}
+
+			String[] hosts = extractHosts(regex);
+			if (hosts != null) {
+				for (String host : hosts) {
+					List<Integer> indexes = hostIndexes.get(host);
+					if (indexes == null) {
+						indexes = new ArrayList<Integer>();
+						hostIndexes.put(host, indexes);
+					}
+					indexes.add(i);
+				}
+				indexed++;
+				continue;
+			}
+
+			String prefix = extractLiteralPrefix(regex);
+			if (prefix.length() > 0) {
+				prefixTrie.add(prefix, i);
+				indexed++;
+			} else {
+				alwaysCandidates.set(i);
+			}
+		}
+
+		for (Map.Entry<String, List<Integer>> entry : hostIndexes.entrySet()) {
+			List<Integer> indexes = entry.getValue();
+			int[] bucket = new int[indexes.size()];
+			for (int i = 0; i < bucket.length; i++) {
+				bucket[i] = indexes.get(i);
+			}
+			hostBuckets.put(entry.getKey(), bucket);
+		}
+
+		if (LOG.isInfoEnabled()) {
+			LOG.info(String.format("Indexed %d of %d page url filters (%d hosts)", indexed, this.propertiesList.size(), hostBuckets.size()));
+		}
+	}
+
+	/**
+	 * Returns the profiles matching the url, in configuration order.
+	 *
+	 * @param url The url to match.
+	 * @return The matching profiles, never null.
+	 * @throws PatternSyntaxException If one of the candidate profiles has an invalid regex.
+	 */
+	public List<XPathIndexerProperties> getMatchingProperties(String url) {
+		BitSet candidates = (BitSet) alwaysCandidates.clone();
+
+		int[] bucket = hostBuckets.get(getHost(url));
+		if (bucket != null) {
+			for (int index : bucket) {
+				candidates.set(index);
+			}
+		}
+		prefixTrie.collect(url, candidates);
+
+		if (candidates.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<XPathIndexerProperties> matching = new ArrayList<XPathIndexerProperties>(candidates.cardinality());
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			XPathIndexerProperties xPathIndexerProperties = propertiesList.get(i);
+			Pattern pattern = patterns[i];
+			if (pattern == null && xPathIndexerProperties.getPageUrlFilterRegex() != null) {
+				pattern = Pattern.compile(xPathIndexerProperties.getPageUrlFilterRegex());
+			}
+
+			if (pattern == null || pattern.matcher(url).matches()) {
+				matching.add(xPathIndexerProperties);
+			}
+		}
+
+		return matching;
+	}
+
+	/**
+	 * Returns the host part of the url, the characters between "://" and the
+	 * first '/', ':', '?' or '#'.
+	 */
+	static String getHost(String url) {
+		int start = url.indexOf("://");
+		if (start < 0) {
+			return null;
+		}
+		start += 3;
+
+		int end = start;
+		while (end < url.length()) {
+			char c = url.charAt(end);
+			if (c == '/' || c == ':' || c == '?' || c == '#') {
+				break;
+			}
+			end++;
+		}
+
+		return url.substring(start, end);
+	}
+
+	/**
+	 * Returns the literal hosts of a regex of the form
+	 * <code>[^]scheme://[(www\.)?]host(/|:)...</code>, or null if the host
+	 * is not entirely literal. An optional "www." yields both hosts.
+	 */
+	static String[] extractHosts(String regex) {
+		String remainder = regex.startsWith("^") ? regex.substring(1) : regex;
+
+		boolean schemeFound = false;
+		for (String schemePrefix : SCHEME_PREFIXES) {
+			if (remainder.startsWith(schemePrefix)) {
+				remainder = remainder.substring(schemePrefix.length());
+				schemeFound = true;
+				break;
+			}
+		}
+		if (!schemeFound || hasTopLevelAlternation(regex)) {
+			return null;
+		}
+
+		boolean optionalWww = false;
+		for (String wwwPrefix : OPTIONAL_WWW_PREFIXES) {
+			if (remainder.startsWith(wwwPrefix)) {
+				remainder = remainder.substring(wwwPrefix.length());
+				optionalWww = true;
+				break;
+			}
+		}
+
+		String literal = extractLiteralPrefix(remainder);
+		int end = 0;
+		while (end < literal.length() && literal.charAt(end) != '/' && literal.charAt(end) != ':') {
+			end++;
+		}
+
+		// The host must be followed by a literal separator and must not hold a character ending the url host
+		if (end == 0 || end == literal.length()) {
+			return null;
+		}
+		String host = literal.substring(0, end);
+		if (host.indexOf('?') >= 0 || host.indexOf('#') >= 0) {
+			return null;
+		}
+
+		return optionalWww ? new String[] {host, "www." + host} : new String[] {host};
+	}
+
+	/**
+	 * Returns the literal text every match of the regex starts with. Returns
+	 * an empty string when there is none or when the regex can't be analysed
+	 * safely (alternations, inline flags, ...).
+	 */
+	static String extractLiteralPrefix(String regex) {
+		if (hasTopLevelAlternation(regex)) {
+			return "";
+		}
+
+		StringBuilder prefix = new StringBuilder();
+		int i = regex.startsWith("^") ? 1 : 0;
+
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			int next;
+			char literal;
+
+			if (c == '\\') {
+				if (i + 1 >= regex.length()) {
+					break;
+				}
+				char escaped = regex.charAt(i + 1);
+				// Only escaped metacharacters are plain literals, \d, \Q, \w... are not
+				if (METACHARACTERS.indexOf(escaped) < 0 && escaped != '/' && escaped != '-') {
+					break;
+				}
+				literal = escaped;
+				next = i + 2;
+			} else if (METACHARACTERS.indexOf(c) >= 0) {
+				break;
+			} else {
+				literal = c;
+				next = i + 1;
+			}
+
+			// A quantified character is optional or repeated, stop before it
+			if (next < regex.length()) {
+				char quantifier = regex.charAt(next);
+				if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+					break;
+				}
+				if (quantifier == '+') {
+					prefix.append(literal);
+					break;
+				}
+			}
+
+			prefix.append(literal);
+			i = next;
+		}
+
+		return prefix.toString();
+	}
+
+	private static boolean hasTopLevelAlternation(String regex) {
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (inClass) {
+				if (c == ']') {
+					inClass = false;
+				}
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+			} else if (c == '|' && depth == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Number of pageUrlFilterRegex that could not be compiled.
+	 */
+	public int getInvalidPatternCount() {
+		return invalidPatternCount;
+	}
+
+	public List<XPathIndexerProperties> getPropertiesList() {
+		return Collections.unmodifiableList(propertiesList);
+	}
+
+	private static class TrieNode {
+
+		private Map<Character, TrieNode> children;
+		private int[] profiles;
+
+		void add(String prefix, int profile) {
+			TrieNode node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				if (node.children == null) {
+					node.children = new HashMap<Character, TrieNode>();
+				}
+				Character c = Character.valueOf(prefix.charAt(i));
+				TrieNode child = node.children.get(c);
+				if (child == null) {
+					child = new TrieNode();
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+
+			if (node.profiles == null) {
+				node.profiles = new int[] {profile};
+			} else {
+				int[] profiles = new int[node.profiles.length + 1];
+				System.arraycopy(node.profiles, 0, profiles, 0, node.profiles.length);
+				profiles[node.profiles.length] = profile;
+				node.profiles = profiles;
+			}
+		}
+
+		void collect(String url, BitSet candidates) {
+			TrieNode node = this;
+			for (int i = 0; i < url.length() && node.children != null; i++) {
+				node = node.children.get(Character.valueOf(url.charAt(i)));
+				if (node == null) {
+					return;
+				}
+				if (node.profiles != null) {
+					for (int profile : node.profiles) {
+						candidates.set(profile);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+import org.jaxen.dom.DocumentNavigator;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Node;
+
+/**
+ * Jaxen navigator for the DocumentFragment built by the html parser.
+ *
+ * The fragment is not attached to its owner document, so the root of
+ * absolute expressions is the top-most ancestor of the context node
+ * instead of the (empty) owner document, and the fragment's children are
+ * navigated like the children of a document. Attributes are not children of
+ * their element, so the walk up starts from the owner element, the compact
+ * DOM has no owner document at all. Element and attribute names are
+ * reported in lower case and the XHTML namespace TagSoup puts its elements
+ * in is reported as no namespace, like in the HtmlCleaner DOM, so the same
+ * expressions work whether Neko (upper case names) or TagSoup built the
+ * fragment.
+ */
+public class ParserDocumentNavigator extends DocumentNavigator {
+
+	private static final long serialVersionUID = 1L;
+	private static final String XHTML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+	private static final ParserDocumentNavigator INSTANCE = new ParserDocumentNavigator();
+
+	public static ParserDocumentNavigator getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public Object getDocumentNode(Object contextNode) {
+		if (!(contextNode instanceof Node)) {
+			return super.getDocumentNode(contextNode);
+		}
+
+		Node root = (Node) contextNode;
+		if (root.getNodeType() == Node.ATTRIBUTE_NODE && ((Attr) root).getOwnerElement() != null) {
+			root = ((Attr) root).getOwnerElement();
+		}
+		while (root.getParentNode() != null) {
+			root = root.getParentNode();
+		}
+		return root.getNodeType() == Node.DOCUMENT_FRAGMENT_NODE ? root : super.getDocumentNode(contextNode);
+	}
+
+	@Override
+	public Iterator getChildAxisIterator(Object contextNode) {
+		if (contextNode instanceof Node && ((Node) contextNode).getNodeType() == Node.DOCUMENT_FRAGMENT_NODE) {
+			return new ChildIterator((Node) contextNode);
+		}
+		return super.getChildAxisIterator(contextNode);
+	}
+
+	@Override
+	public String getElementName(Object element) {
+		return toLowerCase(super.getElementName(element));
+	}
+
+	@Override
+	public String getElementQName(Object element) {
+		return toLowerCase(super.getElementQName(element));
+	}
+
+	@Override
+	public String getAttributeName(Object attribute) {
+		return toLowerCase(super.getAttributeName(attribute));
+	}
+
+	@Override
+	public String getAttributeQName(Object attribute) {
+		return toLowerCase(super.getAttributeQName(attribute));
+	}
+
+	@Override
+	public String getElementNamespaceUri(Object element) {
+		return withoutXhtmlNamespace(super.getElementNamespaceUri(element));
+	}
+
+	@Override
+	public String getAttributeNamespaceUri(Object attribute) {
+		return withoutXhtmlNamespace(super.getAttributeNamespaceUri(attribute));
+	}
+
+	private static String withoutXhtmlNamespace(String uri) {
+		return XHTML_NAMESPACE.equals(uri) ? null : uri;
+	}
+
+	private static String toLowerCase(String name) {
+		return name == null ? null : name.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Iterates over the children of a node, jaxen only iterates over the
+	 * children of elements and documents.
+	 */
+	private static class ChildIterator implements Iterator {
+
+		private Node next;
+
+		ChildIterator(Node parent) {
+			this.next = parent.getFirstChild();
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Object next() {
+			if (next == null)
+				throw new NoSuchElementException();
+
+			Node node = next;
+			next = next.getNextSibling();
+			return node;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
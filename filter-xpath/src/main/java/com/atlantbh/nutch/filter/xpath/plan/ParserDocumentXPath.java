@@ -0,0 +1,17 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import org.jaxen.BaseXPath;
+import org.jaxen.JaxenException;
+
+/**
+ * XPath evaluated against the html parser DocumentFragment through the
+ * {@link ParserDocumentNavigator}.
+ */
+public class ParserDocumentXPath extends BaseXPath {
+
+	private static final long serialVersionUID = 1L;
+
+	public ParserDocumentXPath(String xpathExpr) throws JaxenException {
+		super(xpathExpr, ParserDocumentNavigator.getInstance());
+	}
+}
@@ -0,0 +1,367 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.log4j.Logger;
+import org.jaxen.JaxenException;
+import org.jaxen.XPath;
+import org.jaxen.dom.DOMXPath;
+
+import com.atlantbh.nutch.filter.xpath.FilterUtils;
+import com.atlantbh.nutch.filter.xpath.config.CompiledRule;
+import com.atlantbh.nutch.filter.xpath.config.DocumentSource;
+import com.atlantbh.nutch.filter.xpath.config.OutlinkFilter;
+import com.atlantbh.nutch.filter.xpath.config.Rule;
+import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
+import com.atlantbh.nutch.filter.xpath.stream.StreamablePath;
+
+/**
+ * Compiled, read-only view of a {@link XPathFilterConfiguration}.
+ * Every xpath expression found in the configuration (page content
+ * filters, fields and their parse metas), every page regex and every
+ * rule is compiled once when the plan is built, so the filters only have
+ * to evaluate them. Rules are compiled into {@link CompiledRule}s kept by
+ * the plan, the configuration itself is never modified.
+ * Profile selection by url goes through a {@link PageUrlDispatcher} and
+ * the outlink filters of every profile are compiled in an
+ * {@link OutlinkFilterEngine}.
+ * Profiles reading the html parser document get their expressions
+ * compiled for the {@link ParserDocumentNavigator}.
+ *
+ * The plan is never modified after {@link #compile(XPathFilterConfiguration)}
+ * returns and can be shared between parsing threads.
+ */
+public class XPathFilterPlan {
+
+	// Constants
+	private static final Logger LOG = Logger.getLogger(XPathFilterPlan.class);
+
+	// Configuration
+	private final XPathFilterConfiguration configuration;
+	private final Map<String, XPath> compiledXPaths;
+	private final Map<String, XPath> compiledParserDocumentXPaths;
+	private final Map<String, Pattern> compiledPatterns;
+	private final Map<Rule, CompiledRule> compiledRules;
+	private final Map<String, StreamablePath> streamablePaths;
+	private final Map<XPathIndexerProperties, String> profileNames;
+	private final Map<XPathIndexerProperties, OutlinkFilterEngine> outlinkFilterEngines;
+	private final PageUrlDispatcher pageUrlDispatcher;
+	private int errorCount;
+
+	// Statistics
+	private final AtomicLong compileCount = new AtomicLong();
+	private final List<long[]> hitCounts = new ArrayList<long[]>();
+	private final ThreadLocal<long[]> threadHitCount = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			long[] hitCount = new long[1];
+			synchronized (hitCounts) {
+				hitCounts.add(hitCount);
+			}
+			return hitCount;
+		}
+	};
+
+	private XPathFilterPlan(XPathFilterConfiguration configuration) {
+		this.configuration = configuration;
+		this.compiledXPaths = new HashMap<String, XPath>();
+		this.compiledParserDocumentXPaths = new HashMap<String, XPath>();
+		this.compiledPatterns = new HashMap<String, Pattern>();
+		this.compiledRules = new IdentityHashMap<Rule, CompiledRule>();
+		this.streamablePaths = new HashMap<String, StreamablePath>();
+		this.profileNames = new IdentityHashMap<XPathIndexerProperties, String>();
+		this.outlinkFilterEngines = new IdentityHashMap<XPathIndexerProperties, OutlinkFilterEngine>();
+		this.pageUrlDispatcher = new PageUrlDispatcher(configuration != null ? configuration.getXPathIndexerPropertiesList() : Collections.<XPathIndexerProperties>emptyList());
+	}
+
+	/**
+	 * Builds the plan for the supplied configuration. Expressions that
+	 * can't be compiled are logged and left out of the plan, so the error
+	 * is reported again, per page, by {@link #getXPath(String)}.
+	 *
+	 * @param configuration The configuration to compile.
+	 * @return The compiled plan.
+	 */
+	public static XPathFilterPlan compile(XPathFilterConfiguration configuration) {
+		XPathFilterPlan plan = new XPathFilterPlan(configuration);
+
+		if (configuration != null) {
+			for (XPathIndexerProperties xPathIndexerProperties : configuration.getXPathIndexerPropertiesList()) {
+				String name = xPathIndexerProperties.getName();
+				plan.profileNames.put(xPathIndexerProperties, name != null ? name : "profile" + plan.profileNames.size());
+				DocumentSource source = getDocumentSource(xPathIndexerProperties);
+				plan.add(xPathIndexerProperties.getPageContentFilterXPath(), source);
+				plan.addPattern(xPathIndexerProperties.getPageContentFilterRegex());
+				plan.addFields(xPathIndexerProperties.getXPathIndexerPropertiesFieldList(), source);
+				if (xPathIndexerProperties.getOutlinkFilterList() != null && xPathIndexerProperties.getOutlinkFilterList().size() > 0) {
+					for (OutlinkFilter outlinkFilter : xPathIndexerProperties.getOutlinkFilterList()) {
+						plan.addRules(outlinkFilter.getRegexpRuleList());
+					}
+					plan.outlinkFilterEngines.put(xPathIndexerProperties, new OutlinkFilterEngine(xPathIndexerProperties.getOutlinkFilterList()));
+				}
+			}
+		}
+
+		if (LOG.isInfoEnabled()) {
+			LOG.info(String.format("Compiled %d distinct xpath expressions", plan.compiledXPaths.size() + plan.compiledParserDocumentXPaths.size()));
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Returns the document the profile's expressions are evaluated against,
+	 * {@link DocumentSource#CLEANER} unless configured otherwise.
+	 *
+	 * @param xPathIndexerProperties The profile.
+	 * @return The document source.
+	 */
+	public static DocumentSource getDocumentSource(XPathIndexerProperties xPathIndexerProperties) {
+		return FilterUtils.getNullSafe(xPathIndexerProperties.getDocumentSource(), DocumentSource.CLEANER);
+	}
+
+	private void addFields(List<XPathIndexerPropertiesField> xPathIndexerPropertiesFieldList, DocumentSource source) {
+		if (xPathIndexerPropertiesFieldList == null)
+			return;
+
+		for (XPathIndexerPropertiesField xPathIndexerPropertiesField : xPathIndexerPropertiesFieldList) {
+			add(xPathIndexerPropertiesField.getXPath(), source);
+			addRule(xPathIndexerPropertiesField.getRegexpRule());
+			addFields(xPathIndexerPropertiesField.getParseMetas(), source);
+		}
+	}
+
+	private void add(String expression, DocumentSource source) {
+		Map<String, XPath> xPaths = getXPaths(source);
+		if (expression == null || expression.length() == 0 || xPaths.containsKey(expression))
+			return;
+
+		if (source == DocumentSource.CLEANER && !streamablePaths.containsKey(expression)) {
+			streamablePaths.put(expression, StreamablePath.parse(expression));
+		}
+
+		try {
+			xPaths.put(expression, newXPath(expression, source));
+			compileCount.incrementAndGet();
+		} catch (JaxenException e) {
+			LOG.error("Failed to compile xpath " + expression + ": " + e.getMessage());
+			errorCount++;
+		}
+	}
+
+	private void addRules(List<Rule> rules) {
+		if (rules == null)
+			return;
+
+		for (Rule rule : rules) {
+			addRule(rule);
+		}
+	}
+
+	private void addRule(Rule rule) {
+		if (rule == null || compiledRules.containsKey(rule))
+			return;
+
+		try {
+			compiledRules.put(rule, new CompiledRule(rule));
+		} catch (PatternSyntaxException e) {
+			LOG.error("Failed to compile rule " + rule.getRegexp() + ": " + e.getDescription());
+			errorCount++;
+		}
+		addRules(rule.getSubRules());
+	}
+
+	private void addPattern(String regex) {
+		if (regex == null || compiledPatterns.containsKey(regex))
+			return;
+
+		try {
+			compiledPatterns.put(regex, Pattern.compile(regex));
+		} catch (PatternSyntaxException e) {
+			LOG.error("Failed to compile regex " + regex + ": " + e.getDescription());
+			errorCount++;
+		}
+	}
+
+	/**
+	 * Returns the profiles whose pageUrlFilterRegex matches the url, in
+	 * configuration order.
+	 *
+	 * @param url The url to match.
+	 * @return The matching profiles.
+	 * @throws PatternSyntaxException If a candidate profile has an invalid regex.
+	 */
+	public List<XPathIndexerProperties> getMatchingProperties(String url) {
+		return pageUrlDispatcher.getMatchingProperties(url);
+	}
+
+	/**
+	 * Returns the compiled form of the regex, null if the regex is null.
+	 *
+	 * @param regex The regex.
+	 * @return The compiled pattern or null.
+	 * @throws PatternSyntaxException If the regex is not part of the plan and is invalid.
+	 */
+	public Pattern getPattern(String regex) {
+		if (regex == null)
+			return null;
+
+		Pattern pattern = compiledPatterns.get(regex);
+		return pattern != null ? pattern : Pattern.compile(regex);
+	}
+
+	/**
+	 * Returns the compiled form of the rule. Rules that are not part of
+	 * the plan are compiled on every call and are not cached.
+	 *
+	 * @param rule The rule.
+	 * @return The compiled rule or null if the rule is null.
+	 * @throws PatternSyntaxException If the rule has an invalid regex.
+	 */
+	public CompiledRule getCompiledRule(Rule rule) {
+		if (rule == null)
+			return null;
+
+		CompiledRule compiledRule = compiledRules.get(rule);
+		return compiledRule != null ? compiledRule : new CompiledRule(rule);
+	}
+
+	/**
+	 * Returns the compiled form of the expression, for the HtmlCleaner
+	 * document. Same as <code>getXPath(expression, DocumentSource.CLEANER)</code>.
+	 *
+	 * @param expression The xpath expression.
+	 * @return The compiled xpath.
+	 * @throws JaxenException If the expression is not part of the plan and can't be compiled.
+	 */
+	public XPath getXPath(String expression) throws JaxenException {
+		return getXPath(expression, DocumentSource.CLEANER);
+	}
+
+	/**
+	 * Returns the compiled form of the expression for the given document
+	 * source. Expressions that are not part of the plan are compiled on
+	 * every call and are not cached, the plan stays immutable.
+	 *
+	 * @param expression The xpath expression.
+	 * @param source The document the expression will be evaluated against.
+	 * @return The compiled xpath.
+	 * @throws JaxenException If the expression is not part of the plan and can't be compiled.
+	 */
+	public XPath getXPath(String expression, DocumentSource source) throws JaxenException {
+		XPath xPath = getXPaths(source).get(expression);
+		if (xPath != null) {
+			threadHitCount.get()[0]++;
+			return xPath;
+		}
+
+		compileCount.incrementAndGet();
+		return newXPath(expression, source);
+	}
+
+	/**
+	 * Returns the name of the profile in the metrics, its configured name or
+	 * "profile" followed by its position in the configuration.
+	 *
+	 * @param xPathIndexerProperties The profile.
+	 * @return The profile name.
+	 */
+	public String getProfileName(XPathIndexerProperties xPathIndexerProperties) {
+		String name = profileNames.get(xPathIndexerProperties);
+		return name != null ? name : "unknown";
+	}
+
+	/**
+	 * Returns the compiled outlink filters of the profile.
+	 *
+	 * @param xPathIndexerProperties The profile.
+	 * @return The outlink filter engine or null if the profile doesn't filter outlinks.
+	 */
+	public OutlinkFilterEngine getOutlinkFilterEngine(XPathIndexerProperties xPathIndexerProperties) {
+		return outlinkFilterEngines.get(xPathIndexerProperties);
+	}
+
+	/**
+	 * Returns the streamable form of the expression, see {@link StreamablePath}.
+	 *
+	 * @param expression The xpath expression.
+	 * @return The streamable path or null if the expression can't be evaluated while streaming.
+	 */
+	public StreamablePath getStreamablePath(String expression) {
+		if (streamablePaths.containsKey(expression)) {
+			return streamablePaths.get(expression);
+		}
+		return StreamablePath.parse(expression);
+	}
+
+	private Map<String, XPath> getXPaths(DocumentSource source) {
+		return source == DocumentSource.PARSER ? compiledParserDocumentXPaths : compiledXPaths;
+	}
+
+	private static XPath newXPath(String expression, DocumentSource source) throws JaxenException {
+		return source == DocumentSource.PARSER ? new ParserDocumentXPath(expression) : new DOMXPath(expression);
+	}
+
+	public XPathFilterConfiguration getConfiguration() {
+		return configuration;
+	}
+
+	public Map<String, XPath> getCompiledXPaths() {
+		return Collections.unmodifiableMap(compiledXPaths);
+	}
+
+	/**
+	 * A plan is valid when it was built from a configuration and every
+	 * expression, regex and rule of that configuration compiled.
+	 *
+	 * @return True if the plan is valid.
+	 */
+	public boolean isValid() {
+		return configuration != null && getErrorCount() == 0;
+	}
+
+	/**
+	 * @return Number of expressions, regexes and rules that failed to compile.
+	 */
+	public int getErrorCount() {
+		return errorCount + pageUrlDispatcher.getInvalidPatternCount();
+	}
+
+	/**
+	 * @return Number of xpath compilations done so far, at build time and on misses.
+	 */
+	public long getCompileCount() {
+		return compileCount.get();
+	}
+
+	/**
+	 * Each thread counts its hits on its own, without synchronization, so
+	 * the latest hits of the other threads may be missing from the sum.
+	 *
+	 * @return Number of xpath lookups answered by the plan so far.
+	 */
+	public long getHitCount() {
+		long hitCount = 0;
+		synchronized (hitCounts) {
+			for (long[] threadHits : hitCounts) {
+				hitCount += threadHits[0];
+			}
+		}
+		return hitCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("XPathFilterPlan[expressions=%d, compiles=%d, hits=%d]", compiledXPaths.size() + compiledParserDocumentXPaths.size(), getCompileCount(), getHitCount());
+	}
+}
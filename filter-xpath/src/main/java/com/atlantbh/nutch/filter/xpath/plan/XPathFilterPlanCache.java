@@ -0,0 +1,228 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.log4j.Logger;
+
+import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
+
+/**
+ * Process wide cache of compiled {@link XPathFilterPlan}s.
+ *
+ * Nutch creates the parse and indexing filters, and calls their setConf,
+ * once per plugin instance. Both filters get their plan from this cache so
+ * the configuration is unmarshalled and compiled once per process and
+ * shared by every instance. Entries are keyed by the configuration
+ * resource and validated against the digest of its content.
+ *
+ * Every cached resource is watched: every <code>filter.xpath.reload.interval</code>
+ * seconds (60 by default, 0 disables it) a background thread checks the
+ * digest of the resource and, when it changed, compiles the new
+ * configuration. The new plan replaces the current one in the shared
+ * {@link XPathFilterPlanReference} only if it is valid, an invalid
+ * configuration is logged and the current plan is kept.
+ *
+ * A <code>filter.xpath.file</code> naming a resource (e.g.
+ * <code>xpath-filter.xml</code>) is read from the Nutch conf on the
+ * classpath. On a cluster that is the copy packaged in the job file,
+ * which never changes while the job runs, so such a configuration is only
+ * reloaded in local mode. To reload it on a cluster, set the property to
+ * a path with a scheme (e.g. <code>hdfs://namenode/nutch/xpath-filter.xml</code>
+ * or <code>file:///etc/nutch/xpath-filter.xml</code>), which is read
+ * through the Hadoop FileSystem of that scheme by every task.
+ */
+public class XPathFilterPlanCache {
+
+	// Constants
+	public static final String RELOAD_INTERVAL_PROPERTY = "filter.xpath.reload.interval";
+	private static final Logger LOG = Logger.getLogger(XPathFilterPlanCache.class);
+	private static final long DEFAULT_RELOAD_INTERVAL = 60;
+	private static final int BUFFER_SIZE = 4096;
+
+	// Cache
+	private static final Map<String, XPathFilterPlanReference> cache = new HashMap<String, XPathFilterPlanReference>();
+	private static ScheduledExecutorService watcher;
+
+	private XPathFilterPlanCache() {}
+
+	/**
+	 * Returns the current plan of the configuration resource named by
+	 * <code>filter.xpath.file</code>.
+	 *
+	 * @param configuration The Nutch configuration.
+	 * @return The compiled plan, never null.
+	 */
+	public static XPathFilterPlan getPlan(Configuration configuration) {
+		return getReference(configuration).get();
+	}
+
+	/**
+	 * Returns the shared reference on the plan of the configuration resource
+	 * named by <code>filter.xpath.file</code>. A configuration that can't be
+	 * read yields a reference on an empty plan which is neither cached nor
+	 * watched.
+	 *
+	 * @param configuration The Nutch configuration.
+	 * @return The plan reference, never null.
+	 */
+	public static synchronized XPathFilterPlanReference getReference(Configuration configuration) {
+		String resource = configuration.get(XPathFilterConfiguration.CONFIG_FILE_PATH_PROPERTY);
+		XPathFilterPlanReference reference = cache.get(resource);
+
+		byte[] content = readResource(configuration, resource);
+		if (content == null) {
+			return reference != null ? reference : new XPathFilterPlanReference(resource, XPathFilterPlan.compile(null), null);
+		}
+
+		String digest = MD5Hash.digest(content).toString();
+		if (reference != null) {
+			reload(reference, content, digest);
+			return reference;
+		}
+
+		// Initialize configuration
+		XPathFilterConfiguration xpathFilterConfiguration = XPathFilterConfiguration.getInstance(new ByteArrayInputStream(content));
+		reference = new XPathFilterPlanReference(resource, XPathFilterPlan.compile(xpathFilterConfiguration), digest);
+		if (xpathFilterConfiguration != null) {
+			cache.put(resource, reference);
+			watch(configuration, reference);
+
+			if (LOG.isInfoEnabled()) {
+				LOG.info(String.format("Cached xpath filter plan for %s (%s)", resource, digest));
+			}
+		}
+
+		return reference;
+	}
+
+	/**
+	 * Drops every cached plan and stops watching their resources.
+	 */
+	public static synchronized void clear() {
+		cache.clear();
+		if (watcher != null) {
+			watcher.shutdownNow();
+			watcher = null;
+		}
+	}
+
+	private static void watch(final Configuration configuration, final XPathFilterPlanReference reference) {
+		long interval = configuration.getLong(RELOAD_INTERVAL_PROPERTY, DEFAULT_RELOAD_INTERVAL);
+		if (interval <= 0) {
+			return;
+		}
+
+		if (watcher == null) {
+			watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "xpath-filter-plan-watcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		watcher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				// An exception would cancel the task, keep watching whatever happens
+				try {
+					byte[] content = readResource(configuration, reference.getResource());
+					if (content != null) {
+						reload(reference, content, MD5Hash.digest(content).toString());
+					}
+				} catch (Throwable t) {
+					LOG.error("Failed to reload " + reference.getResource() + ": " + t.toString());
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Compiles the content if its digest differs from the current one and
+	 * swaps the new plan in if it is valid. A rejected content is not
+	 * compiled again until it changes.
+	 */
+	private static void reload(XPathFilterPlanReference reference, byte[] content, String digest) {
+		// Only one reload of a resource at a time, readers are never blocked
+		synchronized (reference) {
+			if (digest.equals(reference.getDigest()) || digest.equals(reference.getRejectedDigest())) {
+				return;
+			}
+
+			XPathFilterConfiguration xpathFilterConfiguration = XPathFilterConfiguration.getInstance(new ByteArrayInputStream(content));
+			XPathFilterPlan plan = XPathFilterPlan.compile(xpathFilterConfiguration);
+			if (!plan.isValid()) {
+				LOG.error(String.format("Rejected changed xpath filter configuration %s (%s, %d errors), keeping the current plan", reference.getResource(), digest, plan.getErrorCount()));
+				reference.setRejectedDigest(digest);
+				return;
+			}
+
+			reference.set(plan, digest);
+			if (LOG.isInfoEnabled()) {
+				LOG.info(String.format("Reloaded xpath filter plan for %s (%s)", reference.getResource(), digest));
+			}
+		}
+	}
+
+	private static byte[] readResource(Configuration configuration, String resource) {
+		InputStream inputStream;
+		try {
+			inputStream = resource != null ? openResource(configuration, resource) : null;
+		} catch (IOException e) {
+			LOG.error("Failed to open configuration resource " + resource + ": " + e.getMessage());
+			return null;
+		}
+		if (inputStream == null) {
+			LOG.error("Configuration resource " + resource + " not found!");
+			return null;
+		}
+
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+			return outputStream.toByteArray();
+		} catch (IOException e) {
+			LOG.error("Failed to read configuration resource " + resource + ": " + e.getMessage());
+			return null;
+		} finally {
+			try {
+				inputStream.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	/**
+	 * Opens a path with a scheme through its FileSystem, anything else as a
+	 * conf resource.
+	 *
+	 * @return The content of the resource, null if it doesn't exist.
+	 */
+	private static InputStream openResource(Configuration configuration, String resource) throws IOException {
+		Path path = new Path(resource);
+		if (path.toUri().getScheme() == null) {
+			return configuration.getConfResourceAsInputStream(resource);
+		}
+
+		FileSystem fileSystem = path.getFileSystem(configuration);
+		return fileSystem.exists(path) ? fileSystem.open(path) : null;
+	}
+}
@@ -0,0 +1,50 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+/**
+ * Shared handle on the current {@link XPathFilterPlan} of a configuration
+ * resource. Every filter instance using the resource holds the same
+ * reference, a reloaded plan is swapped in atomically and seen by all of
+ * them. Callers should read the plan once per document so a document is
+ * processed by a single plan.
+ */
+public class XPathFilterPlanReference {
+
+	private final String resource;
+	private volatile XPathFilterPlan plan;
+	private volatile String digest;
+	private volatile String rejectedDigest;
+
+	XPathFilterPlanReference(String resource, XPathFilterPlan plan, String digest) {
+		this.resource = resource;
+		this.plan = plan;
+		this.digest = digest;
+	}
+
+	/**
+	 * @return The current plan, never null.
+	 */
+	public XPathFilterPlan get() {
+		return plan;
+	}
+
+	void set(XPathFilterPlan plan, String digest) {
+		this.plan = plan;
+		this.digest = digest;
+	}
+
+	void setRejectedDigest(String rejectedDigest) {
+		this.rejectedDigest = rejectedDigest;
+	}
+
+	String getRejectedDigest() {
+		return rejectedDigest;
+	}
+
+	String getDigest() {
+		return digest;
+	}
+
+	public String getResource() {
+		return resource;
+	}
+}
@@ -0,0 +1,180 @@
+package com.atlantbh.nutch.filter.xpath.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The streamable subset of XPath: absolute location paths made of element
+ * name steps separated by "/" or "//", optionally ending with an attribute
+ * step, e.g. <code>/rss/channel/item</code>, <code>//item/title</code> or
+ * <code>//enclosure/@url</code>. Such a path can be matched against the
+ * stack of open elements while reading a document, without a DOM.
+ *
+ * Names are compared like on a non namespace aware DOM: the qualified name
+ * of the element against the name of the step, which can't be prefixed.
+ */
+public class StreamablePath {
+
+	private final String expression;
+	private final String[] names;
+	private final boolean[] descendant;
+	private final String attributeName;
+
+	private StreamablePath(String expression, String[] names, boolean[] descendant, String attributeName) {
+		this.expression = expression;
+		this.names = names;
+		this.descendant = descendant;
+		this.attributeName = attributeName;
+	}
+
+	/**
+	 * Parses the expression.
+	 *
+	 * @param expression The xpath expression.
+	 * @return The streamable path or null if the expression is not in the streamable subset.
+	 */
+	public static StreamablePath parse(String expression) {
+		if (expression == null) {
+			return null;
+		}
+
+		String path = expression.trim();
+		if (!path.startsWith("/")) {
+			return null;
+		}
+
+		List<String> names = new ArrayList<String>();
+		List<Boolean> descendant = new ArrayList<Boolean>();
+		String attributeName = null;
+
+		int i = 0;
+		while (i < path.length()) {
+
+			// Step separator
+			if (attributeName != null || path.charAt(i) != '/') {
+				return null;
+			}
+			boolean isDescendant = path.startsWith("//", i);
+			i += isDescendant ? 2 : 1;
+
+			// Attribute step, only as the last step
+			boolean isAttribute = i < path.length() && path.charAt(i) == '@';
+			if (isAttribute) {
+				if (isDescendant) {
+					return null;
+				}
+				i++;
+			}
+
+			int start = i;
+			while (i < path.length() && isNameChar(path.charAt(i))) {
+				i++;
+			}
+			if (i == start || !Character.isLetter(path.charAt(start)) && path.charAt(start) != '_') {
+				return null;
+			}
+
+			String name = path.substring(start, i);
+			if (isAttribute) {
+				attributeName = name;
+			} else {
+				names.add(name);
+				descendant.add(Boolean.valueOf(isDescendant));
+			}
+		}
+
+		if (names.isEmpty()) {
+			return null;
+		}
+
+		boolean[] descendantArray = new boolean[descendant.size()];
+		for (int j = 0; j < descendantArray.length; j++) {
+			descendantArray[j] = descendant.get(j).booleanValue();
+		}
+
+		return new StreamablePath(expression, names.toArray(new String[names.size()]), descendantArray, attributeName);
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+	}
+
+	/**
+	 * Checks if the element on top of the stack is selected by the element
+	 * steps of the path.
+	 *
+	 * @param stack Qualified names of the open elements, the root element first.
+	 * @param depth Number of open elements in the stack.
+	 * @return True if the element on top of the stack matches.
+	 */
+	public boolean matches(String[] stack, int depth) {
+		return depth > 0 && matches(names.length - 1, stack, depth - 1);
+	}
+
+	private boolean matches(int step, String[] stack, int position) {
+		if (!names[step].equals(stack[position])) {
+			return false;
+		}
+
+		if (step == 0) {
+			return descendant[0] || position == 0;
+		}
+
+		if (!descendant[step]) {
+			return position > 0 && matches(step - 1, stack, position - 1);
+		}
+
+		for (int previous = position - 1; previous >= 0; previous--) {
+			if (matches(step - 1, stack, previous)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The attribute selected on the matching elements, null if the path selects elements.
+	 */
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Checks if an expression only looks at the node it is evaluated on and
+	 * its descendants, so it gives the same result on a detached copy of
+	 * that node. The check is conservative: absolute paths, reverse and
+	 * sibling axes, variables and unions are rejected.
+	 *
+	 * @param expression The xpath expression.
+	 * @return True if the expression is local to its context node.
+	 */
+	public static boolean isLocal(String expression) {
+		if (expression == null) {
+			return false;
+		}
+
+		String path = expression.replaceAll("\\s+", "");
+		if (path.length() == 0 || path.contains("..") || path.contains("|") || path.contains("$")
+				|| path.contains("ancestor") || path.contains("parent::") || path.contains("preceding") || path.contains("following")
+				|| path.contains("id(") || path.contains("document(")) {
+			return false;
+		}
+
+		// A path starting after an operator or a bracket is an absolute path
+		for (int i = 0; i < path.length(); i++) {
+			if (path.charAt(i) == '/' && (i == 0 || "([,=<>!+*".indexOf(path.charAt(i - 1)) >= 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+}
@@ -0,0 +1,268 @@
+package com.atlantbh.nutch.filter.xpath.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jaxen.JaxenException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Evaluates {@link StreamablePath}s in a single StAX pass over an XML
+ * document.
+ *
+ * Only the elements selected by a path are built, as detached DOM copies
+ * shaped like the nodes of a non namespace aware DOM, and handed to the
+ * path's handler once they are complete. Memory is bounded by the largest
+ * selected element instead of the whole document. Handlers are called in
+ * document order for each path.
+ */
+public class XmlStreamExtractor {
+
+	// Configuration
+	private final XMLInputFactory inputFactory;
+	private final Document document;
+	private final List<Target> targets = new ArrayList<Target>();
+
+	// Pass state
+	private final List<Match> openMatches = new ArrayList<Match>();
+	private final StringBuilder pendingText = new StringBuilder();
+	private String[] stack = new String[16];
+	private int depth;
+
+	/**
+	 * @param inputFactory The StAX factory, configured by the caller.
+	 * @param document Owner document of the built nodes.
+	 */
+	public XmlStreamExtractor(XMLInputFactory inputFactory, Document document) {
+		this.inputFactory = inputFactory;
+		this.document = document;
+	}
+
+	/**
+	 * Registers a path and the handler of the nodes it selects.
+	 */
+	public void addTarget(StreamablePath path, XmlStreamHandler handler) {
+		targets.add(new Target(path, handler));
+	}
+
+	public boolean hasTargets() {
+		return !targets.isEmpty();
+	}
+
+	/**
+	 * Reads the document and calls the handlers of the matching paths.
+	 *
+	 * @param inputStream The XML document, its encoding is detected by the parser.
+	 */
+	public void extract(InputStream inputStream) throws XMLStreamException, JaxenException, IOException, ParserConfigurationException {
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+		try {
+			while (reader.hasNext()) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					startElement(reader);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					endElement();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					// Adjacent text makes a single text node, like in a DOM
+					if (!openMatches.isEmpty()) {
+						pendingText.append(reader.getText());
+					}
+					break;
+				case XMLStreamConstants.CDATA:
+					if (!openMatches.isEmpty()) {
+						flushText();
+						appendToOpenMatches(document.createCDATASection(reader.getText()));
+					}
+					break;
+				case XMLStreamConstants.COMMENT:
+					if (!openMatches.isEmpty()) {
+						flushText();
+						appendToOpenMatches(document.createComment(reader.getText()));
+					}
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					if (!openMatches.isEmpty()) {
+						flushText();
+						appendToOpenMatches(document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} finally {
+			reader.close();
+			openMatches.clear();
+			pendingText.setLength(0);
+			depth = 0;
+			for (Target target : targets) {
+				target.matches.clear();
+			}
+		}
+	}
+
+	private void startElement(XMLStreamReader reader) throws JaxenException, IOException, ParserConfigurationException {
+		flushText();
+
+		String name = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+		if (depth == stack.length) {
+			String[] newStack = new String[stack.length * 2];
+			System.arraycopy(stack, 0, newStack, 0, stack.length);
+			stack = newStack;
+		}
+		stack[depth++] = name;
+
+		// Every open match gets its own copy of the element
+		for (Match match : openMatches) {
+			Element element = createElement(reader, name);
+			match.current.appendChild(element);
+			match.current = element;
+		}
+
+		for (Target target : targets) {
+			if (!target.path.matches(stack, depth)) {
+				continue;
+			}
+
+			String attributeName = target.path.getAttributeName();
+			if (attributeName == null) {
+				Match match = new Match(target, createElement(reader, name));
+				target.matches.add(match);
+				openMatches.add(match);
+			} else {
+				String value = getAttributeValue(reader, attributeName);
+				if (value != null) {
+					Node attribute = document.createAttribute(attributeName);
+					attribute.setNodeValue(value);
+					Match match = new Match(target, attribute);
+					match.complete = true;
+					target.matches.add(match);
+					target.flush();
+				}
+			}
+		}
+	}
+
+	private void endElement() throws JaxenException, IOException, ParserConfigurationException {
+		flushText();
+
+		Iterator<Match> iterator = openMatches.iterator();
+		List<Target> completedTargets = null;
+		while (iterator.hasNext()) {
+			Match match = iterator.next();
+			if (match.current == match.node) {
+				match.complete = true;
+				iterator.remove();
+				if (completedTargets == null) {
+					completedTargets = new ArrayList<Target>();
+				}
+				completedTargets.add(match.target);
+			} else {
+				match.current = match.current.getParentNode();
+			}
+		}
+		depth--;
+
+		if (completedTargets != null) {
+			for (Target target : completedTargets) {
+				target.flush();
+			}
+		}
+	}
+
+	private void flushText() {
+		if (pendingText.length() > 0) {
+			String text = pendingText.toString();
+			pendingText.setLength(0);
+			for (Match match : openMatches) {
+				match.current.appendChild(document.createTextNode(text));
+			}
+		}
+	}
+
+	private void appendToOpenMatches(Node node) {
+		for (int i = 0; i < openMatches.size(); i++) {
+			Match match = openMatches.get(i);
+			match.current.appendChild(i == 0 ? node : node.cloneNode(false));
+		}
+	}
+
+	private Element createElement(XMLStreamReader reader, String name) {
+		Element element = document.createElement(name);
+
+		// Namespace declarations are plain attributes in a non namespace aware DOM
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			String prefix = reader.getNamespacePrefix(i);
+			element.setAttribute(prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:" + prefix, reader.getNamespaceURI(i));
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+		}
+
+		return element;
+	}
+
+	private static String getAttributeValue(XMLStreamReader reader, String name) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			if (name.equals(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))) {
+				return reader.getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	private static String getQualifiedName(String prefix, String localName) {
+		return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+	}
+
+	private static class Target {
+
+		private final StreamablePath path;
+		private final XmlStreamHandler handler;
+
+		// Matches in document order, handed over once every earlier one is complete
+		private final LinkedList<Match> matches = new LinkedList<Match>();
+
+		Target(StreamablePath path, XmlStreamHandler handler) {
+			this.path = path;
+			this.handler = handler;
+		}
+
+		void flush() throws JaxenException, IOException, ParserConfigurationException {
+			while (!matches.isEmpty() && matches.getFirst().complete) {
+				handler.handle(matches.removeFirst().node);
+			}
+		}
+	}
+
+	private static class Match {
+
+		private final Target target;
+		private final Node node;
+		private Node current;
+		private boolean complete;
+
+		Match(Target target, Node node) {
+			this.target = target;
+			this.node = node;
+			this.current = node;
+		}
+	}
+}
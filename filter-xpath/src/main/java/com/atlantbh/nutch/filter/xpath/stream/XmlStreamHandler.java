@@ -0,0 +1,24 @@
+package com.atlantbh.nutch.filter.xpath.stream;
+
+import java.io.IOException;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.jaxen.JaxenException;
+import org.w3c.dom.Node;
+
+/**
+ * Receives the nodes selected by a {@link StreamablePath} during a
+ * {@link XmlStreamExtractor} pass, in document order.
+ */
+public interface XmlStreamHandler {
+
+	/**
+	 * Handles a selected node. Elements are detached copies holding their
+	 * whole subtree, keeping them after the call defeats the bounded
+	 * memory of the pass.
+	 *
+	 * @param node The selected element or attribute.
+	 */
+	void handle(Node node) throws JaxenException, IOException, ParserConfigurationException;
+}
@@ -0,0 +1,192 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.nutch.parse.Outlink;
+import org.junit.Test;
+
+import com.atlantbh.nutch.filter.xpath.config.OutlinkFilter;
+import com.atlantbh.nutch.filter.xpath.config.Rule;
+
+/**
+ * Checks that the engine keeps and rewrites the same outlinks as running
+ * every rule of the outlink filters in turn, like the filter did before.
+ */
+public class OutlinkFilterEngineTest {
+
+	private static final String[][] OUTLINKS = new String[][] {
+		{"http://www.site.com/job/42", "Java developer"},
+		{"https://www.site.com/job/42?src=list", "Apply now"},
+		{"http://site.com/job/43", "Tester"},
+		{"http://www.site.com/jobs/search?page=2", "Next"},
+		{"http://www.site.com/jobs/search?page=3", "next page"},
+		{"http://www.site.com/offers/abc", "Offer"},
+		{"https://site.com/offers/def", ""},
+		{"http://www.other.com/job/7", "Java developer"},
+		{"http://www.other.com/offers/site.com/x", "Other offer"},
+		{"http://cdn.site.com/logo.png", "Logo"},
+		{"http://www.site.com/company/acme", "ACME"},
+		{"http://www.site.com/company/acme/jobs", "APPLY"},
+		{"http://www.site.com/aa/bb", "aa"},
+		{"mailto:jobs@site.com", "Contact"},
+		{"http://www.site.com/", " Home "}
+	};
+
+	@Test
+	public void testUrlRules() throws Exception {
+		checkSameAsSequential(newFilter(
+				newRule("^https?://www\\.site\\.com/job/(\\d+)", "1", null, false),
+				newRule("https?://(www\\.)?site\\.com/offers/.*", null, null, false),
+				newRule("/company/[a-z]+$", null, null, false)));
+	}
+
+	@Test
+	public void testAnchorRules() throws Exception {
+		checkSameAsSequential(newFilter(
+				newRule("(?i)apply", null, null, true),
+				newRule("^Next", null, null, true),
+				newRule("developer", null, null, true)));
+	}
+
+	@Test
+	public void testRejectingRulesAreDropped() throws Exception {
+		Rule rejecting = newRule("^https?://www\\.site\\.com/job/.*", null, null, false);
+		rejecting.setAccept(Boolean.FALSE);
+		Rule rejectingAnchor = newRule("Next", null, null, true);
+		rejectingAnchor.setAccept(Boolean.FALSE);
+
+		List<OutlinkFilter> outlinkFilters = newFilter(rejecting, rejectingAnchor, newRule("https?://(www\\.)?site\\.com/offers/.*", null, null, false));
+		checkSameAsSequential(outlinkFilters);
+		assertEquals(1, new OutlinkFilterEngine(outlinkFilters).getRuleCount());
+	}
+
+	@Test
+	public void testFirstCaptureWins() throws Exception {
+		// Several rules capture the same outlinks, the first one rewrites the url
+		checkSameAsSequential(newFilter(
+				newRule("^http://www\\.site\\.com/job/\\d+", null, null, false),
+				newRule("https?://(www\\.)?site\\.com/job/(\\d+)", "2", null, false),
+				newRule("(?i)apply", null, null, true),
+				newRule("site\\.com/(job|offers)/", null, "site.com/item/", false),
+				newRule(".*", null, null, false)));
+
+		// Across outlink filters
+		List<OutlinkFilter> outlinkFilters = newFilter(newRule("(?i)java", null, null, true));
+		outlinkFilters.addAll(newFilter(newRule("^https?://www\\.site\\.com/(.*)", "1", null, false), newRule("(?i)java", null, null, true)));
+		checkSameAsSequential(outlinkFilters);
+	}
+
+	@Test
+	public void testPrefixAndHostPrefilter() throws Exception {
+		checkSameAsSequential(newFilter(
+				// Host buckets, with and without the optional www
+				newRule("^https?://www\\.site\\.com/jobs/search\\?page=(\\d+)", "1", null, false),
+				newRule("^https?://(?:www\\.)?site\\.com/offers/(.+)", "1", null, false),
+				newRule("http://cdn\\.site\\.com/.*", null, null, false),
+				// Anchored and unanchored literal prefixes
+				newRule("^http://www\\.site\\.com/company/", null, null, false),
+				newRule("www.site.com/aa", null, null, false),
+				newRule("site.com/", null, null, false),
+				newRule("^mailto:", null, null, false)));
+	}
+
+	@Test
+	public void testRulesLeftOutOfTheGate() throws Exception {
+		// Back references, quotes and comments can't be combined, invalid groups never capture
+		checkSameAsSequential(newFilter(
+				newRule("/(a+)/b*\\1", null, null, false),
+				newRule("/(?<letter>b)\\k<letter>$", null, null, false),
+				newRule("\\Qsite.com/offers/\\E", null, null, false),
+				newRule("(?x)site\\.com/company  # comment", null, null, false),
+				newRule("^http://www\\.site\\.com/job/(\\d+)", "3", null, false),
+				newRule("^http://www\\.site\\.com/job/(\\d+)", "x", null, false),
+				newRule("job/(\\d+)", null, null, false)));
+	}
+
+	@Test
+	public void testSubRules() throws Exception {
+		Rule rule = newRule("^https?://www\\.site\\.com/job/.*", null, null, false);
+		rule.setSubRules(Arrays.asList(newRule("src=[a-z]+", null, "", false), newRule("https", null, "http", false)));
+		checkSameAsSequential(newFilter(rule, newRule("(?i)apply", null, null, true)));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void testInvalidRule() throws Exception {
+		// Reported when executed, like before
+		new OutlinkFilterEngine(newFilter(newRule("^http://www\\.site\\.com/(job", null, null, false))).filter(newOutlinks());
+	}
+
+	private static void checkSameAsSequential(List<OutlinkFilter> outlinkFilters) throws MalformedURLException {
+		List<Outlink> expected = filterRuleByRule(outlinkFilters, newOutlinks());
+		List<Outlink> actual = new OutlinkFilterEngine(outlinkFilters).filter(newOutlinks());
+		assertEquals(describe(expected), describe(actual));
+	}
+
+	/**
+	 * Every rule in turn, the first capturing rule keeps the outlink.
+	 */
+	private static List<Outlink> filterRuleByRule(List<OutlinkFilter> outlinkFilters, List<Outlink> outlinks) {
+		List<Outlink> filteredLinks = new ArrayList<Outlink>();
+		for (Outlink outlink : outlinks) {
+			boolean filtered = false;
+			for (OutlinkFilter outlinkFilter : outlinkFilters) {
+				for (Rule rule : outlinkFilter.getRegexpRuleList()) {
+					String capturedText = rule.execute(outlink);
+					if (capturedText != null) {
+						filtered = true;
+						if (!rule.getIsAnchorRule()) {
+							outlink.setUrl(capturedText);
+						}
+						break;
+					}
+				}
+				if (filtered)
+					break;
+			}
+
+			if (filtered) {
+				filteredLinks.add(outlink);
+			}
+		}
+		return filteredLinks;
+	}
+
+	private static List<String> describe(List<Outlink> outlinks) {
+		List<String> descriptions = new ArrayList<String>();
+		for (Outlink outlink : outlinks) {
+			descriptions.add(outlink.getToUrl() + " " + outlink.getAnchor());
+		}
+		return descriptions;
+	}
+
+	private static List<Outlink> newOutlinks() throws MalformedURLException {
+		List<Outlink> outlinks = new ArrayList<Outlink>();
+		for (String[] outlink : OUTLINKS) {
+			outlinks.add(new Outlink(outlink[0], outlink[1]));
+		}
+		return outlinks;
+	}
+
+	private static List<OutlinkFilter> newFilter(Rule... rules) {
+		OutlinkFilter outlinkFilter = new OutlinkFilter();
+		outlinkFilter.setRegexpRuleList(new ArrayList<Rule>(Arrays.asList(rules)));
+		List<OutlinkFilter> outlinkFilters = new ArrayList<OutlinkFilter>();
+		outlinkFilters.add(outlinkFilter);
+		return outlinkFilters;
+	}
+
+	private static Rule newRule(String regexp, String groupIndex, String replaceAll, boolean anchorRule) {
+		Rule rule = new Rule();
+		rule.setRegexp(regexp);
+		rule.setGroupIndex(groupIndex);
+		rule.setReplaceAll(replaceAll);
+		rule.setIsAnchorRule(anchorRule);
+		return rule;
+	}
+}
@@ -0,0 +1,187 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+import com.atlantbh.nutch.filter.xpath.FilterUtils;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+
+/**
+ * Checks that the dispatcher selects the same profiles as matching every
+ * pageUrlFilterRegex in turn, like the filter did before.
+ */
+public class PageUrlDispatcherTest {
+
+	private static final String[] REGEXES = new String[] {
+		// Profiles of the benchmark configurations
+		"^https?://feeds\\.example-jobs\\.com/",
+		"^https?://www\\.example-jobs\\.com/job/\\d+",
+		"^https?://www\\.example-jobs\\.com/jobs/search",
+		"^https?://www\\.example-jobs\\.com/jobs/search.*",
+		// Alternations
+		"https?://(www\\.)?site-a\\.com/.*|https?://site-b\\.org/offers/.*",
+		"http://www\\.site-a\\.com/(jobs|offers)/.*",
+		"(http|https)://site-b\\.org/.*",
+		// Escaped and unescaped dots
+		"http://www.site-a.com/.*",
+		"http://www\\.site-a\\.com/jobs/.*",
+		"https?://(?:www\\.)?site-e\\.net/.*",
+		// Anchored and unanchored
+		"^http://www\\.site-c\\.com/.*",
+		"http://site-c\\.com:8080/.*",
+		".*/job/[0-9]+\\.html",
+		"http://ww+\\.site-f\\.com/.*",
+		"\\Qhttp://site-g.com/\\E.*",
+		// Inline flags
+		"(?i)https?://WWW\\.SITE-A\\.COM/.*",
+		"http://www\\.site-d\\.com/(?i)JOBS/.*",
+		"(?i:HTTP)://www\\.site-d\\.com/.*",
+		// No regex matches every url
+		null
+	};
+
+	private static final String[] URLS = new String[] {
+		"http://feeds.example-jobs.com/",
+		"https://feeds.example-jobs.com/",
+		"https://feeds.example-jobs.com/rss",
+		"http://www.example-jobs.com/job/42",
+		"https://www.example-jobs.com/job/42",
+		"https://www.example-jobs.com/job/42/apply",
+		"https://www.example-jobs.com/job/",
+		"http://www.example-jobs.com/jobs/search",
+		"http://www.example-jobs.com/jobs/search?q=java",
+		"http://example-jobs.com/jobs/search",
+		"HTTP://WWW.EXAMPLE-JOBS.COM/job/42",
+		"http://site-a.com/",
+		"https://www.site-a.com/jobs/1",
+		"http://www.site-a.com/offers/2",
+		"http://www.site-a.com/news/3",
+		"http://wwwXsite-aXcom/news/3",
+		"http://www.site-a.com:80/jobs/1",
+		"HTTP://WWW.SITE-A.COM/JOBS/1",
+		"https://WWW.SITE-A.COM/jobs/1",
+		"http://site-b.org/offers/1",
+		"https://site-b.org/",
+		"http://www.site-b.org/offers/1",
+		"http://site-e.net/",
+		"https://www.site-e.net/jobs",
+		"http://wwwXsite-e.net/",
+		"http://www.site-c.com/",
+		"http://www.site-c.com/x/job/12.html",
+		"http://site-c.com:8080/jobs",
+		"http://site-c.com/jobs",
+		"http://other.com/job/7.html",
+		"http://other.com/job/7.htm",
+		"http://ww.site-f.com/",
+		"http://www.site-f.com/",
+		"http://wwwww.site-f.com/a",
+		"http://w.site-f.com/",
+		"http://site-g.com/x",
+		"http://site-gXcom/x",
+		"http://www.site-d.com/jobs/1",
+		"http://www.site-d.com/JoBs/1",
+		"HTTP://www.site-d.com/x",
+		"Http://www.site-d.com/x",
+		"http://WWW.site-d.com/x",
+		"ftp://www.site-a.com/jobs/1",
+		"www.site-a.com/jobs/1",
+		""
+	};
+
+	@Test
+	public void testAllProfiles() {
+		checkSameAsSequential(newProfiles(REGEXES));
+	}
+
+	@Test
+	public void testEachProfile() {
+		for (String regex : REGEXES) {
+			checkSameAsSequential(newProfiles(regex));
+		}
+	}
+
+	@Test
+	public void testSharedHostsAndPrefixes() {
+		// Several profiles in the same host bucket and along the same trie path
+		checkSameAsSequential(newProfiles(
+				"http://www\\.site-a\\.com/.*",
+				"http://www\\.site-a\\.com/jobs/.*",
+				"http://www\\.site-a\\.com/jobs/.*",
+				"http://www\\.site-a.*",
+				"http://www\\.site-a\\.com/jobs/[0-9]+",
+				"https?://www\\.site-a\\.com/jobs/1"));
+	}
+
+	@Test(expected = PatternSyntaxException.class)
+	public void testInvalidRegex() {
+		PageUrlDispatcher dispatcher = new PageUrlDispatcher(newProfiles("http://www\\.site-a\\.com/.*", "http://(www\\.site-a\\.com/.*"));
+		assertEquals(1, dispatcher.getInvalidPatternCount());
+
+		// Reported on every page, like before
+		dispatcher.getMatchingProperties("http://www.site-a.com/jobs");
+	}
+
+	@Test
+	public void testExtractHosts() {
+		assertArrayEquals(new String[] {"www.example-jobs.com"}, PageUrlDispatcher.extractHosts("^https?://www\\.example-jobs\\.com/job/\\d+"));
+		assertArrayEquals(new String[] {"site-e.net", "www.site-e.net"}, PageUrlDispatcher.extractHosts("https?://(?:www\\.)?site-e\\.net/.*"));
+		assertArrayEquals(new String[] {"site-c.com"}, PageUrlDispatcher.extractHosts("http://site-c\\.com:8080/.*"));
+		assertNull(PageUrlDispatcher.extractHosts("https?://(www\\.)?site-a\\.com/.*|https?://site-b\\.org/offers/.*"));
+		assertNull(PageUrlDispatcher.extractHosts("http://www.site-a.com/.*"));
+		assertNull(PageUrlDispatcher.extractHosts("(?i)https?://WWW\\.SITE-A\\.COM/.*"));
+		assertNull(PageUrlDispatcher.extractHosts("http://ww+\\.site-f\\.com/.*"));
+	}
+
+	@Test
+	public void testExtractLiteralPrefix() {
+		assertEquals("http://www.site-a.com/", PageUrlDispatcher.extractLiteralPrefix("http://www\\.site-a\\.com/(jobs|offers)/.*"));
+		assertEquals("http://www", PageUrlDispatcher.extractLiteralPrefix("http://www.site-a.com/.*"));
+		assertEquals("http://ww", PageUrlDispatcher.extractLiteralPrefix("http://ww+\\.site-f\\.com/.*"));
+		assertEquals("http", PageUrlDispatcher.extractLiteralPrefix("^https?://feeds\\.example-jobs\\.com/"));
+		assertEquals("", PageUrlDispatcher.extractLiteralPrefix("https?://(www\\.)?site-a\\.com/.*|https?://site-b\\.org/offers/.*"));
+		assertEquals("", PageUrlDispatcher.extractLiteralPrefix("(?i)https?://WWW\\.SITE-A\\.COM/.*"));
+		assertEquals("", PageUrlDispatcher.extractLiteralPrefix("\\Qhttp://site-g.com/\\E.*"));
+		assertEquals("", PageUrlDispatcher.extractLiteralPrefix(".*/job/[0-9]+\\.html"));
+	}
+
+	private static void checkSameAsSequential(List<XPathIndexerProperties> profiles) {
+		PageUrlDispatcher dispatcher = new PageUrlDispatcher(profiles);
+		assertEquals(0, dispatcher.getInvalidPatternCount());
+
+		for (String url : URLS) {
+			assertEquals("Profiles selected for " + url, getMatchingProperties(profiles, url), dispatcher.getMatchingProperties(url));
+		}
+	}
+
+	/**
+	 * Every regex in turn, in configuration order.
+	 */
+	private static List<XPathIndexerProperties> getMatchingProperties(List<XPathIndexerProperties> profiles, String url) {
+		List<XPathIndexerProperties> matching = new ArrayList<XPathIndexerProperties>();
+		for (XPathIndexerProperties xPathIndexerProperties : profiles) {
+			if (FilterUtils.isMatch(xPathIndexerProperties.getPageUrlFilterRegex(), url)) {
+				matching.add(xPathIndexerProperties);
+			}
+		}
+		return matching.isEmpty() ? Collections.<XPathIndexerProperties>emptyList() : matching;
+	}
+
+	private static List<XPathIndexerProperties> newProfiles(String... regexes) {
+		List<XPathIndexerProperties> profiles = new ArrayList<XPathIndexerProperties>();
+		for (String regex : Arrays.asList(regexes)) {
+			XPathIndexerProperties xPathIndexerProperties = new XPathIndexerProperties();
+			xPathIndexerProperties.setPageUrlFilterRegex(regex);
+			profiles.add(xPathIndexerProperties);
+		}
+		return profiles;
+	}
+}
@@ -0,0 +1,175 @@
+package com.atlantbh.nutch.filter.xpath.plan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.DomSerializer;
+import org.htmlcleaner.HtmlCleaner;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import com.atlantbh.nutch.filter.xpath.FilterUtils;
+import com.atlantbh.nutch.filter.xpath.config.DocumentSource;
+import com.atlantbh.nutch.filter.xpath.config.FieldType;
+import com.atlantbh.nutch.filter.xpath.config.XPathFilterConfiguration;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerProperties;
+import com.atlantbh.nutch.filter.xpath.config.XPathIndexerPropertiesField;
+
+/**
+ * Checks that a profile evaluated against the html parser document gives
+ * the same values as evaluated against the HtmlCleaner document, for the
+ * fragments built by Neko and by TagSoup.
+ */
+public class ParserDocumentNavigatorTest {
+
+	private static final String PAGE = "<html><head>"
+			+ "<title>Java developer - Example Jobs</title>"
+			+ "<meta name=\"description\" content=\"Senior Java developer in Sarajevo\">"
+			+ "</head><body>"
+			+ "<div class=\"job\"><h2>Java developer</h2>"
+			+ "<p>Build <b>search</b> and <i>indexing</i> services.</p></div>"
+			+ "<div class=\"company\"><h2>Example Company</h2></div>"
+			+ "<table><tr><th>Location</th><td>Sarajevo</td><td>Full time</td></tr>"
+			+ "<tr><th>Salary</th><td>Negotiable</td><td>Monthly</td></tr></table>"
+			+ "<a href=\"/jobs/42/apply\">Apply</a> <a HREF=\"/jobs/search?q=java\" class=\"more\">More <b>jobs</b></a>"
+			+ "<img src=\"/logo.png\" alt=\"Example Company\">"
+			+ "</body></html>";
+
+	private static final String[][] FIELDS = new String[][] {
+		{ "title", "/html/head/title" },
+		{ "description", "//meta[@name='description']/@content" },
+		{ "position", "//div[@class='job']/h2" },
+		{ "company", "//div[@class='company']/h2" },
+		{ "summary", "//div[@class='job']/p" },
+		{ "location", "//tr[th='Location']/td[1]" },
+		{ "cells", "//td[2]" },
+		{ "links", "//a/@href" },
+		{ "more", "//a[@class='more']" },
+		{ "logo", "//img/@alt" },
+		{ "paragraphs", "count(//p)" },
+		// Absolute expressions from an attribute context
+		{ "titledLinks", "//a/@href[/html/head/title]" },
+		{ "linksWithTitle", "//a/@href[string-length(/html/head/title) > 0]/../@class" }
+	};
+
+	private static XPathFilterPlan plan;
+	private static List<XPathIndexerPropertiesField> fields;
+	private static List<List<String>> cleanerValues;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		fields = new ArrayList<XPathIndexerPropertiesField>();
+		for (String[] field : FIELDS) {
+			XPathIndexerPropertiesField xPathIndexerPropertiesField = new XPathIndexerPropertiesField(field[0], field[1], FieldType.STRING);
+			xPathIndexerPropertiesField.setWithChildrenText(true);
+			fields.add(xPathIndexerPropertiesField);
+		}
+
+		plan = XPathFilterPlan.compile(new XPathFilterConfiguration(Arrays.asList(
+				newProfile("parser", DocumentSource.PARSER),
+				newProfile("cleaner", DocumentSource.CLEANER))));
+		assertEquals(0, plan.getErrorCount());
+
+		cleanerValues = evaluate(parseCleaner(PAGE), DocumentSource.CLEANER);
+	}
+
+	@Test
+	public void testNekoFragment() throws Exception {
+		assertSameAsCleaner(parseNeko(PAGE));
+	}
+
+	@Test
+	public void testTagSoupFragment() throws Exception {
+		assertSameAsCleaner(parseTagSoup(PAGE));
+	}
+
+	private static void assertSameAsCleaner(Node fragment) throws Exception {
+		List<List<String>> parserValues = evaluate(fragment, DocumentSource.PARSER);
+		for (int i = 0; i < FIELDS.length; i++) {
+			assertFalse(FIELDS[i][1] + " matched nothing", cleanerValues.get(i).isEmpty());
+			assertEquals(FIELDS[i][1], cleanerValues.get(i), parserValues.get(i));
+		}
+	}
+
+	private static List<List<String>> evaluate(Node document, DocumentSource source) throws Exception {
+		List<List<String>> values = new ArrayList<List<String>>();
+		for (XPathIndexerPropertiesField field : fields) {
+			List<String> fieldValues = new ArrayList<String>();
+			Object result = plan.getXPath(field.getXPath(), source).evaluate(document);
+			List<?> nodes = result instanceof List ? (List<?>) result : Arrays.asList(result);
+			for (Object node : nodes) {
+				fieldValues.add(FilterUtils.extractTextContentFromRawNode(node, field.getWithChildrenText()).trim());
+			}
+			values.add(fieldValues);
+		}
+		return values;
+	}
+
+	private static XPathIndexerProperties newProfile(String name, DocumentSource source) {
+		XPathIndexerProperties xPathIndexerProperties = new XPathIndexerProperties(fields);
+		xPathIndexerProperties.setName(name);
+		xPathIndexerProperties.setDocumentSource(source);
+		return xPathIndexerProperties;
+	}
+
+	/**
+	 * Same HtmlCleaner setup as the filter.
+	 */
+	private static Node parseCleaner(String page) throws Exception {
+		HtmlCleaner cleaner = new HtmlCleaner();
+		CleanerProperties props = cleaner.getProperties();
+		props.setAllowHtmlInsideAttributes(true);
+		props.setAllowMultiWordAttributes(true);
+		props.setRecognizeUnicodeChars(true);
+		props.setOmitComments(true);
+		props.setNamespacesAware(false);
+		return new DomSerializer(props).createDOM(cleaner.clean(new StringReader(page)));
+	}
+
+	/**
+	 * Upper case element names, like the Neko fragment of the html parser.
+	 */
+	private static Node parseNeko(String page) throws Exception {
+		DOMFragmentParser parser = new DOMFragmentParser();
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content", false);
+		parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment", true);
+		HTMLDocumentImpl doc = new HTMLDocumentImpl();
+		doc.setErrorChecking(false);
+		DocumentFragment fragment = doc.createDocumentFragment();
+		parser.parse(new InputSource(new StringReader(page)), fragment);
+		return fragment;
+	}
+
+	/**
+	 * Elements in the XHTML namespace, like the TagSoup fragment of the
+	 * html parser.
+	 */
+	private static Node parseTagSoup(String page) throws Exception {
+		HTMLDocumentImpl doc = new HTMLDocumentImpl();
+		DocumentFragment fragment = doc.createDocumentFragment();
+		TransformerHandler handler = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+		handler.setResult(new DOMResult(fragment));
+		org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
+		reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+		reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+		reader.setContentHandler(handler);
+		reader.parse(new InputSource(new StringReader(page)));
+		return fragment;
+	}
+}
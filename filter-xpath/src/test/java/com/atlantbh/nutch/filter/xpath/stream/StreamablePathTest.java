@@ -0,0 +1,162 @@
+package com.atlantbh.nutch.filter.xpath.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+
+import org.jaxen.dom.DOMXPath;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Checks that the nodes selected while streaming are the same as the ones
+ * selected by the xpath on the DOM of the document.
+ */
+public class StreamablePathTest {
+
+	private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+	private static final String NESTED = "<a><b attr=\"1\">x<b attr=\"2\">y</b></b><c><b attr=\"3\"/><a><b>z</b></a></c><b>w</b></a>";
+
+	private DocumentBuilder documentBuilder;
+	private XMLInputFactory xmlInputFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		// Same parsers as XPathHtmlParserFilter
+		documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		if (xmlInputFactory.isPropertySupported(REPORT_CDATA_PROPERTY))
+			xmlInputFactory.setProperty(REPORT_CDATA_PROPERTY, Boolean.TRUE);
+	}
+
+	@Test
+	public void testChildSteps() throws Exception {
+		checkSameAsDOM(NESTED, "/a/b", "/a/b/b", "/a/c/a/b", "/b", "/a/d");
+		checkSameAsDOM(getSampleFeed(), "/rss/channel/item", "/rss/channel/title", "/rss/channel/item/title", "/rss/channel/item/description", "/channel/item");
+	}
+
+	@Test
+	public void testDescendantSteps() throws Exception {
+		checkSameAsDOM(NESTED, "//b", "//a/b", "//a//b", "/a//b", "//c//b", "//b/b");
+		checkSameAsDOM(getSampleFeed(), "//title", "//item", "//category", "//item//category", "//channel/item/link", "//guid");
+	}
+
+	@Test
+	public void testAttributeSteps() throws Exception {
+		checkSameAsDOM(NESTED, "/a/b/@attr", "//b/@attr", "/a/b/b/@attr", "/a/b/@missing");
+		checkSameAsDOM(getSampleFeed(), "/rss/channel/item/link/@href", "/rss/channel/item/guid/@isPermaLink", "/rss/@version", "//enclosure/@url");
+	}
+
+	@Test
+	public void testParse() {
+		assertNotNull(StreamablePath.parse("/rss/channel/item"));
+		assertNotNull(StreamablePath.parse(" //item/title "));
+		assertEquals("url", StreamablePath.parse("//enclosure/@url").getAttributeName());
+		assertNull(StreamablePath.parse("//item/@href/title"));
+		assertNull(StreamablePath.parse("//@href"));
+		assertNull(StreamablePath.parse("item/title"));
+		assertNull(StreamablePath.parse("//item[1]/title"));
+		assertNull(StreamablePath.parse("//dc:creator"));
+		assertNull(StreamablePath.parse("//item/text()"));
+		assertNull(StreamablePath.parse("//item | //entry"));
+		assertNull(StreamablePath.parse("/"));
+	}
+
+	@Test
+	public void testIsLocal() {
+		assertTrue(StreamablePath.isLocal("title"));
+		assertTrue(StreamablePath.isLocal("./link/@href"));
+		assertTrue(StreamablePath.isLocal(".//category[1]"));
+		assertTrue(!StreamablePath.isLocal("/rss/channel/title"));
+		assertTrue(!StreamablePath.isLocal("../title"));
+		assertTrue(!StreamablePath.isLocal("following-sibling::item"));
+		assertTrue(!StreamablePath.isLocal("title[. = /rss/channel/title]"));
+	}
+
+	private void checkSameAsDOM(String xml, String... expressions) throws Exception {
+		Document document = documentBuilder.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		XmlStreamExtractor extractor = new XmlStreamExtractor(xmlInputFactory, documentBuilder.newDocument());
+		List<List<String>> streamedValues = new ArrayList<List<String>>();
+		for (String expression : expressions) {
+			StreamablePath path = StreamablePath.parse(expression);
+			assertNotNull(expression, path);
+			final List<String> values = new ArrayList<String>();
+			streamedValues.add(values);
+			extractor.addTarget(path, new XmlStreamHandler() {
+				public void handle(Node node) {
+					values.add(describe(node));
+				}
+			});
+		}
+		extractor.extract(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+		for (int i = 0; i < expressions.length; i++) {
+			List<String> domValues = new ArrayList<String>();
+			for (Object node : new DOMXPath(expressions[i]).selectNodes(document)) {
+				domValues.add(describe((Node) node));
+			}
+			assertEquals(expressions[i], domValues, streamedValues.get(i));
+		}
+	}
+
+	/**
+	 * Type, name, value, attributes and children of the node.
+	 */
+	private static String describe(Node node) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(node.getNodeType()).append(':').append(node.getNodeName());
+		if (node.getNodeValue() != null) {
+			sb.append('=').append(node.getNodeValue());
+		}
+
+		NamedNodeMap attributes = node.getAttributes();
+		if (attributes != null) {
+			Map<String, String> sortedAttributes = new TreeMap<String, String>();
+			for (int i = 0; i < attributes.getLength(); i++) {
+				sortedAttributes.put(attributes.item(i).getNodeName(), attributes.item(i).getNodeValue());
+			}
+			sb.append(sortedAttributes);
+		}
+
+		sb.append('(');
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			sb.append(describe(child));
+		}
+		return sb.append(')').toString();
+	}
+
+	private static String getSampleFeed() throws IOException {
+		InputStream inputStream = StreamablePathTest.class.getResourceAsStream("/sample-feed.xml");
+		try {
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+			return outputStream.toString("UTF-8");
+		} finally {
+			inputStream.close();
+		}
+	}
+}
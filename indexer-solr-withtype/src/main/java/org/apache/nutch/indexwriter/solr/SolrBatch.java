@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+/**
+ * Documents and deletes sent to Solr in a single update request. A batch
+ * can be sent several times, and split to find the commands Solr rejects.
+ */
+abstract class SolrBatch {
+
+    private Runnable sentListener;
+
+    /**
+     * Sets a listener run once the whole batch has been sent, it is not run
+     * if the batch is split.
+     */
+    void setSentListener(Runnable sentListener) {
+        this.sentListener = sentListener;
+    }
+
+    void sent() {
+        if (sentListener != null) {
+            sentListener.run();
+        }
+    }
+
+    abstract int getNumDocs();
+
+    abstract int getNumDeletes();
+
+    /**
+     * @return a new request sending the batch
+     */
+    abstract AbstractUpdateRequest toRequest() throws IOException;
+
+    /**
+     * Splits the batch in two, keeping the order of the commands.
+     * 
+     * @return the two halves, or null if the batch has a single command
+     */
+    abstract SolrBatch[] split();
+
+    /**
+     * @return the unique key of the document, or the id to delete, of a
+     *         batch with a single command
+     */
+    abstract String getId();
+
+    /**
+     * Batch of {@link SolrInputDocument}s and ids to delete, the deletes are
+     * run after the documents are added.
+     */
+    static SolrBatch of(List<SolrInputDocument> docs, List<String> deleteIds,
+            String uniqueKey, ModifiableSolrParams params) {
+        return new DocumentBatch(docs, deleteIds, uniqueKey, params);
+    }
+
+    private static class DocumentBatch extends SolrBatch {
+
+        private final List<SolrInputDocument> docs;
+        private final List<String> deleteIds;
+        private final String uniqueKey;
+        private final ModifiableSolrParams params;
+
+        DocumentBatch(List<SolrInputDocument> docs, List<String> deleteIds,
+                String uniqueKey, ModifiableSolrParams params) {
+            this.docs = docs;
+            this.deleteIds = deleteIds;
+            this.uniqueKey = uniqueKey;
+            this.params = params;
+        }
+
+        @Override
+        int getNumDocs() {
+            return docs.size();
+        }
+
+        @Override
+        int getNumDeletes() {
+            return deleteIds.size();
+        }
+
+        @Override
+        AbstractUpdateRequest toRequest() {
+            UpdateRequest req = new UpdateRequest();
+            if (!docs.isEmpty()) {
+                req.add(docs);
+            }
+            if (!deleteIds.isEmpty()) {
+                req.deleteById(deleteIds);
+            }
+            req.setParams(params);
+            return req;
+        }
+
+        @Override
+        SolrBatch[] split() {
+            List<SolrInputDocument> noDocs = Collections.emptyList();
+            List<String> noDeletes = Collections.emptyList();
+            int numDocs = docs.size();
+            int numDeletes = deleteIds.size();
+            if (numDocs > 1) {
+                return new SolrBatch[] {
+                        new DocumentBatch(docs.subList(0, numDocs / 2), noDeletes, uniqueKey, params),
+                        new DocumentBatch(docs.subList(numDocs / 2, numDocs), deleteIds, uniqueKey, params) };
+            } else if (numDocs == 1 && numDeletes > 0) {
+                return new SolrBatch[] {
+                        new DocumentBatch(docs, noDeletes, uniqueKey, params),
+                        new DocumentBatch(noDocs, deleteIds, uniqueKey, params) };
+            } else if (numDeletes > 1) {
+                return new SolrBatch[] {
+                        new DocumentBatch(noDocs, deleteIds.subList(0, numDeletes / 2), uniqueKey, params),
+                        new DocumentBatch(noDocs, deleteIds.subList(numDeletes / 2, numDeletes), uniqueKey, params) };
+            }
+            return null;
+        }
+
+        @Override
+        String getId() {
+            if (!docs.isEmpty()) {
+                SolrInputField field = docs.get(0).getField(uniqueKey);
+                return field == null ? null : String.valueOf(field.getValue());
+            }
+            return deleteIds.isEmpty() ? null : deleteIds.get(0);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the batches of a {@link SolrIndexWriter}.
+ * 
+ * Without sender threads the batches are sent on the calling thread, as
+ * before. Otherwise they are handed to a pool of sender threads and the
+ * calling thread only blocks when the maximum number of batches are
+ * already in flight. A failed batch is reported by the next call once
+ * every batch sent before it has completed, so that errors are always
+ * reported in the order of the batches, and at the latest by
+ * {@link #flush()}.
+ * 
+ * A batch failing because Solr can't be reached or has an internal error
+ * is sent again, after an exponential backoff with jitter, until the
+ * maximum number of retries. After consecutive failures, all the requests
+ * are paused by a {@link SolrCircuitBreaker}. A batch rejected by Solr (4xx
+ * status) is optionally split in halves until the rejected documents are
+ * found, and they are dropped.
+ */
+class SolrBatchSender {
+
+    public static final Logger LOG = LoggerFactory
+            .getLogger(SolrBatchSender.class);
+
+    private final SolrServer solr;
+    private final SolrWriterMetrics metrics;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final Deque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean splitRejected;
+    private final SolrCircuitBreaker circuitBreaker;
+
+    SolrBatchSender(SolrServer solr, Configuration conf,
+            SolrWriterMetrics metrics) {
+        this.solr = solr;
+        this.metrics = metrics;
+
+        int threads = conf.getInt(SolrConstants.ASYNC_THREADS, 0);
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads,
+                    new SenderThreadFactory());
+            inFlight = new Semaphore(Math.max(conf.getInt(
+                    SolrConstants.ASYNC_MAX_IN_FLIGHT, 2 * threads), 1));
+        } else {
+            executor = null;
+            inFlight = null;
+        }
+
+        maxRetries = conf.getInt(SolrConstants.RETRY_MAX, 0);
+        backoffMillis = Math.max(conf.getLong(SolrConstants.RETRY_BACKOFF, 1000L), 1L);
+        maxBackoffMillis = conf.getLong(SolrConstants.RETRY_BACKOFF_MAX, 60000L);
+        splitRejected = conf.getBoolean(SolrConstants.RETRY_SPLIT, false);
+        circuitBreaker = new SolrCircuitBreaker(conf.getInt(
+                SolrConstants.CIRCUIT_FAILURES, 0), conf.getLong(
+                SolrConstants.CIRCUIT_PAUSE, 30000L), metrics);
+    }
+
+    boolean isAsync() {
+        return executor != null;
+    }
+
+    /**
+     * Sends a batch, or queues it for the sender threads.
+     * 
+     * @throws IOException if this batch, or a batch sent before it, failed
+     */
+    void send(final SolrBatch batch) throws IOException {
+        if (executor == null) {
+            process(batch);
+            return;
+        }
+
+        checkCompleted(false);
+        long start = System.nanoTime();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        metrics.waited(System.nanoTime() - start);
+
+        metrics.batchQueued();
+        try {
+            pending.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    metrics.batchDequeued();
+                    try {
+                        process(batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }
+            }));
+        } catch (RuntimeException e) {
+            metrics.batchDequeued();
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every batch sent so far has completed.
+     * 
+     * @throws IOException the error of the first failed batch
+     */
+    void flush() throws IOException {
+        checkCompleted(true);
+    }
+
+    /**
+     * Flushes the batches and stops the sender threads.
+     */
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reports the completed batches in order, stopping at the first one
+     * still in flight unless waiting for all of them. Once a batch failed
+     * the following ones are still waited for, so that none is left in
+     * flight, but only the first error is reported.
+     */
+    private void checkCompleted(boolean waitAll) throws IOException {
+        IOException error = null;
+        while (!pending.isEmpty()) {
+            Future<Void> future = pending.peek();
+            if (!waitAll && !future.isDone()) {
+                break;
+            }
+            pending.poll();
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = toIOException(e.getCause());
+                    waitAll = true;
+                } else {
+                    LOG.error("Another batch failed: " + e.getCause());
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Sends a batch, splitting it if Solr rejects it.
+     */
+    private void process(SolrBatch batch) throws IOException {
+        try {
+            processWithRetries(batch);
+            batch.sent();
+        } catch (SolrException e) {
+            if (!splitRejected) {
+                throw e;
+            }
+            SolrBatch[] halves = batch.split();
+            if (halves == null) {
+                metrics.dropped(batch.getNumDocs(), batch.getNumDeletes());
+                LOG.warn("Dropping " + (batch.getNumDocs() > 0 ? "document " : "delete of ")
+                        + batch.getId() + " rejected by SOLR: " + e.getMessage());
+                return;
+            }
+            metrics.batchSplit();
+            for (SolrBatch half : halves) {
+                process(half);
+            }
+        }
+    }
+
+    /**
+     * Sends a batch, retrying on the errors of Solr or of the network.
+     * 
+     * @throws SolrException if Solr rejects the batch
+     */
+    private void processWithRetries(SolrBatch batch) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            try {
+                circuitBreaker.await();
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            }
+
+            Exception error;
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                batch.toRequest().process(solr);
+                failed = false;
+                circuitBreaker.success();
+                return;
+            } catch (SolrServerException e) {
+                error = e;
+            } catch (IOException e) {
+                error = e;
+            } catch (SolrException e) {
+                if (isRejected(e)) {
+                    // Solr is up and answering
+                    circuitBreaker.success();
+                    throw e;
+                }
+                error = e;
+            } finally {
+                metrics.batchSent(batch.getNumDocs(), batch.getNumDeletes(),
+                        System.nanoTime() - start, failed);
+            }
+
+            circuitBreaker.failure();
+            if (attempt >= maxRetries) {
+                LOG.error(error.getMessage());
+                throw toIOException(error);
+            }
+
+            long backoff = getBackoff(attempt);
+            LOG.warn("Sending to SOLR failed (" + error.getMessage()
+                    + "), retrying in " + backoff + " ms");
+            metrics.retried();
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            }
+        }
+    }
+
+    private static boolean isRejected(SolrException e) {
+        return e.code() >= 400 && e.code() < 500;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: between half and all of the
+     * exponential delay, capped.
+     */
+    private long getBackoff(int attempt) {
+        long delay = backoffMillis << Math.min(attempt, 20);
+        if (maxBackoffMillis > 0 && delay > maxBackoffMillis) {
+            delay = maxBackoffMillis;
+        }
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof SolrServerException) {
+            return SolrIndexWriter.makeIOException((SolrServerException) cause);
+        }
+        final IOException ioe = new IOException(cause.getMessage());
+        ioe.initCause(cause);
+        return ioe;
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        final InterruptedIOException ioe = new InterruptedIOException(
+                "Interrupted while sending to SOLR");
+        ioe.initCause(e);
+        return ioe;
+    }
+
+    private static class SenderThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL = new AtomicInteger();
+
+        private final int pool = POOL.incrementAndGet();
+        private final AtomicInteger thread = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread t = new Thread(runnable, "solr-sender-" + pool + "-"
+                    + thread.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pauses the requests to Solr after a number of consecutive failures.
+ * 
+ * Once paused, requests are sent again after the pause; the next failure
+ * pauses them again, until a request succeeds. Shared by the sender
+ * threads of a writer.
+ */
+class SolrCircuitBreaker {
+
+    public static final Logger LOG = LoggerFactory
+            .getLogger(SolrCircuitBreaker.class);
+
+    private final int maxFailures;
+    private final long pauseMillis;
+    private final SolrWriterMetrics metrics;
+
+    private int failures;
+    private long pausedUntil;
+
+    /**
+     * @param maxFailures number of consecutive failures pausing the requests,
+     *            0 to never pause them
+     * @param pauseMillis duration of a pause
+     */
+    SolrCircuitBreaker(int maxFailures, long pauseMillis,
+            SolrWriterMetrics metrics) {
+        this.maxFailures = maxFailures;
+        this.pauseMillis = pauseMillis;
+        this.metrics = metrics;
+    }
+
+    synchronized void success() {
+        failures = 0;
+    }
+
+    synchronized void failure() {
+        if (maxFailures <= 0) {
+            return;
+        }
+        failures++;
+        long now = System.currentTimeMillis();
+        if (failures >= maxFailures && now >= pausedUntil) {
+            pausedUntil = now + pauseMillis;
+            metrics.circuitOpened();
+            LOG.warn(failures + " consecutive SOLR failures, pausing requests for "
+                    + pauseMillis + " ms");
+        }
+    }
+
+    /**
+     * Blocks until requests can be sent.
+     */
+    void await() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long wait;
+        while ((wait = remaining()) > 0) {
+            Thread.sleep(wait);
+        }
+        long paused = System.currentTimeMillis() - start;
+        if (paused > 0) {
+            metrics.paused(paused);
+        }
+    }
+
+    private synchronized long remaining() {
+        return pausedUntil - System.currentTimeMillis();
+    }
+}
@@ -21,8 +21,24 @@ public interface SolrConstants {
 
   public static final String SERVER_URL = SOLR_PREFIX + "server.url";
 
+  public static final String ROUTE_FIELD = SOLR_PREFIX + "route.field";
+
   public static final String COMMIT_SIZE = SOLR_PREFIX + "commit.size";
 
+  public static final String DELETE_BATCH_SIZE = SOLR_PREFIX + "delete.batch.size";
+
+  public static final String DEDUP_BLOOM_SIZE = SOLR_PREFIX + "dedup.bloom.size";
+
+  public static final String DEDUP_BLOOM_FPP = SOLR_PREFIX + "dedup.bloom.fpp";
+
+  public static final String SKIP_UNCHANGED_DIR = SOLR_PREFIX + "skip.unchanged.dir";
+
+  public static final String SKIP_UNCHANGED_CAPACITY = SOLR_PREFIX + "skip.unchanged.capacity";
+
+  public static final String SKIP_UNCHANGED_EXCLUDE = SOLR_PREFIX + "skip.unchanged.exclude";
+
+  public static final String STREAM_MAX_BYTES = SOLR_PREFIX + "stream.max.bytes";
+
   public static final String MAPPING_FILE = SOLR_PREFIX + "mapping.file";
 
   public static final String USE_AUTH = SOLR_PREFIX + "auth";
@@ -30,6 +46,34 @@ public interface SolrConstants {
   public static final String USERNAME = SOLR_PREFIX + "auth.username";
 
   public static final String PASSWORD = SOLR_PREFIX + "auth.password";
+
+  public static final String HTTP_MAX_CONNECTIONS_PER_HOST = SOLR_PREFIX + "http.max.connections.per.host";
+
+  public static final String HTTP_MAX_CONNECTIONS = SOLR_PREFIX + "http.max.connections";
+
+  public static final String HTTP_CONNECT_TIMEOUT = SOLR_PREFIX + "http.connect.timeout.ms";
+
+  public static final String HTTP_SOCKET_TIMEOUT = SOLR_PREFIX + "http.socket.timeout.ms";
+
+  public static final String HTTP_IDLE_TIMEOUT = SOLR_PREFIX + "http.idle.timeout.ms";
+
+  public static final String HTTP_COMPRESSION = SOLR_PREFIX + "http.compression";
+
+  public static final String ASYNC_THREADS = SOLR_PREFIX + "async.threads";
+
+  public static final String ASYNC_MAX_IN_FLIGHT = SOLR_PREFIX + "async.max.inflight";
+
+  public static final String RETRY_MAX = SOLR_PREFIX + "retry.max";
+
+  public static final String RETRY_BACKOFF = SOLR_PREFIX + "retry.backoff.ms";
+
+  public static final String RETRY_BACKOFF_MAX = SOLR_PREFIX + "retry.backoff.max.ms";
+
+  public static final String RETRY_SPLIT = SOLR_PREFIX + "retry.split";
+
+  public static final String CIRCUIT_FAILURES = SOLR_PREFIX + "circuit.failures";
+
+  public static final String CIRCUIT_PAUSE = SOLR_PREFIX + "circuit.pause.ms";
   
   @Deprecated
   public static final String COMMIT_INDEX = SOLR_PREFIX + "commit.index";
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Digests of the documents last indexed, by hash of their unique key, in a
+ * memory-mapped hash table kept between jobs.
+ * 
+ * The file starts with a header (magic, version, capacity, count) followed
+ * by slots of a key hash and a digest, found by linear probing. A removed
+ * document keeps its slot with a 0 digest. Once the table is three
+ * quarters full new keys are no longer stored, and their documents are
+ * always sent. A lost or reset store only causes documents to be sent
+ * again.
+ * 
+ * Each reduce partition has its own store in a directory shared by the
+ * tasks, named after the index, the number of partitions and the
+ * partition, so that a document is always checked against the store its
+ * digest was last written to. A task works on a local copy and writes it
+ * back when closed, the shared store is not locked: of two attempts of
+ * the same task, the last one closed wins. Changing the number of
+ * partitions removes the stores of the previous number. The stores don't know about
+ * the changes made to the index by other means: the directory must be
+ * wiped when the index is rebuilt, emptied or written by other jobs.
+ */
+class SolrDigestStore {
+
+    public static final Logger LOG = LoggerFactory
+            .getLogger(SolrDigestStore.class);
+
+    private static final int MAGIC = 0x534f4447;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 16;
+    private static final int COUNT_OFFSET = 12;
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int maxCount;
+    private int count;
+    private boolean full;
+
+    // keys with updates waiting for their batch to be sent, and their number
+    private final Map<Long, Integer> pendingKeys = new HashMap<Long, Integer>();
+
+    // copy of the store in the shared directory, null if the store is only local
+    private Path sharedPath;
+    private Configuration conf;
+
+    /**
+     * Copies the store of a reduce partition from a shared directory to a
+     * local file and opens it. The store is written back by
+     * {@link #close()}.
+     * 
+     * @param dir directory of the stores, on a file system shared by the
+     *            tasks
+     * @param index name of the index
+     * @param capacity number of slots of a new store
+     */
+    static SolrDigestStore load(Path dir, String index, int partitions,
+            int partition, Configuration conf, int capacity) throws IOException {
+        FileSystem fs = dir.getFileSystem(conf);
+        String prefix = "digests-" + index + "-";
+        String name = prefix + partitions + "-" + partition;
+
+        // the documents went to other partitions since these stores were written
+        FileStatus[] stores = fs.exists(dir) ? fs.listStatus(dir) : null;
+        if (stores != null) {
+            for (FileStatus store : stores) {
+                String storeName = store.getPath().getName();
+                if (storeName.startsWith(prefix)
+                        && !storeName.startsWith(prefix + partitions + "-")) {
+                    LOG.info("Removing digest store " + store.getPath()
+                            + " of another number of partitions");
+                    fs.delete(store.getPath(), false);
+                }
+            }
+        }
+
+        Path sharedPath = new Path(dir, name);
+        File file = File.createTempFile(name + "-", null);
+        if (fs.exists(sharedPath)) {
+            IOUtils.copyBytes(fs.open(sharedPath), new FileOutputStream(file),
+                    64 * 1024, true);
+        }
+        SolrDigestStore store;
+        try {
+            store = open(file, capacity);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        store.sharedPath = sharedPath;
+        store.conf = conf;
+        return store;
+    }
+
+    /**
+     * Opens the store of a local file, creating the file if needed.
+     * 
+     * @param capacity number of slots of a new file, rounded up to a power
+     *            of two, an existing file keeps its own
+     */
+    static SolrDigestStore open(File file, int capacity) throws IOException {
+        return new SolrDigestStore(file, capacity);
+    }
+
+    private SolrDigestStore(File file, int requestedCapacity) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        boolean opened = false;
+        try {
+            channel = raf.getChannel();
+
+            int existingCapacity = 0;
+            if (raf.length() >= HEADER_SIZE) {
+                int magic = raf.readInt();
+                int version = raf.readInt();
+                int fileCapacity = raf.readInt();
+                if (magic == MAGIC && version == VERSION
+                        && Integer.bitCount(fileCapacity) == 1
+                        && fileCapacity <= MAX_CAPACITY
+                        && raf.length() == HEADER_SIZE + (long) fileCapacity * SLOT_SIZE) {
+                    existingCapacity = fileCapacity;
+                } else {
+                    LOG.warn("Resetting invalid digest store " + file);
+                }
+            }
+
+            capacity = existingCapacity > 0 ? existingCapacity
+                    : Integer.highestOneBit(Math.max(Math.min(requestedCapacity, MAX_CAPACITY) - 1, 1) << 1);
+            long size = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+            if (existingCapacity == 0) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (existingCapacity == 0) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, capacity);
+                buffer.putInt(COUNT_OFFSET, 0);
+            }
+            count = buffer.getInt(COUNT_OFFSET);
+            maxCount = capacity / 4 * 3;
+            opened = true;
+        } finally {
+            // the file stays open until the store is closed
+            if (!opened) {
+                raf.close();
+            }
+        }
+        LOG.info("Digest store " + file + ": " + count + " documents, capacity " + capacity);
+    }
+
+    /**
+     * @return the digest of a document, or 0 if unknown
+     */
+    synchronized long get(long key) {
+        int slot = find(key);
+        return slot < 0 ? 0 : buffer.getLong(slotOffset(slot) + 8);
+    }
+
+    /**
+     * @return true if the digest of the document is the stored one and no
+     *         update of the document is waiting to be sent, a document
+     *         written again with its previous content is not skipped
+     */
+    synchronized boolean isUnchanged(long key, long digest) {
+        return !pendingKeys.containsKey(Long.valueOf(key)) && get(key) == digest;
+    }
+
+    /**
+     * @param digest digest of the document, 0 to remove it
+     */
+    synchronized void put(long key, long digest) {
+        int slot = find(key);
+        if (slot < 0) {
+            if (digest == 0) {
+                return;
+            }
+            if (count >= maxCount) {
+                if (!full) {
+                    LOG.warn("Digest store " + file + " is full, new documents will always be sent");
+                    full = true;
+                }
+                return;
+            }
+            slot = -slot - 1;
+            buffer.putLong(slotOffset(slot), key);
+            buffer.putInt(COUNT_OFFSET, ++count);
+        }
+        buffer.putLong(slotOffset(slot) + 8, digest);
+    }
+
+    synchronized void remove(long key) {
+        put(key, 0L);
+    }
+
+    /**
+     * Writes the changes to the file.
+     */
+    synchronized void flush() {
+        buffer.force();
+    }
+
+    /**
+     * Writes the changes to the file and closes it. A store loaded from a
+     * shared directory is written back, and its local copy deleted.
+     */
+    synchronized void close() throws IOException {
+        try {
+            buffer.force();
+        } finally {
+            channel.close();
+        }
+        if (sharedPath == null) {
+            return;
+        }
+
+        try {
+            // written next to the store then renamed, so that the store is
+            // never left half written
+            FileSystem fs = sharedPath.getFileSystem(conf);
+            Path tmp = sharedPath.suffix("." + conf.get("mapred.task.id", "tmp"));
+            IOUtils.copyBytes(new FileInputStream(file), fs.create(tmp, true),
+                    64 * 1024, true);
+            if (fs.exists(sharedPath)) {
+                fs.delete(sharedPath, false);
+            }
+            if (!fs.rename(tmp, sharedPath)) {
+                throw new IOException("Can't rename " + tmp + " to " + sharedPath);
+            }
+            LOG.info("Digest store " + sharedPath + ": " + count + " documents");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void addPending(long key) {
+        Long pendingKey = Long.valueOf(key);
+        Integer updates = pendingKeys.get(pendingKey);
+        pendingKeys.put(pendingKey, Integer.valueOf(updates == null ? 1 : updates.intValue() + 1));
+    }
+
+    private void removePending(long key) {
+        Long pendingKey = Long.valueOf(key);
+        Integer updates = pendingKeys.get(pendingKey);
+        if (updates == null || updates.intValue() <= 1) {
+            pendingKeys.remove(pendingKey);
+        } else {
+            pendingKeys.put(pendingKey, Integer.valueOf(updates.intValue() - 1));
+        }
+    }
+
+    /**
+     * Digests of the documents of a batch, stored once the batch is sent. A
+     * 0 digest removes the document. Until then the documents are pending
+     * and never skipped as unchanged, nor are they after a batch that is
+     * not stored.
+     */
+    static class Updates {
+
+        private final SolrDigestStore store;
+        private long[] keys = new long[64];
+        private long[] digests = new long[64];
+        private int size;
+
+        Updates(SolrDigestStore store) {
+            this.store = store;
+        }
+
+        void add(long key, long digest) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                digests = Arrays.copyOf(digests, size * 2);
+            }
+            keys[size] = key;
+            digests[size] = digest;
+            size++;
+            synchronized (store) {
+                store.addPending(key);
+            }
+        }
+
+        void apply() {
+            synchronized (store) {
+                for (int i = 0; i < size; i++) {
+                    store.put(keys[i], digests[i]);
+                    store.removePending(keys[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the slot of the key, or -(empty slot) - 1 if not found
+     */
+    private int find(long key) {
+        int mask = capacity - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (true) {
+            long slotKey = buffer.getLong(slotOffset(slot));
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == 0) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+/**
+ * 64 bits MD5 digests of unique keys and of Solr documents, for the
+ * {@link SolrDigestStore}. The digest of a document covers the names and
+ * values of its fields, in name order, except the excluded fields; the
+ * boosts are left out. Never returns 0, the empty value of the store. Not
+ * thread safe.
+ */
+class SolrDigester {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MessageDigest md5;
+    private final Set<String> excludedFields;
+    private final List<String> names = new ArrayList<String>();
+
+    SolrDigester(String[] excludedFields) {
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        this.excludedFields = excludedFields == null ? Collections.<String> emptySet()
+                : new HashSet<String>(Arrays.asList(excludedFields));
+    }
+
+    long digestKey(String id) {
+        md5.update(id.getBytes(UTF8));
+        return toLong(md5.digest());
+    }
+
+    long digest(SolrInputDocument doc) {
+        names.clear();
+        for (String name : doc.getFieldNames()) {
+            if (!excludedFields.contains(name)) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+
+        for (String name : names) {
+            md5.update(name.getBytes(UTF8));
+            md5.update((byte) 0);
+            SolrInputField field = doc.getField(name);
+            for (Object value : field.getValues()) {
+                md5.update(String.valueOf(value).getBytes(UTF8));
+                md5.update((byte) 0);
+            }
+            md5.update((byte) 1);
+        }
+        return toLong(md5.digest());
+    }
+
+    private static long toLong(byte[] digest) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (digest[i] & 0xff);
+        }
+        return value == 0 ? 1 : value;
+    }
+}
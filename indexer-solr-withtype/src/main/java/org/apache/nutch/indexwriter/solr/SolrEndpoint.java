@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Solr server the {@link SolrIndexWriter} sends documents to, with its
+ * own buffer of documents and deletes, and its own
+ * {@link SolrBatchSender}.
+ * 
+ * A document whose unique key is already in the buffer replaces the
+ * buffered one. With {@link SolrSentIds}, a document whose unique key was
+ * already sent by the task is dropped.
+ */
+class SolrEndpoint {
+
+    public static final Logger LOG = LoggerFactory
+            .getLogger(SolrEndpoint.class);
+
+    private final String name;
+    private final SolrServer solr;
+    private final SolrBatchSender sender;
+    private final SolrMappingReader solrMapping;
+    private final ModifiableSolrParams params;
+    private final SolrWriterMetrics metrics;
+    private final SolrSentIds sentIds;
+    private final SolrDigestStore digestStore;
+
+    // digests of the buffered documents
+    private SolrDigestStore.Updates digestUpdates;
+
+    private final List<SolrInputDocument> inputDocs = new ArrayList<SolrInputDocument>();
+
+    // position of each unique key in inputDocs
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    // ids to delete, sent with the next batch of documents
+    private final Set<String> deleteIds = new LinkedHashSet<String>();
+
+    // documents and deletes serialized as they arrive, in streaming mode
+    private SolrUpdateStream stream;
+    private final int streamMaxBytes;
+
+    private final int batchSize;
+    private final int deleteBatchSize;
+
+    SolrEndpoint(String name, SolrServer solr, Configuration conf,
+            SolrMappingReader solrMapping, ModifiableSolrParams params,
+            SolrWriterMetrics metrics, SolrSentIds sentIds,
+            SolrDigestStore digestStore) {
+        this.name = name;
+        this.solr = solr;
+        this.solrMapping = solrMapping;
+        this.params = params;
+        this.metrics = metrics;
+        this.sentIds = sentIds;
+        this.digestStore = digestStore;
+        sender = new SolrBatchSender(solr, conf, metrics);
+        batchSize = conf.getInt(SolrConstants.COMMIT_SIZE, 1000);
+        deleteBatchSize = conf.getInt(SolrConstants.DELETE_BATCH_SIZE, batchSize);
+        streamMaxBytes = conf.getInt(SolrConstants.STREAM_MAX_BYTES, 0);
+        stream = streamMaxBytes > 0 ? newUpdateStream() : null;
+    }
+
+    /**
+     * @param digestKey digest of the unique key of the document, 0 if the
+     *            digest of the document is not stored
+     * @param digest digest of the document, stored once it is sent
+     */
+    void add(SolrInputDocument inputDoc, long digestKey, long digest)
+            throws IOException {
+        SolrInputField idField = inputDoc.getField(solrMapping.getUniqueKey());
+        String id = idField == null || idField.getValue() == null ? null
+                : idField.getValue().toString();
+
+        // the documents of previous batches are checked once the document
+        // is not in the current one
+        if (id != null && sentIds != null
+                && !(stream != null ? stream.contains(id) : positions.containsKey(id))
+                && sentIds.checkAndAdd(id)) {
+            metrics.duplicateDropped();
+            return;
+        }
+
+        if (digestStore != null && digestKey != 0) {
+            if (digestUpdates == null) {
+                digestUpdates = new SolrDigestStore.Updates(digestStore);
+            }
+            digestUpdates.add(digestKey, digest);
+        }
+
+        if (stream != null) {
+            if (stream.add(inputDoc)) {
+                metrics.duplicateReplaced();
+            }
+            if (stream.size() >= streamMaxBytes) {
+                sendBatch();
+            }
+            return;
+        }
+
+        if (id == null) {
+            inputDocs.add(inputDoc);
+        } else {
+            Integer position = positions.get(id);
+            if (position != null) {
+                inputDocs.set(position.intValue(), inputDoc);
+                metrics.duplicateReplaced();
+            } else {
+                positions.put(id, Integer.valueOf(inputDocs.size()));
+                inputDocs.add(inputDoc);
+            }
+
+            // Solr runs the deletes of a request after its adds, a pending
+            // delete of the document would remove it again
+            if (!deleteIds.isEmpty()) {
+                deleteIds.remove(id);
+            }
+        }
+
+        if (inputDocs.size() >= batchSize) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * @param digestKey digest of the id, 0 if the digests are not stored
+     */
+    void delete(String id, long digestKey) throws IOException {
+        // also removed once sent, after the documents sent before it
+        if (digestStore != null && digestKey != 0) {
+            if (digestUpdates == null) {
+                digestUpdates = new SolrDigestStore.Updates(digestStore);
+            }
+            digestUpdates.add(digestKey, 0L);
+        }
+
+        if (stream != null) {
+            stream.delete(id);
+            if (stream.size() >= streamMaxBytes) {
+                sendBatch();
+            }
+            return;
+        }
+
+        deleteIds.add(id);
+        if (deleteIds.size() >= deleteBatchSize) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Sends the buffered documents and deletes in a single request.
+     */
+    private void sendBatch() throws IOException {
+        final SolrDigestStore.Updates updates = digestUpdates;
+        digestUpdates = null;
+        Runnable sentListener = updates == null ? null : new Runnable() {
+            @Override
+            public void run() {
+                updates.apply();
+            }
+        };
+
+        if (stream != null) {
+            LOG.info(name + ": indexing " + Integer.toString(stream.getNumDocs())
+                    + " documents, deleting "
+                    + Integer.toString(stream.getNumDeletes())
+                    + " documents, " + Integer.toString(stream.size())
+                    + " bytes");
+
+            // the stream is reused once sent, unless sent by another thread
+            SolrUpdateStream sent = stream;
+            if (sender.isAsync()) {
+                stream = newUpdateStream();
+            }
+            try {
+                SolrBatch batch = sent.toBatch(params);
+                batch.setSentListener(sentListener);
+                sender.send(batch);
+            } finally {
+                if (!sender.isAsync()) {
+                    sent.reset();
+                }
+            }
+            return;
+        }
+
+        LOG.info(name + ": indexing " + Integer.toString(inputDocs.size())
+                + " documents");
+        LOG.info(name + ": deleting " + Integer.toString(deleteIds.size())
+                + " documents");
+
+        // the batch holds its own copy of the documents and ids
+        SolrBatch batch = SolrBatch.of(
+                new ArrayList<SolrInputDocument>(inputDocs),
+                new ArrayList<String>(deleteIds), solrMapping.getUniqueKey(),
+                params);
+        batch.setSentListener(sentListener);
+        inputDocs.clear();
+        positions.clear();
+        deleteIds.clear();
+        sender.send(batch);
+    }
+
+    private SolrUpdateStream newUpdateStream() {
+        return new SolrUpdateStream(Math.min(streamMaxBytes, 64 * 1024),
+                solrMapping.getUniqueKey());
+    }
+
+    /**
+     * Sends the rest of the documents and deletes, and waits for the
+     * batches in flight.
+     */
+    void close() throws IOException {
+        try {
+            if (!inputDocs.isEmpty() || !deleteIds.isEmpty()
+                    || (stream != null && !stream.isEmpty())) {
+                sendBatch();
+            }
+        } finally {
+            // waits for the batches in flight and reports their first error
+            sender.close();
+        }
+    }
+
+    void commit() throws IOException {
+        sender.flush();
+        try {
+            solr.commit();
+        } catch (SolrServerException e) {
+            throw SolrIndexWriter.makeIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
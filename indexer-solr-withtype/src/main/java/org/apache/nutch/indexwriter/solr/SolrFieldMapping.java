@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.text.ParseException;
+import java.util.Date;
+
+import org.apache.solr.common.util.DateUtil;
+
+import com.ibm.icu.text.SimpleDateFormat;
+
+/**
+ * Mapping of a Nutch field to Solr, resolved once from the
+ * {@link SolrMappingReader}: the Solr field, the optional copy field and
+ * the conversion of the string values to the type of the field.
+ */
+public class SolrFieldMapping {
+
+  private final String dest;
+  private final String copyDest;
+  private final Converter converter;
+
+  SolrFieldMapping(String dest, String copyDest, Converter converter) {
+    this.dest = dest;
+    this.copyDest = copyDest;
+    this.converter = converter;
+  }
+
+  /**
+   * @return name of the Solr field
+   */
+  public String getDest() {
+    return dest;
+  }
+
+  /**
+   * @return name of the Solr field the values are copied to, or null
+   */
+  public String getCopyDest() {
+    return copyDest;
+  }
+
+  /**
+   * Converts a string value to the type of the field, other values are
+   * returned as is.
+   * 
+   * @throws NumberFormatException if a numeric value can't be parsed
+   */
+  public Object convert(Object value) {
+    if (!(value instanceof String)) {
+      return value;
+    }
+    return converter.convert((String) value);
+  }
+
+  /**
+   * @return the converter of the type, or null if the type is not supported
+   */
+  static Converter getConverter(String type) {
+    switch (type) {
+    case SolrMappingReader.STRING:
+      return STRING;
+    case SolrMappingReader.INT:
+      return INT;
+    case SolrMappingReader.LONG:
+      return LONG;
+    case SolrMappingReader.DOUBLE:
+      return DOUBLE;
+    case SolrMappingReader.FLOAT:
+      return FLOAT;
+    case SolrMappingReader.BOOLEAN:
+      return BOOLEAN;
+    case SolrMappingReader.DATE:
+      return DATE;
+    default:
+      return null;
+    }
+  }
+
+  static abstract class Converter {
+    abstract Object convert(String value);
+  }
+
+  static final Converter STRING = new Converter() {
+    Object convert(String value) {
+      return value;
+    }
+  };
+
+  private static final Converter INT = new Converter() {
+    Object convert(String value) {
+      return Integer.valueOf(value);
+    }
+  };
+
+  private static final Converter LONG = new Converter() {
+    Object convert(String value) {
+      return Long.valueOf(value);
+    }
+  };
+
+  private static final Converter DOUBLE = new Converter() {
+    Object convert(String value) {
+      return Double.valueOf(value);
+    }
+  };
+
+  private static final Converter FLOAT = new Converter() {
+    Object convert(String value) {
+      return Float.valueOf(value);
+    }
+  };
+
+  private static final Converter BOOLEAN = new Converter() {
+    Object convert(String value) {
+      return Boolean.valueOf(value);
+    }
+  };
+
+  /**
+   * Dates are read as dd.MM.yyyy and formatted for Solr, unparseable
+   * dates are set to 1. January 1970. The formats are not thread safe,
+   * each thread has its own.
+   */
+  private static final Converter DATE = new Converter() {
+    private final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+      @Override
+      protected SimpleDateFormat initialValue() {
+        return new SimpleDateFormat("dd.MM.yyyy");
+      }
+    };
+
+    Object convert(String value) {
+      try {
+        return DateUtil.getThreadLocalDateFormat().format(dateFormat.get().parseObject(value));
+      } catch (ParseException e) {
+        return new Date(0);
+      }
+    }
+  };
+}
@@ -17,15 +17,12 @@
 package org.apache.nutch.indexwriter.solr;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.nutch.indexer.IndexWriter;
@@ -35,45 +32,48 @@ import org.apache.nutch.indexer.NutchField;
 import org.apache.nutch.util.StringUtil;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
-import org.apache.solr.common.util.DateUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ibm.icu.text.SimpleDateFormat;
-
 public class SolrIndexWriter implements IndexWriter {
 
     public static final Logger LOG = LoggerFactory
             .getLogger(SolrIndexWriter.class);
 
-    private SolrServer solr;
+    private SolrEndpoint[] endpoints;
+    private final SolrWriterMetrics metrics = new SolrWriterMetrics();
     private SolrMappingReader solrMapping;
     private ModifiableSolrParams params;
 
-    private Configuration config;
+    // Solr field routing the documents, when there are several endpoints
+    private String routeField;
 
-    private final List<SolrInputDocument> inputDocs = new ArrayList<SolrInputDocument>();
+    // digests of the documents last indexed, to skip the unchanged ones
+    private SolrDigestStore digestStore;
+    private SolrDigester digester;
+
+    private Configuration config;
 
-    private int batchSize;
-    private int numDeletes = 0;
     private boolean delete = false;
 
-    private SimpleDateFormat pdf = new SimpleDateFormat("dd-MM-yyyy");
-    
     public void open(JobConf job, String name) throws IOException {
-        SolrServer server = SolrUtils.getCommonsHttpSolrServer(job);
-        init(server, job);
+        List<CommonsHttpSolrServer> servers = SolrUtils.getCommonsHttpSolrServers(job);
+        init(servers, job);
     }
 
     // package protected for tests
     void init(SolrServer server, JobConf job) throws IOException {
-        solr = server;
-        batchSize = job.getInt(SolrConstants.COMMIT_SIZE, 1000);
+        init(Collections.singletonList(server), job);
+    }
+
+    // package protected for tests
+    void init(List<? extends SolrServer> servers, JobConf job) throws IOException {
         solrMapping = SolrMappingReader.getInstance(job);
         delete = job.getBoolean(IndexerMapReduce.INDEXER_DELETE, false);
+        routeField = job.get(SolrConstants.ROUTE_FIELD, solrMapping.getUniqueKey());
         // parse optional params
         params = new ModifiableSolrParams();
         String paramString = job.get(IndexerMapReduce.INDEXER_PARAMS);
@@ -87,15 +87,55 @@ public class SolrIndexWriter implements IndexWriter {
                 params.add(kv[0], kv[1]);
             }
         }
+
+        SolrSentIds sentIds = null;
+        int expectedIds = job.getInt(SolrConstants.DEDUP_BLOOM_SIZE, 0);
+        if (expectedIds > 0) {
+            sentIds = new SolrSentIds(expectedIds, job.getFloat(
+                    SolrConstants.DEDUP_BLOOM_FPP, 0.0001f));
+        }
+
+        String digestDir = job.get(SolrConstants.SKIP_UNCHANGED_DIR);
+        if (digestDir != null) {
+            // one store per index and reduce partition, the index is named
+            // after its servers and unique key
+            String index = job.get(SolrConstants.SERVER_URL) + " " + solrMapping.getUniqueKey();
+            digestStore = SolrDigestStore.load(new Path(digestDir),
+                    MD5Hash.digest(index).toString(), job.getNumReduceTasks(),
+                    job.getInt("mapred.task.partition", 0), job, job.getInt(
+                            SolrConstants.SKIP_UNCHANGED_CAPACITY, 1 << 20));
+            digester = new SolrDigester(job.getStrings(
+                    SolrConstants.SKIP_UNCHANGED_EXCLUDE, "tstamp"));
+        }
+
+        endpoints = new SolrEndpoint[servers.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            SolrServer server = servers.get(i);
+            String name = server instanceof CommonsHttpSolrServer ? ((CommonsHttpSolrServer) server)
+                    .getBaseURL() : "SOLR " + i;
+            endpoints[i] = new SolrEndpoint(name, server, job, solrMapping,
+                    params, metrics, sentIds, digestStore);
+        }
+        if (endpoints.length > 1) {
+            LOG.info("Routing documents to " + endpoints.length
+                    + " SOLR endpoints by " + routeField);
+        }
     }
 
     public void delete(String key) throws IOException {
         if (delete) {
-            try {
-                solr.deleteById(key);
-                numDeletes++;
-            } catch (final SolrServerException e) {
-                throw makeIOException(e);
+            long digestKey = 0;
+            if (digestStore != null) {
+                digestKey = digester.digestKey(key);
+                digestStore.remove(digestKey);
+            }
+            if (routeField.equals(solrMapping.getUniqueKey())) {
+                route(key).delete(key, digestKey);
+            } else {
+                // the endpoint of the document is not known
+                for (SolrEndpoint endpoint : endpoints) {
+                    endpoint.delete(key, digestKey);
+                }
             }
         }
     }
@@ -108,32 +148,14 @@ public class SolrIndexWriter implements IndexWriter {
     public void write(NutchDocument doc) throws IOException {
         final SolrInputDocument inputDoc = new SolrInputDocument();
         for (final Entry<String, NutchField> e : doc) {
+            SolrFieldMapping mapping = solrMapping.getFieldMapping(e.getKey());
+            float weight = e.getValue().getWeight();
             for (final Object val : e.getValue().getValues()) {
-                // normalise the string representation for a Date
-                Object val2 = val;
+                Object castedValue = mapping.convert(val);
+                inputDoc.addField(mapping.getDest(), castedValue, weight);
 
-                if (val instanceof Date) {
-                    val2 = DateUtil.getThreadLocalDateFormat().format(val);
-                }
-
-                if (e.getKey().equals("content") || e.getKey().equals("title")) {
-                    val2 = SolrUtils.stripNonCharCodepoints((String) val);
-                }
-               
-                String key = solrMapping.mapKey(e.getKey());
-                
-                String type = solrMapping.mapType(e.getKey());
-                
-                	Object castedValue = castString(type, val);
-                		
-                	inputDoc.addField(solrMapping.mapKey(e.getKey()), castedValue, e
-                        .getValue().getWeight());
-                /*	if(LOG.isDebugEnabled())
-                	 LOG.debug("adding solr field : "+solrMapping.mapKey(e.getKey())+" "+castedValue.toString().trim().replaceAll("\\n", "").substring(0,Math.min(castedValue.toString().length(),50))+ " "+e.getValue().getWeight());
-                */	 
-                
-                String sCopy = solrMapping.mapCopyKey(e.getKey());
-                if (sCopy != e.getKey()) {
+                String sCopy = mapping.getCopyDest();
+                if (sCopy != null) {
                     inputDoc.addField(sCopy, castedValue);
                     if(LOG.isDebugEnabled())
                     	LOG.debug("adding solr field : "+sCopy+" "+castedValue);
@@ -142,137 +164,88 @@ public class SolrIndexWriter implements IndexWriter {
         }
         LOG.debug("Next doc");
         inputDoc.setDocumentBoost(doc.getWeight());
-        inputDocs.add(inputDoc);
-        if (inputDocs.size() + numDeletes >= batchSize) {
-            try {
-                LOG.info("Indexing " + Integer.toString(inputDocs.size())
-                        + " documents");
-                LOG.info("Deleting " + Integer.toString(numDeletes)
-                        + " documents");
-                
-                numDeletes = 0;
-                
-                UpdateRequest req = new UpdateRequest();
-                req.add(inputDocs);
-                req.setParams(params);
-                
-                LOG.info(req.toString());
-                
-                req.process(solr);
-                
-            } catch (final SolrServerException e) {
-            	LOG.error(e.getMessage());
-                throw makeIOException(e);
+
+        long digestKey = 0;
+        long digest = 0;
+        if (digestStore != null) {
+            Object id = inputDoc.getFieldValue(solrMapping.getUniqueKey());
+            if (id != null) {
+                digestKey = digester.digestKey(id.toString());
+                digest = digester.digest(inputDoc);
+                if (digestStore.isUnchanged(digestKey, digest)) {
+                    metrics.unchangedSkipped();
+                    return;
+                }
             }
-            inputDocs.clear();
         }
+
+        SolrEndpoint endpoint = endpoints[0];
+        if (endpoints.length > 1) {
+            Object routeValue = inputDoc.getFieldValue(routeField);
+            endpoint = route(routeValue == null ? null : routeValue.toString());
+        }
+        endpoint.add(inputDoc, digestKey, digest);
     }
-    
-    private Object castString(String type,Object object){
-    	
-    	if(!(object instanceof String))
-    		return object;
-    	
-    	String value = (String)object;
-    	Object castedValue = null;
-    	switch(type) {
-		case SolrMappingReader.STRING:
-			castedValue = value;
-			break;
-		case SolrMappingReader.INT:
-			castedValue = Integer.valueOf(value);
-			break;
-		case SolrMappingReader.LONG:
-			castedValue = Long.valueOf(value);
-			break;
-		case SolrMappingReader.DOUBLE:
-			castedValue = Double.valueOf(value);
-			break;
-		case SolrMappingReader.FLOAT:
-			castedValue = Float.valueOf(value);
-			break;
-		case SolrMappingReader.BOOLEAN:
-			castedValue = Boolean.valueOf(value);
-			break;
-		
-		case SolrMappingReader.DATE:
-			
-			// Create SimpleDateFormat object to parse string
-			//String dateFormat = xPathIndexerPropertiesField.getDateFormat() == null?"dd.MM.yyyy":xPathIndexerPropertiesField.getDateFormat();
-			
-			SimpleDateFormat simpleDateFormat = new SimpleDateFormat("dd.MM.yyyy");
-			
-			// If not parseable set the date: 1. January 1970.
-			try {
-				castedValue = simpleDateFormat.parseObject(value);
-				castedValue = DateUtil.getThreadLocalDateFormat().format(castedValue);
-				
-			} catch (ParseException e) {
-				castedValue = new Date(0);
-			} 
-			
-			break;
-			//transfer outlinkMetas
-		
-		default:
-			LOG.warn(String.format("Type '%s' not supported, value will be interpreted as String", type));
-			castedValue = value;
-			break;
-	} 
-    	
-    	return castedValue;
-    	
+
+    /**
+     * Endpoint of a value of the route field, by hash. String hash codes
+     * are specified, so a value always goes to the same endpoint as long
+     * as the list of endpoints doesn't change.
+     */
+    private SolrEndpoint route(String value) {
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        int hash = value == null ? 0 : value.hashCode();
+        return endpoints[(hash & Integer.MAX_VALUE) % endpoints.length];
     }
 
     public void close() throws IOException {
+        IOException error = null;
         try {
-            if (!inputDocs.isEmpty()) {
-                LOG.info("Indexing " + Integer.toString(inputDocs.size())
-                        + " documents");
-                if(LOG.isDebugEnabled()){
-                	String key = solrMapping.mapKey("url");
-                	Set<String> set = new HashSet<String>();
-                	for (SolrInputDocument doc : inputDocs) {
-                		String url= doc.getField(key).getValue().toString();
-                		String id = doc.getField("id").getValue().toString();
-                		String sn = doc.getField("societyname_t")!=null?doc.getField("societyname_t").getValue().toString():"No society";
-						LOG.debug(sn+ " "+url +" "+ id);
-						
-						if(!set.add(doc.getField("id").getValue().toString())){
-							LOG.debug("allready present");
-						};
-					}
-                	LOG.debug("found "+set.size()+" distinct docs");
-                	
+            // every endpoint is closed, the first error is reported
+            for (SolrEndpoint endpoint : endpoints) {
+                try {
+                    endpoint.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        LOG.error(endpoint + ": " + e);
+                    }
                 }
-                if (numDeletes > 0) {
-                	
-                    LOG.info("Deleting " + Integer.toString(numDeletes)
-                            + " documents");
+            }
+        } finally {
+            LOG.info("SOLR requests: " + metrics);
+        }
+        if (digestStore != null) {
+            // only the digests of the batches sent were stored
+            try {
+                digestStore.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    LOG.error("Digest store: " + e);
                 }
-                UpdateRequest req = new UpdateRequest();
-                req.add(inputDocs);
-                req.setParams(params);
-                //LOG.info(req.toString());
-                req.process(solr);
-                inputDocs.clear();
             }
-        } catch (final SolrServerException e) {
-        //	e.printStackTrace();
-        	LOG.error(e.getMessage());
-            throw makeIOException(e);
+        }
+        if (error != null) {
+            throw error;
         }
     }
 
     @Override
     public void commit() throws IOException {
-        try {
-            solr.commit();
-        } catch (SolrServerException e) {
-            throw makeIOException(e);
+        for (SolrEndpoint endpoint : endpoints) {
+            endpoint.commit();
         }
     }
 
+    SolrWriterMetrics getMetrics() {
+        return metrics;
+    }
+
     public static IOException makeIOException(SolrServerException e) {
         final IOException ioe = new IOException();
         ioe.initCause(e);
@@ -299,13 +272,35 @@ public class SolrIndexWriter implements IndexWriter {
 
     public String describe(){
     	StringBuffer sb = new StringBuffer("SOLRIndexWriter\n");
-    	sb.append("\t").append(SolrConstants.SERVER_URL).append(" : URL of the SOLR instance (mandatory)\n");
+    	sb.append("\t").append(SolrConstants.SERVER_URL).append(" : URL of the SOLR instance, or comma separated URLs of several instances (mandatory)\n");
+    	sb.append("\t").append(SolrConstants.ROUTE_FIELD).append(" : SOLR field whose value hash selects the instance of a document (default the unique key)\n");
     	sb.append("\t").append(SolrConstants.COMMIT_SIZE).append(" : buffer size when sending to SOLR (default 1000)\n");
+    	sb.append("\t").append(SolrConstants.DELETE_BATCH_SIZE).append(" : number of deletes buffered before sending them, with the buffered documents (default ").append(SolrConstants.COMMIT_SIZE).append(")\n");
+    	sb.append("\t").append(SolrConstants.DEDUP_BLOOM_SIZE).append(" : if set, documents whose unique key was already sent by the task are dropped, the keys are kept in a bloom filter sized for this number of keys (default 0, disabled)\n");
+    	sb.append("\t").append(SolrConstants.DEDUP_BLOOM_FPP).append(" : probability that a document never sent is dropped (default 0.0001)\n");
+    	sb.append("\t").append(SolrConstants.SKIP_UNCHANGED_DIR).append(" : if set, directory of the digests of the documents last indexed, on a file system shared by the tasks, unchanged documents are not sent again; wipe it when the index is rebuilt or written by other jobs (default none)\n");
+    	sb.append("\t").append(SolrConstants.SKIP_UNCHANGED_CAPACITY).append(" : number of documents of a new digest file, 16 bytes each (default 1048576)\n");
+    	sb.append("\t").append(SolrConstants.SKIP_UNCHANGED_EXCLUDE).append(" : comma separated SOLR fields left out of the digests (default tstamp)\n");
+    	sb.append("\t").append(SolrConstants.STREAM_MAX_BYTES).append(" : if set, documents are serialized as they arrive and sent once their size reaches this number of bytes, instead of ").append(SolrConstants.COMMIT_SIZE).append(" (default 0, disabled)\n");
     	sb.append("\t").append(SolrConstants.MAPPING_FILE).append(" : name of the mapping file for fields (default solrindex-mapping.xml)\n");
     	sb.append("\t").append(SolrConstants.USE_AUTH).append(" : use authentication (default false)\n");
     	sb.append("\t").append(SolrConstants.USERNAME).append(" : use authentication (default false)\n");
     	sb.append("\t").append(SolrConstants.USE_AUTH).append(" : username for authentication\n");
     	sb.append("\t").append(SolrConstants.PASSWORD).append(" : password for authentication\n");
+    	sb.append("\t").append(SolrConstants.HTTP_MAX_CONNECTIONS_PER_HOST).append(" : maximum number of connections to a SOLR host, shared by the writers of the JVM (default 32)\n");
+    	sb.append("\t").append(SolrConstants.HTTP_MAX_CONNECTIONS).append(" : maximum number of connections (default 128)\n");
+    	sb.append("\t").append(SolrConstants.HTTP_CONNECT_TIMEOUT).append(" : connection timeout in ms (default 10000)\n");
+    	sb.append("\t").append(SolrConstants.HTTP_SOCKET_TIMEOUT).append(" : read timeout in ms, 0 for none (default 120000)\n");
+    	sb.append("\t").append(SolrConstants.HTTP_IDLE_TIMEOUT).append(" : time in ms an unused connection is kept open for the next requests (default 60000)\n");
+    	sb.append("\t").append(SolrConstants.HTTP_COMPRESSION).append(" : ask SOLR for gzip compressed responses (default false)\n");
+    	sb.append("\t").append(SolrConstants.ASYNC_THREADS).append(" : number of threads sending the batches, 0 to send them from the indexing thread (default 0)\n");
+    	sb.append("\t").append(SolrConstants.ASYNC_MAX_IN_FLIGHT).append(" : maximum number of batches queued or being sent before indexing blocks (default 2 * threads)\n");
+    	sb.append("\t").append(SolrConstants.RETRY_MAX).append(" : number of times a batch is sent again when SOLR can't be reached or fails (default 0)\n");
+    	sb.append("\t").append(SolrConstants.RETRY_BACKOFF).append(" : delay before the first retry, doubled for each retry, with jitter (default 1000)\n");
+    	sb.append("\t").append(SolrConstants.RETRY_BACKOFF_MAX).append(" : maximum delay between retries (default 60000)\n");
+    	sb.append("\t").append(SolrConstants.RETRY_SPLIT).append(" : split the batches rejected by SOLR to drop only the rejected documents (default false)\n");
+    	sb.append("\t").append(SolrConstants.CIRCUIT_FAILURES).append(" : number of consecutive failures pausing the requests, 0 to never pause them (default 0)\n");
+    	sb.append("\t").append(SolrConstants.CIRCUIT_PAUSE).append(" : duration of the pause in ms (default 30000)\n");
     	return sb.toString();
     }
     
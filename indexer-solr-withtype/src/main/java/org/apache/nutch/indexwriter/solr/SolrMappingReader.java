@@ -21,6 +21,8 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -45,6 +47,7 @@ public class SolrMappingReader {
   private Map<String, String> typesMap = new HashMap<String, String>();
   private Map<String, String> copyMap = new HashMap<String, String>();
   private String uniqueKey = "id";
+  private ConcurrentMap<String, SolrFieldMapping> fieldMappings = new ConcurrentHashMap<String, SolrFieldMapping>();
   
   public static final String STRING="STRING";
   public static final String DATE="DATE";
@@ -159,4 +162,25 @@ public class SolrMappingReader {
     }
     return key;
   }
+
+  /**
+   * Returns the mapping of a Nutch field, resolved on first use and cached.
+   */
+  public SolrFieldMapping getFieldMapping(String key) throws IOException {
+    SolrFieldMapping mapping = fieldMappings.get(key);
+    if (mapping == null) {
+      String type = mapType(key);
+      SolrFieldMapping.Converter converter = SolrFieldMapping.getConverter(type);
+      if (converter == null) {
+        LOG.warn(String.format("Type '%s' of field '%s' not supported, values will be interpreted as String", type, key));
+        converter = SolrFieldMapping.STRING;
+      }
+      mapping = new SolrFieldMapping(mapKey(key), copyMap.get(key), converter);
+      SolrFieldMapping previous = fieldMappings.putIfAbsent(key, mapping);
+      if (previous != null) {
+        mapping = previous;
+      }
+    }
+    return mapping;
+  }
 }
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+/**
+ * Unique keys of the documents already sent by a task, in a bloom filter.
+ * A key never sent is reported as sent with the configured false positive
+ * probability, while the number of keys stays below the expected one.
+ */
+class SolrSentIds {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final BloomFilter filter;
+
+    /**
+     * @param expectedIds number of keys the filter is sized for
+     * @param falsePositiveProbability probability that a key never sent is
+     *            reported as sent
+     */
+    SolrSentIds(int expectedIds, double falsePositiveProbability) {
+        double ln2 = Math.log(2);
+        int vectorSize = (int) Math.ceil(-expectedIds
+                * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        int nbHash = Math.max(1,
+                (int) Math.round((double) vectorSize / expectedIds * ln2));
+        filter = new BloomFilter(vectorSize, nbHash, Hash.MURMUR_HASH);
+    }
+
+    /**
+     * Adds a key, unless it was probably added before.
+     * 
+     * @return true if the key was probably added before
+     */
+    boolean checkAndAdd(String id) {
+        Key key = new Key(id.getBytes(UTF8));
+        if (filter.membershipTest(key)) {
+            return true;
+        }
+        filter.add(key);
+        return false;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.ContentStreamUpdateRequest;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.ContentStreamBase;
+import org.apache.solr.common.util.XML;
+
+/**
+ * Body of an XML update request, written as the documents and deletes
+ * arrive. Each document is serialized when added, so only its bytes are
+ * kept until the request is sent, and the commands keep their order. A
+ * document added again replaces the previous one, whose bytes are left
+ * out of the request.
+ */
+class SolrUpdateStream {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String UPDATE_PATH = "/update";
+    private static final String CONTENT_TYPE = "application/xml; charset=UTF-8";
+
+    // The commands are wrapped in a single root element
+    private static final byte[] START = "<update>".getBytes(UTF8);
+    private static final byte[] END = "</update>".getBytes(UTF8);
+
+    private final String uniqueKey;
+    private final UpdateBuffer buffer;
+    private final Writer writer;
+
+    // end offset, id and kind of each command, to split the body
+    private int numCommands;
+    private int[] ends = new int[16];
+    private String[] ids = new String[16];
+    private boolean[] deletes = new boolean[16];
+    private boolean[] replaced = new boolean[16];
+    private int numDeletes;
+    private int numReplaced;
+
+    // command of each document id
+    private final Map<String, Integer> positions = new HashMap<String, Integer>();
+
+    SolrUpdateStream(int initialSize, String uniqueKey) {
+        this.uniqueKey = uniqueKey;
+        buffer = new UpdateBuffer(initialSize);
+        writer = new OutputStreamWriter(buffer, UTF8);
+    }
+
+    /**
+     * @return true if the document replaces a document of the stream
+     */
+    boolean add(SolrInputDocument doc) throws IOException {
+        writer.write("<add>");
+        ClientUtils.writeXML(doc, writer);
+        writer.write("</add>");
+        writer.flush();
+
+        SolrInputField idField = doc.getField(uniqueKey);
+        String id = idField == null || idField.getValue() == null ? null : idField.getValue().toString();
+        addCommand(id, false);
+        if (id == null) {
+            return false;
+        }
+
+        Integer previous = positions.put(id, Integer.valueOf(numCommands - 1));
+        if (previous != null) {
+            replaced[previous.intValue()] = true;
+            numReplaced++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a document with this id was added to the stream
+     */
+    boolean contains(String id) {
+        return positions.containsKey(id);
+    }
+
+    void delete(String id) throws IOException {
+        writer.write("<delete><id>");
+        XML.escapeCharData(id, writer);
+        writer.write("</id></delete>");
+        writer.flush();
+
+        addCommand(id, true);
+        numDeletes++;
+    }
+
+    private void addCommand(String id, boolean delete) {
+        if (numCommands == ends.length) {
+            ends = Arrays.copyOf(ends, numCommands * 2);
+            ids = Arrays.copyOf(ids, numCommands * 2);
+            deletes = Arrays.copyOf(deletes, numCommands * 2);
+            replaced = Arrays.copyOf(replaced, numCommands * 2);
+        }
+        ends[numCommands] = buffer.size();
+        ids[numCommands] = id;
+        deletes[numCommands] = delete;
+        numCommands++;
+    }
+
+    boolean isEmpty() {
+        return numCommands == 0;
+    }
+
+    int getNumDocs() {
+        return numCommands - numDeletes - numReplaced;
+    }
+
+    int getNumDeletes() {
+        return numDeletes;
+    }
+
+    /**
+     * @return size of the body written so far, in bytes
+     */
+    int size() {
+        return buffer.size();
+    }
+
+    /**
+     * Returns a batch sending the commands written so far. The stream must
+     * not be written to or reset until the batch has been sent.
+     */
+    SolrBatch toBatch(ModifiableSolrParams params) {
+        return new StreamBatch(buffer.getBytes(), params, 0, numCommands);
+    }
+
+    /**
+     * Clears the stream, keeping its buffer for the next request.
+     */
+    void reset() {
+        buffer.reset();
+        Arrays.fill(ids, 0, numCommands, null);
+        Arrays.fill(replaced, 0, numCommands, false);
+        positions.clear();
+        numCommands = 0;
+        numDeletes = 0;
+        numReplaced = 0;
+    }
+
+    /**
+     * Commands from, inclusive, to, exclusive, of the stream, without the
+     * replaced documents.
+     */
+    private class StreamBatch extends SolrBatch {
+
+        private final byte[] bytes;
+        private final ModifiableSolrParams params;
+        private final int from;
+        private final int to;
+        private final int numDocs;
+        private final int numDeletes;
+
+        StreamBatch(byte[] bytes, ModifiableSolrParams params, int from, int to) {
+            this.bytes = bytes;
+            this.params = params;
+            this.from = from;
+            this.to = to;
+            int docCount = 0;
+            int deleteCount = 0;
+            for (int i = from; i < to; i++) {
+                if (deletes[i]) {
+                    deleteCount++;
+                } else if (!replaced[i]) {
+                    docCount++;
+                }
+            }
+            this.numDocs = docCount;
+            this.numDeletes = deleteCount;
+        }
+
+        @Override
+        int getNumDocs() {
+            return numDocs;
+        }
+
+        @Override
+        int getNumDeletes() {
+            return numDeletes;
+        }
+
+        @Override
+        AbstractUpdateRequest toRequest() {
+            // ranges of consecutive commands to send, as offset, length
+            final List<int[]> ranges = new ArrayList<int[]>();
+            long size = START.length + END.length;
+            int start = -1;
+            for (int i = from; i <= to; i++) {
+                boolean sent = i < to && !replaced[i];
+                if (sent && start < 0) {
+                    start = i == 0 ? 0 : ends[i - 1];
+                } else if (!sent && start >= 0) {
+                    int end = ends[i - 1];
+                    ranges.add(new int[] {start, end - start});
+                    size += end - start;
+                    start = -1;
+                }
+            }
+            final long length = size;
+
+            ContentStreamUpdateRequest req = new ContentStreamUpdateRequest(
+                    UPDATE_PATH);
+            req.addContentStream(new ContentStreamBase() {
+                {
+                    setContentType(CONTENT_TYPE);
+                    setSize(Long.valueOf(length));
+                }
+
+                @Override
+                public InputStream getStream() {
+                    List<InputStream> parts = new ArrayList<InputStream>(ranges.size() + 2);
+                    parts.add(new ByteArrayInputStream(START));
+                    for (int[] range : ranges) {
+                        parts.add(new ByteArrayInputStream(bytes, range[0], range[1]));
+                    }
+                    parts.add(new ByteArrayInputStream(END));
+                    return new SequenceInputStream(Collections.enumeration(parts));
+                }
+            });
+            req.setParams(params);
+            return req;
+        }
+
+        @Override
+        SolrBatch[] split() {
+            if (to - from < 2) {
+                return null;
+            }
+            int middle = (from + to) >>> 1;
+            return new SolrBatch[] {
+                    new StreamBatch(bytes, params, from, middle),
+                    new StreamBatch(bytes, params, middle, to) };
+        }
+
+        @Override
+        String getId() {
+            return ids[from];
+        }
+    }
+
+    /**
+     * Gives access to its bytes without copying them.
+     */
+    private static class UpdateBuffer extends ByteArrayOutputStream {
+
+        UpdateBuffer(int size) {
+            super(size);
+        }
+
+        byte[] getBytes() {
+            return buf;
+        }
+    }
+}
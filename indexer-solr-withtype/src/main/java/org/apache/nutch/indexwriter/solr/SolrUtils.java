@@ -17,22 +17,61 @@
 package org.apache.nutch.indexwriter.solr;
 
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
 
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SolrUtils {
 
   public static Logger LOG = LoggerFactory.getLogger(SolrUtils.class);
 
+  // Pool of the connections of all the writers of the JVM
+  private static MultiThreadedHttpConnectionManager connectionManager;
+  private static IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+
   public static CommonsHttpSolrServer getCommonsHttpSolrServer(JobConf job) throws MalformedURLException {
-    HttpClient client=new HttpClient();
+    String serverURL = job.get(SolrConstants.SERVER_URL);
+    
+    return createServer(serverURL, createHttpClient(job), job);
+  }
+
+  /**
+   * Returns a server for each of the comma separated urls of
+   * {@link SolrConstants#SERVER_URL}, sharing their http connections.
+   */
+  public static List<CommonsHttpSolrServer> getCommonsHttpSolrServers(JobConf job) throws MalformedURLException {
+    HttpClient client = createHttpClient(job);
+    List<CommonsHttpSolrServer> servers = new ArrayList<CommonsHttpSolrServer>();
+    for (String serverURL : job.getStrings(SolrConstants.SERVER_URL)) {
+      servers.add(createServer(serverURL.trim(), client, job));
+    }
+    return servers;
+  }
+
+  private static CommonsHttpSolrServer createServer(String serverURL, HttpClient client, JobConf job) throws MalformedURLException {
+    CommonsHttpSolrServer server = new CommonsHttpSolrServer(serverURL, client);
+    // Compressed responses, solrj can't compress the requests
+    server.setAllowCompression(job.getBoolean(SolrConstants.HTTP_COMPRESSION, false));
+    return server;
+  }
+
+  /**
+   * Returns a client of the connection pool. Each writer has its own
+   * client, for its credentials, and the connections are shared.
+   */
+  private static HttpClient createHttpClient(JobConf job) {
+    HttpClient client=new HttpClient(getConnectionManager(job));
 
     // Check for username/password
     if (job.getBoolean(SolrConstants.USE_AUTH, false)) {
@@ -50,9 +89,39 @@ public class SolrUtils {
       client.setParams(params);
     }
 
-    String serverURL = job.get(SolrConstants.SERVER_URL);
-    
-    return new CommonsHttpSolrServer(serverURL, client);
+    return client;
+  }
+
+  /**
+   * Returns the connection pool, created with the settings of the first
+   * writer of the JVM. Idle connections are kept open for the next
+   * requests, until the idle timeout.
+   */
+  static synchronized MultiThreadedHttpConnectionManager getConnectionManager(JobConf job) {
+    if (connectionManager == null) {
+      HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+      params.setDefaultMaxConnectionsPerHost(job.getInt(SolrConstants.HTTP_MAX_CONNECTIONS_PER_HOST, 32));
+      params.setMaxTotalConnections(job.getInt(SolrConstants.HTTP_MAX_CONNECTIONS, 128));
+      params.setConnectionTimeout(job.getInt(SolrConstants.HTTP_CONNECT_TIMEOUT, 10000));
+      params.setSoTimeout(job.getInt(SolrConstants.HTTP_SOCKET_TIMEOUT, 120000));
+      params.setStaleCheckingEnabled(true);
+      params.setTcpNoDelay(true);
+
+      connectionManager = new MultiThreadedHttpConnectionManager();
+      connectionManager.setParams(params);
+
+      long idleTimeout = job.getLong(SolrConstants.HTTP_IDLE_TIMEOUT, 60000L);
+      if (idleTimeout > 0) {
+        idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+        idleConnectionTimeoutThread.setName("solr-idle-connections");
+        idleConnectionTimeoutThread.setDaemon(true);
+        idleConnectionTimeoutThread.setConnectionTimeout(idleTimeout);
+        idleConnectionTimeoutThread.setTimeoutInterval(Math.max(idleTimeout / 2, 1000L));
+        idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+        idleConnectionTimeoutThread.start();
+      }
+    }
+    return connectionManager;
   }
 
   public static String stripNonCharCodepoints(String input) {
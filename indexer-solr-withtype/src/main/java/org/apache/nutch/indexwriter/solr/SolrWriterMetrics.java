@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the requests sent to Solr by a {@link SolrIndexWriter}. They
+ * are updated by the sender threads and logged when the writer is closed.
+ */
+public class SolrWriterMetrics {
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong unchangedSkipped = new AtomicLong();
+    private final AtomicLong duplicatesReplaced = new AtomicLong();
+    private final AtomicLong duplicatesDropped = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong splits = new AtomicLong();
+    private final AtomicLong droppedDocuments = new AtomicLong();
+    private final AtomicLong droppedDeletes = new AtomicLong();
+    private final AtomicLong circuitOpenings = new AtomicLong();
+    private final AtomicLong pausedMillis = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    void batchQueued() {
+        updateMax(maxQueueDepth, queueDepth.incrementAndGet());
+    }
+
+    void batchDequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    /**
+     * Time the indexing thread was blocked because too many batches were in
+     * flight.
+     */
+    void waited(long nanos) {
+        waitNanos.addAndGet(nanos);
+    }
+
+    void batchSent(int numDocs, int numDeletes, long nanos, boolean failed) {
+        batches.incrementAndGet();
+        documents.addAndGet(numDocs);
+        deletes.addAndGet(numDeletes);
+        if (failed) {
+            failedBatches.incrementAndGet();
+        }
+        sendNanos.addAndGet(nanos);
+        updateMax(maxSendNanos, nanos);
+    }
+
+    /**
+     * A document was not sent, it is the same as when last indexed.
+     */
+    void unchangedSkipped() {
+        unchangedSkipped.incrementAndGet();
+    }
+
+    /**
+     * A document replaced a document of the same batch.
+     */
+    void duplicateReplaced() {
+        duplicatesReplaced.incrementAndGet();
+    }
+
+    /**
+     * A document was dropped, a document with the same key was already sent.
+     */
+    void duplicateDropped() {
+        duplicatesDropped.incrementAndGet();
+    }
+
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    void batchSplit() {
+        splits.incrementAndGet();
+    }
+
+    void dropped(int numDocs, int numDeletes) {
+        droppedDocuments.addAndGet(numDocs);
+        droppedDeletes.addAndGet(numDeletes);
+    }
+
+    void circuitOpened() {
+        circuitOpenings.incrementAndGet();
+    }
+
+    void paused(long millis) {
+        pausedMillis.addAndGet(millis);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getDeletes() {
+        return deletes.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    public long getUnchangedSkipped() {
+        return unchangedSkipped.get();
+    }
+
+    public long getDuplicatesReplaced() {
+        return duplicatesReplaced.get();
+    }
+
+    public long getDuplicatesDropped() {
+        return duplicatesDropped.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public long getSplits() {
+        return splits.get();
+    }
+
+    public long getDroppedDocuments() {
+        return droppedDocuments.get();
+    }
+
+    public long getDroppedDeletes() {
+        return droppedDeletes.get();
+    }
+
+    public long getCircuitOpenings() {
+        return circuitOpenings.get();
+    }
+
+    public long getPausedMillis() {
+        return pausedMillis.get();
+    }
+
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getMeanSendMillis() {
+        long count = batches.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(sendNanos.get() / count);
+    }
+
+    public long getMaxSendMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxSendNanos.get());
+    }
+
+    public long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "batches=" + getBatches() + " documents=" + getDocuments()
+                + " deletes=" + getDeletes() + " unchangedSkipped="
+                + getUnchangedSkipped() + " duplicatesReplaced="
+                + getDuplicatesReplaced() + " duplicatesDropped="
+                + getDuplicatesDropped() + " failed=" + getFailedBatches()
+                + " retries=" + getRetries() + " splits=" + getSplits()
+                + " droppedDocs=" + getDroppedDocuments() + " droppedDeletes="
+                + getDroppedDeletes() + " circuitOpenings="
+                + getCircuitOpenings() + " pausedMs=" + getPausedMillis()
+                + " meanSendMs=" + getMeanSendMillis() + " maxSendMs="
+                + getMaxSendMillis() + " maxQueueDepth=" + getMaxQueueDepth()
+                + " waitMs=" + getWaitMillis();
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the retries, the splitting of rejected batches and the circuit
+ * breaker of {@link SolrBatchSender} against a Solr server failing on
+ * purpose.
+ */
+public class SolrBatchSenderTest {
+
+    private static final String POISON = "poison";
+
+    private StubSolrServer solr;
+    private Configuration conf;
+    private SolrWriterMetrics metrics;
+    private AtomicInteger sentListenerRuns;
+
+    @Before
+    public void setUp() {
+        solr = new StubSolrServer();
+        conf = new Configuration();
+        conf.setLong(SolrConstants.RETRY_BACKOFF, 1L);
+        conf.setLong(SolrConstants.RETRY_BACKOFF_MAX, 4L);
+        metrics = new SolrWriterMetrics();
+        sentListenerRuns = new AtomicInteger();
+    }
+
+    @Test
+    public void testRetriesUntilSent() throws Exception {
+        conf.setInt(SolrConstants.RETRY_MAX, 3);
+        solr.unreachable = 2;
+        solr.internalErrors = 1;
+
+        send(newBatch(ids("a", "b", "c"), ids("d")));
+
+        assertEquals(4, solr.requests.get());
+        assertEquals(3, metrics.getRetries());
+        assertEquals(3, metrics.getFailedBatches());
+        assertEquals(4, metrics.getBatches());
+        assertEquals(ids("a", "b", "c"), solr.added);
+        assertEquals(ids("d"), solr.deleted);
+        assertEquals(1, sentListenerRuns.get());
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        conf.setInt(SolrConstants.RETRY_MAX, 2);
+        solr.internalErrors = Integer.MAX_VALUE;
+
+        try {
+            send(newBatch(ids("a", "b"), ids()));
+            fail("Sent although Solr always fails");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof SolrException);
+        }
+
+        assertEquals(3, solr.requests.get());
+        assertEquals(2, metrics.getRetries());
+        assertEquals(3, metrics.getFailedBatches());
+        assertEquals(0, metrics.getDroppedDocuments());
+        assertEquals(0, sentListenerRuns.get());
+    }
+
+    @Test
+    public void testNoRetryWhenRejected() throws Exception {
+        conf.setInt(SolrConstants.RETRY_MAX, 3);
+
+        try {
+            send(newBatch(ids("a", POISON, "b"), ids()));
+            fail("Sent although Solr rejects the batch");
+        } catch (SolrException e) {
+            assertEquals(400, e.code());
+        }
+
+        assertEquals(1, solr.requests.get());
+        assertEquals(0, metrics.getRetries());
+        assertEquals(0, metrics.getSplits());
+        assertEquals(ids(), solr.added);
+    }
+
+    @Test
+    public void testSplitIsolatesRejectedDocument() throws Exception {
+        conf.setBoolean(SolrConstants.RETRY_SPLIT, true);
+
+        send(newBatch(ids("a", "b", "c", "d", "e", POISON, "f", "g"), ids("x", "y")));
+
+        // Only the rejected document is dropped, the others are sent in order
+        assertEquals(ids("a", "b", "c", "d", "e", "f", "g"), solr.added);
+        assertEquals(ids("x", "y"), solr.deleted);
+        assertEquals(1, metrics.getDroppedDocuments());
+        assertEquals(0, metrics.getDroppedDeletes());
+        assertEquals(3, metrics.getSplits());
+        assertEquals(0, metrics.getRetries());
+        // The digests of a split batch are not stored
+        assertEquals(0, sentListenerRuns.get());
+    }
+
+    @Test
+    public void testSplitIsolatesRejectedDelete() throws Exception {
+        conf.setBoolean(SolrConstants.RETRY_SPLIT, true);
+
+        send(newBatch(ids("a"), ids("x", POISON, "y")));
+
+        assertEquals(ids("a"), solr.added);
+        assertEquals(ids("x", "y"), solr.deleted);
+        assertEquals(0, metrics.getDroppedDocuments());
+        assertEquals(1, metrics.getDroppedDeletes());
+    }
+
+    @Test
+    public void testSplitRetriesHalves() throws Exception {
+        conf.setBoolean(SolrConstants.RETRY_SPLIT, true);
+        conf.setInt(SolrConstants.RETRY_MAX, 1);
+        // The first half fails once after the batch was rejected
+        solr.unreachableAfterRejection = 1;
+
+        send(newBatch(ids("a", "b", POISON, "c"), ids()));
+
+        assertEquals(ids("a", "b", "c"), solr.added);
+        assertEquals(1, metrics.getDroppedDocuments());
+        assertEquals(1, metrics.getRetries());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        conf.setInt(SolrConstants.RETRY_MAX, 5);
+        conf.setInt(SolrConstants.CIRCUIT_FAILURES, 2);
+        conf.setLong(SolrConstants.CIRCUIT_PAUSE, 50L);
+        solr.unreachable = 3;
+
+        send(newBatch(ids("a"), ids()));
+
+        // Paused after the second failure, and again after the third one
+        assertEquals(2, metrics.getCircuitOpenings());
+        assertTrue(metrics.getPausedMillis() >= 50);
+        assertEquals(3, metrics.getRetries());
+        assertEquals(ids("a"), solr.added);
+    }
+
+    @Test
+    public void testCircuitBreakerClosedByRejection() throws Exception {
+        conf.setInt(SolrConstants.RETRY_MAX, 1);
+        conf.setInt(SolrConstants.CIRCUIT_FAILURES, 2);
+        conf.setLong(SolrConstants.CIRCUIT_PAUSE, 60000L);
+        conf.setBoolean(SolrConstants.RETRY_SPLIT, true);
+        SolrBatchSender sender = new SolrBatchSender(solr, conf, metrics);
+
+        // A single failure, then Solr answers
+        solr.unreachable = 1;
+        sender.send(newBatch(ids(POISON), ids()));
+        solr.unreachable = 1;
+        sender.send(newBatch(ids("a"), ids()));
+        sender.close();
+
+        assertEquals(0, metrics.getCircuitOpenings());
+        assertEquals(ids("a"), solr.added);
+    }
+
+    @Test
+    public void testAsyncReportsFirstError() throws Exception {
+        conf.setInt(SolrConstants.ASYNC_THREADS, 2);
+        conf.setInt(SolrConstants.RETRY_MAX, 1);
+        SolrBatchSender sender = new SolrBatchSender(solr, conf, metrics);
+        assertTrue(sender.isAsync());
+
+        solr.unreachable = 1;
+        sender.send(newBatch(ids("a"), ids()));
+        sender.send(newBatch(ids("b", POISON), ids()));
+        sender.send(newBatch(ids("c"), ids()));
+        try {
+            sender.close();
+            fail("Closed although a batch was rejected");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof SolrException);
+        }
+
+        // Every batch completed, the failed one was retried
+        assertEquals(Arrays.asList("a", "c"), sortedCopy(solr.added));
+        assertEquals(1, metrics.getRetries());
+        assertEquals(0, metrics.getQueueDepth());
+    }
+
+    private void send(SolrBatch batch) throws IOException {
+        SolrBatchSender sender = new SolrBatchSender(solr, conf, metrics);
+        try {
+            sender.send(batch);
+        } finally {
+            sender.close();
+        }
+    }
+
+    private SolrBatch newBatch(List<String> docIds, List<String> deleteIds) {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (String id : docIds) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField("id", id);
+            doc.addField("title", "Title of " + id);
+            docs.add(doc);
+        }
+        SolrBatch batch = SolrBatch.of(docs, deleteIds, "id",
+                new ModifiableSolrParams());
+        batch.setSentListener(new Runnable() {
+            @Override
+            public void run() {
+                sentListenerRuns.incrementAndGet();
+            }
+        });
+        return batch;
+    }
+
+    private static List<String> ids(String... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static List<String> sortedCopy(List<String> ids) {
+        List<String> sorted = new ArrayList<String>(ids);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Fails the first requests, as configured, and rejects the requests
+     * with the poison document or delete.
+     */
+    private static class StubSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        final AtomicInteger requests = new AtomicInteger();
+        final List<String> added = new ArrayList<String>();
+        final List<String> deleted = new ArrayList<String>();
+
+        int unreachable;
+        int internalErrors;
+        int unreachableAfterRejection;
+        private boolean rejected;
+
+        @Override
+        public synchronized NamedList<Object> request(SolrRequest request)
+                throws SolrServerException, IOException {
+            requests.incrementAndGet();
+            if (unreachable > 0) {
+                unreachable--;
+                throw new SolrServerException("Server refused connection");
+            }
+            if (internalErrors > 0) {
+                internalErrors--;
+                throw new SolrException(500, "Internal Server Error");
+            }
+            if (rejected && unreachableAfterRejection > 0) {
+                unreachableAfterRejection--;
+                throw new IOException("Connection reset");
+            }
+
+            UpdateRequest update = (UpdateRequest) request;
+            List<String> docIds = new ArrayList<String>();
+            if (update.getDocuments() != null) {
+                for (SolrInputDocument doc : update.getDocuments()) {
+                    docIds.add(doc.getFieldValue("id").toString());
+                }
+            }
+            List<String> deleteIds = update.getDeleteById() == null ? new ArrayList<String>()
+                    : update.getDeleteById();
+            if (docIds.contains(POISON) || deleteIds.contains(POISON)) {
+                rejected = true;
+                throw new SolrException(400, "Bad Request");
+            }
+
+            added.addAll(docIds);
+            deleted.addAll(deleteIds);
+            return new NamedList<Object>();
+        }
+    }
+}
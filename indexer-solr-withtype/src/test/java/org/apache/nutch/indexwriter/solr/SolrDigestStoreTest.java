@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.indexwriter.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a document is only skipped as unchanged when its digest is
+ * stored and none of its updates is waiting to be sent.
+ */
+public class SolrDigestStoreTest {
+
+    private File file;
+    private SolrDigestStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("digests-", null);
+        file.delete();
+        store = SolrDigestStore.open(file, 64);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void testStoredOnceSent() {
+        SolrDigestStore.Updates updates = new SolrDigestStore.Updates(store);
+        updates.add(1L, 10L);
+        assertFalse(store.isUnchanged(1L, 10L));
+
+        updates.apply();
+        assertEquals(10L, store.get(1L));
+        assertTrue(store.isUnchanged(1L, 10L));
+        assertFalse(store.isUnchanged(1L, 11L));
+    }
+
+    @Test
+    public void testPendingUpdateIsNotSkipped() {
+        store.put(1L, 10L);
+
+        // the document changes, then comes back to its stored content
+        // before the change is sent
+        SolrDigestStore.Updates changed = new SolrDigestStore.Updates(store);
+        changed.add(1L, 11L);
+        assertFalse(store.isUnchanged(1L, 10L));
+
+        SolrDigestStore.Updates reverted = new SolrDigestStore.Updates(store);
+        reverted.add(1L, 10L);
+        changed.apply();
+        assertFalse(store.isUnchanged(1L, 10L));
+
+        reverted.apply();
+        assertTrue(store.isUnchanged(1L, 10L));
+    }
+
+    @Test
+    public void testBatchNotStored() {
+        store.put(1L, 10L);
+
+        // a batch whose digests are not stored, like a split batch, keeps
+        // its documents from being skipped
+        new SolrDigestStore.Updates(store).add(1L, 10L);
+        assertFalse(store.isUnchanged(1L, 10L));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        store.put(1L, 10L);
+        store.put(2L, 20L);
+        store.remove(2L);
+        store.close();
+
+        store = SolrDigestStore.open(file, 64);
+        assertEquals(10L, store.get(1L));
+        assertEquals(0L, store.get(2L));
+        assertTrue(store.isUnchanged(1L, 10L));
+    }
+}
@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+
+/**
+ * Finds the character encoding declared by an html document, from its raw
+ * bytes, without decoding them into strings.
+ *
+ * <p>
+ *
+ * {@link #sniffByteOrder(byte[])} recognizes the byte order marks, and the
+ * UTF-16 XML declarations without one. {@link #sniff(byte[], int)} reads
+ * the encoding of an XML declaration, then runs the prescan of the HTML5
+ * encoding sniffing algorithm
+ * (http://www.w3.org/TR/html5/syntax.html#prescan-a-byte-stream-to-determine-its-encoding):
+ * <code>&lt;meta charset&gt;</code>, or <code>&lt;meta content&gt;</code>
+ * with an <code>http-equiv="content-type"</code>, skipping the comments,
+ * the other tags and their attributes.
+ */
+public class CharsetSniffer {
+
+  private static final byte[] META = bytes("meta");
+  private static final byte[] XML_DECLARATION = bytes("<?xml");
+  private static final byte[] HTTP_EQUIV = bytes("http-equiv");
+  private static final byte[] CONTENT = bytes("content");
+  private static final byte[] CHARSET = bytes("charset");
+  private static final byte[] ENCODING = bytes("encoding");
+  private static final byte[] CONTENT_TYPE = bytes("content-type");
+
+  /**
+   * Returns the encoding given by the byte order mark, or by the first
+   * bytes of an XML declaration in UTF-16, or <code>null</code>.
+   */
+  public static String sniffByteOrder(byte[] content) {
+    if (content.length >= 3 && (content[0] & 0xff) == 0xef
+        && (content[1] & 0xff) == 0xbb && (content[2] & 0xff) == 0xbf) {
+      return "UTF-8";
+    }
+    if (content.length >= 2) {
+      int b0 = content[0] & 0xff;
+      int b1 = content[1] & 0xff;
+      if (b0 == 0xfe && b1 == 0xff) return "UTF-16BE";
+      if (b0 == 0xff && b1 == 0xfe) return "UTF-16LE";
+    }
+    if (content.length >= 4) {
+      if (content[0] == '<' && content[1] == 0
+          && content[2] == '?' && content[3] == 0) return "UTF-16LE";
+      if (content[0] == 0 && content[1] == '<'
+          && content[2] == 0 && content[3] == '?') return "UTF-16BE";
+    }
+    return null;
+  }
+
+  /**
+   * Returns the supported encoding declared in the first
+   * <code>length</code> bytes of the document, or <code>null</code>.
+   */
+  public static String sniff(byte[] content, int length) {
+    int end = Math.min(length, content.length);
+    int start = 0;
+    if (end >= 3 && (content[0] & 0xff) == 0xef
+        && (content[1] & 0xff) == 0xbb && (content[2] & 0xff) == 0xbf) {
+      start = 3;
+    }
+
+    String encoding = sniffXmlDeclaration(content, start, end);
+    if (encoding != null) {
+      return encoding;
+    }
+    return prescan(content, start, end);
+  }
+
+  /** Encoding pseudo-attribute of an XML declaration at the start. */
+  private static String sniffXmlDeclaration(byte[] b, int start, int end) {
+    if (!regionMatches(b, start, end, XML_DECLARATION)) {
+      return null;
+    }
+    int pos = start + XML_DECLARATION.length;
+    if (pos >= end || !isSpace(b[pos])) {
+      return null;
+    }
+    int[] attribute = new int[4];
+    while ((pos = getAttribute(b, pos, end, attribute)) >= 0 && attribute[0] >= 0) {
+      if (equalsIgnoreCase(b, attribute[0], attribute[1], ENCODING)) {
+        return toEncoding(b, attribute[2], attribute[3]);
+      }
+    }
+    return null;
+  }
+
+  private static String prescan(byte[] b, int start, int end) {
+    int[] attribute = new int[4];
+    int pos = start;
+    while (pos < end) {
+      if (b[pos] != '<') {
+        pos++;
+        continue;
+      }
+
+      if (pos + 3 < end && b[pos + 1] == '!' && b[pos + 2] == '-'
+          && b[pos + 3] == '-') {
+        // comment, up to the first "-->" after "<!"
+        pos = indexOf(b, pos + 2, end, "-->");
+        if (pos < 0) return null;
+        pos += 3;
+
+      } else if (regionMatchesIgnoreCase(b, pos + 1, end, META)
+          && pos + 5 < end && (isSpace(b[pos + 5]) || b[pos + 5] == '/')) {
+        boolean seenHttpEquiv = false;
+        boolean seenContent = false;
+        boolean seenCharset = false;
+        boolean gotPragma = false;
+        boolean needPragma = false;
+        String charset = null;
+
+        pos += 5;
+        while ((pos = getAttribute(b, pos, end, attribute)) >= 0 && attribute[0] >= 0) {
+          int nameStart = attribute[0];
+          int nameEnd = attribute[1];
+          int valueStart = attribute[2];
+          int valueEnd = attribute[3];
+          if (equalsIgnoreCase(b, nameStart, nameEnd, HTTP_EQUIV)) {
+            if (seenHttpEquiv) continue;
+            seenHttpEquiv = true;
+            if (equalsIgnoreCase(b, valueStart, valueEnd, CONTENT_TYPE)) {
+              gotPragma = true;
+            }
+          } else if (equalsIgnoreCase(b, nameStart, nameEnd, CONTENT)) {
+            if (seenContent) continue;
+            seenContent = true;
+            if (charset == null) {
+              charset = extractFromContent(b, valueStart, valueEnd);
+              needPragma = charset != null;
+            }
+          } else if (equalsIgnoreCase(b, nameStart, nameEnd, CHARSET)) {
+            if (seenCharset) continue;
+            seenCharset = true;
+            charset = toEncoding(b, valueStart, valueEnd);
+            needPragma = false;
+          }
+        }
+        if (pos < 0) return null;
+
+        if (charset != null && (!needPragma || gotPragma)) {
+          // the bytes read so far can't be in UTF-16
+          return charset.toLowerCase().startsWith("utf-16") ? "UTF-8" : charset;
+        }
+        pos++;
+
+      } else if (pos + 1 < end && (isLetter(b[pos + 1])
+          || (b[pos + 1] == '/' && pos + 2 < end && isLetter(b[pos + 2])))) {
+        // other tag, skipping its attributes
+        pos++;
+        while (pos < end && !isSpace(b[pos]) && b[pos] != '>') pos++;
+        while ((pos = getAttribute(b, pos, end, attribute)) >= 0 && attribute[0] >= 0) {}
+        if (pos < 0) return null;
+        pos++;
+
+      } else if (pos + 1 < end
+          && (b[pos + 1] == '!' || b[pos + 1] == '/' || b[pos + 1] == '?')) {
+        pos = indexOf(b, pos + 2, end, ">");
+        if (pos < 0) return null;
+        pos++;
+
+      } else {
+        pos++;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads the next attribute from <code>pos</code>, and stores the bounds
+   * of its name and value in <code>attribute</code>, or -1 when the
+   * <code>&gt;</code> closing the tag is reached. Returns the position
+   * after the attribute, or -1 at the end of the bytes.
+   */
+  private static int getAttribute(byte[] b, int pos, int end, int[] attribute) {
+    while (pos < end && (isSpace(b[pos]) || b[pos] == '/')) pos++;
+    if (pos >= end) return -1;
+    if (b[pos] == '>') {
+      attribute[0] = -1;
+      return pos;
+    }
+
+    // name, up to "=", a space, "/" or ">"
+    int nameStart = pos;
+    do {
+      byte c = b[pos];
+      if ((c == '=' && pos > nameStart) || isSpace(c) || c == '/' || c == '>') break;
+      pos++;
+    } while (pos < end);
+    if (pos >= end) return -1;
+    attribute[0] = nameStart;
+    attribute[1] = pos;
+    attribute[2] = pos;
+    attribute[3] = pos;
+    if (b[pos] == '/' || b[pos] == '>') return pos;
+
+    while (pos < end && isSpace(b[pos])) pos++;
+    if (pos >= end) return -1;
+    if (b[pos] != '=') return pos;
+    pos++;
+    while (pos < end && isSpace(b[pos])) pos++;
+    if (pos >= end) return -1;
+
+    byte c = b[pos];
+    if (c == '"' || c == '\'') {
+      int close = indexOf(b, pos + 1, end, c);
+      if (close < 0) return -1;
+      attribute[2] = pos + 1;
+      attribute[3] = close;
+      return close + 1;
+    }
+    if (c == '>') return pos;
+
+    int valueStart = pos;
+    while (pos < end && !isSpace(b[pos]) && b[pos] != '>') pos++;
+    if (pos >= end) return -1;
+    attribute[2] = valueStart;
+    attribute[3] = pos;
+    return pos;
+  }
+
+  /** Charset parameter of the content of a <code>&lt;meta&gt;</code>. */
+  private static String extractFromContent(byte[] b, int start, int end) {
+    int pos = start;
+    while (true) {
+      pos = indexOfIgnoreCase(b, pos, end, CHARSET);
+      if (pos < 0) return null;
+      pos += CHARSET.length;
+      while (pos < end && isSpace(b[pos])) pos++;
+      if (pos < end && b[pos] == '=') break;
+    }
+    pos++;
+    while (pos < end && isSpace(b[pos])) pos++;
+    if (pos >= end) return null;
+
+    byte c = b[pos];
+    if (c == '"' || c == '\'') {
+      int close = indexOf(b, pos + 1, end, c);
+      return close < 0 ? null : toEncoding(b, pos + 1, close);
+    }
+    int valueStart = pos;
+    while (pos < end && !isSpace(b[pos]) && b[pos] != ';') pos++;
+    return toEncoding(b, valueStart, pos);
+  }
+
+  /** Returns the label if it names a supported encoding, or null. */
+  private static String toEncoding(byte[] b, int start, int end) {
+    while (start < end && isSpace(b[start])) start++;
+    while (end > start && isSpace(b[end - 1])) end--;
+    if (start == end) return null;
+
+    char[] label = new char[end - start];
+    for (int i = start; i < end; i++) {
+      byte c = b[i];
+      // an encoding label is ascii
+      if (c <= ' ') return null;
+      label[i - start] = (char) c;
+    }
+    String encoding = new String(label);
+    if (encoding.equalsIgnoreCase("x-user-defined")) {
+      return "windows-1252";
+    }
+    try {
+      return Charset.isSupported(encoding) ? encoding : null;
+    } catch (IllegalCharsetNameException e) {
+      return null;
+    }
+  }
+
+  private static int indexOf(byte[] b, int from, int end, byte c) {
+    for (int i = from; i < end; i++) {
+      if (b[i] == c) return i;
+    }
+    return -1;
+  }
+
+  private static int indexOf(byte[] b, int from, int end, String s) {
+    for (int i = from; i + s.length() <= end; i++) {
+      int j = 0;
+      while (j < s.length() && b[i + j] == s.charAt(j)) j++;
+      if (j == s.length()) return i;
+    }
+    return -1;
+  }
+
+  private static int indexOfIgnoreCase(byte[] b, int from, int end, byte[] lower) {
+    for (int i = from; i + lower.length <= end; i++) {
+      if (regionMatchesIgnoreCase(b, i, end, lower)) return i;
+    }
+    return -1;
+  }
+
+  private static boolean regionMatches(byte[] b, int pos, int end, byte[] s) {
+    if (pos + s.length > end) return false;
+    for (int i = 0; i < s.length; i++) {
+      if (b[pos + i] != s[i]) return false;
+    }
+    return true;
+  }
+
+  private static boolean regionMatchesIgnoreCase(byte[] b, int pos, int end, byte[] lower) {
+    if (pos + lower.length > end) return false;
+    for (int i = 0; i < lower.length; i++) {
+      if (toLowerCase(b[pos + i]) != lower[i]) return false;
+    }
+    return true;
+  }
+
+  private static boolean equalsIgnoreCase(byte[] b, int start, int end, byte[] lower) {
+    return end - start == lower.length && regionMatchesIgnoreCase(b, start, end, lower);
+  }
+
+  private static byte toLowerCase(byte c) {
+    return c >= 'A' && c <= 'Z' ? (byte) (c + ('a' - 'A')) : c;
+  }
+
+  private static boolean isLetter(byte c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+  }
+
+  // the spaces of the html spec
+  private static boolean isSpace(byte c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+  }
+
+  private static byte[] bytes(String ascii) {
+    byte[] b = new byte[ascii.length()];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) ascii.charAt(i);
+    }
+    return b;
+  }
+}
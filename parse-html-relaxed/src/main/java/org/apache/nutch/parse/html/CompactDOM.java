@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.util.Arrays;
+
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+
+/**
+ * Array backed storage of a parsed html page, read through the
+ * {@link CompactNode} views of its nodes.
+ *
+ * <p>
+ *
+ * The nodes are numbered in document order from the root fragment, 0,
+ * so the descendants of a node are the nodes following it up to its end.
+ * Names are interned, text, comments and attribute values are ranges of
+ * a single char buffer, and the children of all the nodes are grouped in
+ * a single array once the page is complete. The node objects are only
+ * created when the nodes are first read, and the same object is returned
+ * afterwards.
+ *
+ * <p>
+ *
+ * Built by {@link CompactDOMBuilder}, the tree can't be modified.
+ */
+public class CompactDOM {
+
+  private static final int INITIAL_NODES = 256;
+
+  // nodes
+  private int size;
+  private short[] types = new short[INITIAL_NODES];
+  private int[] parents = new int[INITIAL_NODES];
+  private int[] ends = new int[INITIAL_NODES];
+  private String[] names = new String[INITIAL_NODES];
+  private String[] namespaces = new String[INITIAL_NODES];
+  // character data: chars of the node, element: its attributes
+  private int[] starts = new int[INITIAL_NODES];
+  private int[] lengths = new int[INITIAL_NODES];
+
+  // children of each node, grouped by parent, and slot of each node
+  private int[] firstSlots;
+  private int[] children;
+  private int[] slots;
+
+  // attributes
+  private int attributeCount;
+  private String[] attributeNames = new String[INITIAL_NODES];
+  private String[] attributeNamespaces = new String[INITIAL_NODES];
+  private int[] valueStarts = new int[INITIAL_NODES];
+  private int[] valueLengths = new int[INITIAL_NODES];
+  private int[] owners = new int[INITIAL_NODES];
+
+  private char[] chars = new char[INITIAL_NODES * 16];
+  private int charCount;
+
+  private CompactNode[] nodes;
+  private CompactNode[] attributes;
+
+  CompactDOM() {
+    add(Node.DOCUMENT_FRAGMENT_NODE, -1, null, null);
+  }
+
+  // ----- building
+
+  /** Adds a node as the last child of the parent, and returns it. */
+  int add(short type, int parent, String name, String namespace) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      names = Arrays.copyOf(names, capacity);
+      namespaces = Arrays.copyOf(namespaces, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+    }
+    int node = size++;
+    types[node] = type;
+    parents[node] = parent;
+    ends[node] = size;
+    names[node] = name;
+    namespaces[node] = namespace;
+    starts[node] = type == Node.ELEMENT_NODE ? attributeCount : charCount;
+    lengths[node] = 0;
+    return node;
+  }
+
+  /** Adds an attribute to the last added node, an element. */
+  void addAttribute(String name, String namespace, String value) {
+    if (attributeCount == attributeNames.length) {
+      int capacity = attributeCount * 2;
+      attributeNames = Arrays.copyOf(attributeNames, capacity);
+      attributeNamespaces = Arrays.copyOf(attributeNamespaces, capacity);
+      valueStarts = Arrays.copyOf(valueStarts, capacity);
+      valueLengths = Arrays.copyOf(valueLengths, capacity);
+      owners = Arrays.copyOf(owners, capacity);
+    }
+    int attribute = attributeCount++;
+    attributeNames[attribute] = name;
+    attributeNamespaces[attribute] = namespace;
+    valueStarts[attribute] = charCount;
+    valueLengths[attribute] = value.length();
+    owners[attribute] = size - 1;
+    ensureChars(value.length());
+    value.getChars(0, value.length(), chars, charCount);
+    charCount += value.length();
+    lengths[size - 1]++;
+  }
+
+  /**
+   * Appends characters to the last added node, which must be the last
+   * user of the char buffer.
+   */
+  void appendChars(char[] ch, int start, int length) {
+    ensureChars(length);
+    System.arraycopy(ch, start, chars, charCount, length);
+    charCount += length;
+    lengths[size - 1] += length;
+  }
+
+  /** Marks the end of the descendants of the node. */
+  void close(int node) {
+    ends[node] = size;
+  }
+
+  int getLastNode() {
+    return size - 1;
+  }
+
+  /**
+   * Groups the children of the nodes, once the page is complete. Each
+   * parent precedes its children, which are already in document order.
+   */
+  void complete() {
+    if (children != null) {
+      return;
+    }
+    ends[0] = size;
+
+    firstSlots = new int[size + 1];
+    for (int node = 1; node < size; node++) {
+      firstSlots[parents[node] + 1]++;
+    }
+    for (int node = 0; node < size; node++) {
+      firstSlots[node + 1] += firstSlots[node];
+    }
+
+    children = new int[Math.max(size - 1, 0)];
+    slots = new int[size];
+    int[] next = Arrays.copyOf(firstSlots, size);
+    for (int node = 1; node < size; node++) {
+      int slot = next[parents[node]]++;
+      children[slot] = node;
+      slots[node] = slot;
+    }
+
+    nodes = new CompactNode[size];
+  }
+
+  private void ensureChars(int length) {
+    if (charCount + length > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+    }
+  }
+
+  // ----- reading
+
+  /** Returns the root of the page. */
+  public DocumentFragment getFragment() {
+    return (DocumentFragment) getNode(0);
+  }
+
+  /** Returns the number of nodes, the root fragment included. */
+  public int getSize() {
+    return size;
+  }
+
+  CompactNode getNode(int node) {
+    if (node < 0) {
+      return null;
+    }
+    CompactNode view = nodes[node];
+    if (view == null) {
+      switch (types[node]) {
+      case Node.ELEMENT_NODE:
+        view = new CompactNode.ElementNode(this, node);
+        break;
+      case Node.TEXT_NODE:
+        view = new CompactNode.TextNode(this, node);
+        break;
+      case Node.CDATA_SECTION_NODE:
+        view = new CompactNode.CDATASectionNode(this, node);
+        break;
+      case Node.COMMENT_NODE:
+        view = new CompactNode.CommentNode(this, node);
+        break;
+      default:
+        view = new CompactNode.FragmentNode(this, node);
+      }
+      nodes[node] = view;
+    }
+    return view;
+  }
+
+  CompactNode getAttributeNode(int attribute) {
+    if (attributes == null) {
+      attributes = new CompactNode[attributeCount];
+    }
+    CompactNode view = attributes[attribute];
+    if (view == null) {
+      view = new CompactNode.AttrNode(this, attribute);
+      attributes[attribute] = view;
+    }
+    return view;
+  }
+
+  short getType(int node) {
+    return types[node];
+  }
+
+  int getParent(int node) {
+    return parents[node];
+  }
+
+  /** Returns the index after the last descendant of the node. */
+  int getEnd(int node) {
+    return ends[node];
+  }
+
+  String getName(int node) {
+    return names[node];
+  }
+
+  String getNamespace(int node) {
+    return namespaces[node];
+  }
+
+  int getChildCount(int node) {
+    return firstSlots[node + 1] - firstSlots[node];
+  }
+
+  /** Returns the i-th child of the node, or -1. */
+  int getChild(int node, int i) {
+    return i >= 0 && i < getChildCount(node) ? children[firstSlots[node] + i] : -1;
+  }
+
+  /** Returns the sibling of the node at the given distance, or -1. */
+  int getSibling(int node, int distance) {
+    int parent = parents[node];
+    if (parent < 0) {
+      return -1;
+    }
+    return getChild(parent, slots[node] + distance - firstSlots[parent]);
+  }
+
+  String getData(int node) {
+    return new String(chars, starts[node], lengths[node]);
+  }
+
+  int getDataLength(int node) {
+    return lengths[node];
+  }
+
+  /** Appends the text and cdata sections below the node. */
+  void appendText(int node, StringBuilder sb) {
+    for (int i = node + 1; i < ends[node]; i++) {
+      if (types[i] == Node.TEXT_NODE || types[i] == Node.CDATA_SECTION_NODE) {
+        sb.append(chars, starts[i], lengths[i]);
+      }
+    }
+  }
+
+  int getFirstAttribute(int element) {
+    return starts[element];
+  }
+
+  int getAttributeCount(int element) {
+    return lengths[element];
+  }
+
+  /** Returns the element of the attribute. */
+  int getOwner(int attribute) {
+    return owners[attribute];
+  }
+
+  String getAttributeName(int attribute) {
+    return attributeNames[attribute];
+  }
+
+  String getAttributeNamespace(int attribute) {
+    return attributeNamespaces[attribute];
+  }
+
+  String getAttributeValue(int attribute) {
+    return new String(chars, valueStarts[attribute], valueLengths[attribute]);
+  }
+}
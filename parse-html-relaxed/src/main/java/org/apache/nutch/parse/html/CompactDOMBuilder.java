@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Builds a {@link CompactDOM} from the SAX events of Neko or TagSoup,
+ * with the same nodes as {@link DOMBuilder} adds to a document fragment:
+ * elements with their attributes, text merged with the text before it,
+ * except ignorable whitespace which always starts a text node of its
+ * own, comments and cdata sections. Processing instructions and the
+ * doctype are left out.
+ */
+public class CompactDOMBuilder implements ContentHandler, LexicalHandler {
+
+  private static final String XMLNS_URI = "http://www.w3.org/2000/xmlns/";
+
+  private final CompactDOM dom = new CompactDOM();
+
+  // open elements, the root fragment first
+  private int[] stack = new int[64];
+  private int depth = 1;
+
+  private boolean inCData;
+
+  /**
+   * Returns the root of the page, once all the events are received, or
+   * what was built before a parse failure.
+   */
+  public DocumentFragment getFragment() {
+    while (depth > 1) {
+      dom.close(stack[--depth]);
+    }
+    dom.complete();
+    return dom.getFragment();
+  }
+
+  private int current() {
+    return stack[depth - 1];
+  }
+
+  // the last node, if it is a child of the current node of the type
+  private boolean isLastChild(short type) {
+    int last = dom.getLastNode();
+    return last > 0 && dom.getParent(last) == current() && dom.getType(last) == type;
+  }
+
+  public void startElement(String ns, String localName, String name, Attributes atts)
+      throws SAXException {
+    if (ns != null && ns.length() == 0) {
+      ns = null;
+    }
+    int element = dom.add(Node.ELEMENT_NODE, current(), name.intern(),
+        ns == null ? null : ns.intern());
+
+    for (int i = 0; i < atts.getLength(); i++) {
+      String attrNS = atts.getURI(i);
+      if ("".equals(attrNS)) {
+        attrNS = null;
+      }
+      String attrQName = atts.getQName(i);
+      if (attrQName.startsWith("xmlns:")) {
+        attrNS = XMLNS_URI;
+      }
+      dom.addAttribute(attrQName.intern(), attrNS == null ? null : attrNS.intern(),
+          atts.getValue(i));
+    }
+
+    if (depth == stack.length) {
+      int[] grown = new int[depth * 2];
+      System.arraycopy(stack, 0, grown, 0, depth);
+      stack = grown;
+    }
+    stack[depth++] = element;
+  }
+
+  public void endElement(String ns, String localName, String name)
+      throws SAXException {
+    if (depth > 1) {
+      dom.close(stack[--depth]);
+    }
+  }
+
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (inCData) {
+      cdata(ch, start, length);
+      return;
+    }
+    if (!isLastChild(Node.TEXT_NODE)) {
+      dom.add(Node.TEXT_NODE, current(), null, null);
+    }
+    dom.appendChars(ch, start, length);
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length)
+      throws SAXException {
+    dom.add(Node.TEXT_NODE, current(), null, null);
+    dom.appendChars(ch, start, length);
+  }
+
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    // tagsoup sometimes submits invalid values here
+    if (ch == null || start < 0 || length >= (ch.length - start) || length < 0) return;
+    dom.add(Node.COMMENT_NODE, current(), null, null);
+    dom.appendChars(ch, start, length);
+  }
+
+  public void startCDATA() throws SAXException {
+    inCData = true;
+    dom.add(Node.CDATA_SECTION_NODE, current(), null, null);
+  }
+
+  public void endCDATA() throws SAXException {
+    inCData = false;
+  }
+
+  private void cdata(char[] ch, int start, int length) {
+    // like DOMBuilder, to the last cdata section or comment
+    if (isLastChild(Node.CDATA_SECTION_NODE) || isLastChild(Node.COMMENT_NODE)) {
+      dom.appendChars(ch, start, length);
+    }
+  }
+
+  public void setDocumentLocator(Locator locator) {}
+
+  public void startDocument() throws SAXException {}
+
+  public void endDocument() throws SAXException {}
+
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {}
+
+  public void endPrefixMapping(String prefix) throws SAXException {}
+
+  public void processingInstruction(String target, String data) throws SAXException {}
+
+  public void skippedEntity(String name) throws SAXException {}
+
+  public void startDTD(String name, String publicId, String systemId) throws SAXException {}
+
+  public void endDTD() throws SAXException {}
+
+  public void startEntity(String name) throws SAXException {}
+
+  public void endEntity(String name) throws SAXException {}
+}
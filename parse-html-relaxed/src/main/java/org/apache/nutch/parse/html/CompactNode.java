@@ -0,0 +1,700 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * Read-only view of a node of a {@link CompactDOM}.
+ *
+ * <p>
+ *
+ * Implements the navigation, names, values and attributes used by
+ * {@link DOMContentUtils}, {@link HTMLMetaProcessor} and the Jaxen DOM
+ * navigator. The nodes have no owner document, and the methods modifying
+ * the tree throw a <code>NO_MODIFICATION_ALLOWED_ERR</code>
+ * {@link DOMException}.
+ */
+public abstract class CompactNode implements Node {
+
+  private static final NodeList EMPTY = new NodeList() {
+    public Node item(int index) {
+      return null;
+    }
+
+    public int getLength() {
+      return 0;
+    }
+  };
+
+  final CompactDOM dom;
+  final int index;
+
+  CompactNode(CompactDOM dom, int index) {
+    this.dom = dom;
+    this.index = index;
+  }
+
+  static DOMException readOnly() {
+    return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR,
+        "The compact DOM is read-only");
+  }
+
+  static DOMException notSupported() {
+    return new DOMException(DOMException.NOT_SUPPORTED_ERR,
+        "Not supported by the compact DOM");
+  }
+
+  static String getPrefix(String qName) {
+    int colon = qName.indexOf(':');
+    return colon < 0 ? null : qName.substring(0, colon);
+  }
+
+  static String getLocalName(String qName) {
+    int colon = qName.indexOf(':');
+    return colon < 0 ? qName : qName.substring(colon + 1);
+  }
+
+  static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  // ----- tree
+
+  public Node getParentNode() {
+    return dom.getNode(dom.getParent(index));
+  }
+
+  public NodeList getChildNodes() {
+    return EMPTY;
+  }
+
+  public Node getFirstChild() {
+    return null;
+  }
+
+  public Node getLastChild() {
+    return null;
+  }
+
+  public Node getPreviousSibling() {
+    return dom.getNode(dom.getSibling(index, -1));
+  }
+
+  public Node getNextSibling() {
+    return dom.getNode(dom.getSibling(index, 1));
+  }
+
+  public boolean hasChildNodes() {
+    return false;
+  }
+
+  public NamedNodeMap getAttributes() {
+    return null;
+  }
+
+  public boolean hasAttributes() {
+    return false;
+  }
+
+  public Document getOwnerDocument() {
+    return null;
+  }
+
+  // ----- names and values
+
+  public String getNamespaceURI() {
+    return null;
+  }
+
+  public String getPrefix() {
+    return null;
+  }
+
+  public String getLocalName() {
+    return null;
+  }
+
+  public String getBaseURI() {
+    return null;
+  }
+
+  public String getNodeValue() {
+    return null;
+  }
+
+  public String getTextContent() {
+    return getNodeValue();
+  }
+
+  public boolean isSameNode(Node other) {
+    return this == other;
+  }
+
+  public boolean isEqualNode(Node other) {
+    throw notSupported();
+  }
+
+  public short compareDocumentPosition(Node other) {
+    throw notSupported();
+  }
+
+  public boolean isSupported(String feature, String version) {
+    return false;
+  }
+
+  public Object getFeature(String feature, String version) {
+    return null;
+  }
+
+  public String lookupPrefix(String namespaceURI) {
+    return null;
+  }
+
+  public boolean isDefaultNamespace(String namespaceURI) {
+    return false;
+  }
+
+  public String lookupNamespaceURI(String prefix) {
+    return null;
+  }
+
+  public Object getUserData(String key) {
+    return null;
+  }
+
+  public void normalize() {
+    // adjacent text is already merged
+  }
+
+  // ----- modifications
+
+  public void setNodeValue(String nodeValue) {
+    throw readOnly();
+  }
+
+  public void setTextContent(String textContent) {
+    throw readOnly();
+  }
+
+  public void setPrefix(String prefix) {
+    throw readOnly();
+  }
+
+  public Node insertBefore(Node newChild, Node refChild) {
+    throw readOnly();
+  }
+
+  public Node replaceChild(Node newChild, Node oldChild) {
+    throw readOnly();
+  }
+
+  public Node removeChild(Node oldChild) {
+    throw readOnly();
+  }
+
+  public Node appendChild(Node newChild) {
+    throw readOnly();
+  }
+
+  public Node cloneNode(boolean deep) {
+    throw notSupported();
+  }
+
+  public Object setUserData(String key, Object data, UserDataHandler handler) {
+    throw notSupported();
+  }
+
+  public String toString() {
+    return "[" + getNodeName() + ": " + getNodeValue() + "]";
+  }
+
+  /**
+   * A node with children, the node is the list of its children like in
+   * Xerces.
+   */
+  abstract static class ParentNode extends CompactNode implements NodeList {
+
+    ParentNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public NodeList getChildNodes() {
+      return this;
+    }
+
+    public int getLength() {
+      return dom.getChildCount(index);
+    }
+
+    public Node item(int i) {
+      return dom.getNode(dom.getChild(index, i));
+    }
+
+    public Node getFirstChild() {
+      return item(0);
+    }
+
+    public Node getLastChild() {
+      return item(getLength() - 1);
+    }
+
+    public boolean hasChildNodes() {
+      return getLength() > 0;
+    }
+
+    public String getTextContent() {
+      StringBuilder sb = new StringBuilder();
+      dom.appendText(index, sb);
+      return sb.toString();
+    }
+
+    /** Elements below the node with the name, or any name for "*". */
+    NodeList getElementsByTagName(String namespaceURI, String name,
+        boolean matchNamespace) {
+      final List<Node> elements = new ArrayList<Node>();
+      for (int i = index + 1; i < dom.getEnd(index); i++) {
+        if (dom.getType(i) != ELEMENT_NODE) continue;
+        if (matchNamespace) {
+          if (!"*".equals(namespaceURI) && !equal(namespaceURI, dom.getNamespace(i))) continue;
+          if (!"*".equals(name) && !name.equals(getLocalName(dom.getName(i)))) continue;
+        } else if (!"*".equals(name) && !name.equals(dom.getName(i))) {
+          continue;
+        }
+        elements.add(dom.getNode(i));
+      }
+      return new NodeList() {
+        public Node item(int i) {
+          return i >= 0 && i < elements.size() ? elements.get(i) : null;
+        }
+
+        public int getLength() {
+          return elements.size();
+        }
+      };
+    }
+  }
+
+  /** The root of the page. */
+  static class FragmentNode extends ParentNode implements DocumentFragment {
+
+    FragmentNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public short getNodeType() {
+      return DOCUMENT_FRAGMENT_NODE;
+    }
+
+    public String getNodeName() {
+      return "#document-fragment";
+    }
+  }
+
+  static class ElementNode extends ParentNode implements Element {
+
+    ElementNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public short getNodeType() {
+      return ELEMENT_NODE;
+    }
+
+    public String getNodeName() {
+      return dom.getName(index);
+    }
+
+    public String getTagName() {
+      return dom.getName(index);
+    }
+
+    public String getNamespaceURI() {
+      return dom.getNamespace(index);
+    }
+
+    public String getPrefix() {
+      return getPrefix(dom.getName(index));
+    }
+
+    public String getLocalName() {
+      return getLocalName(dom.getName(index));
+    }
+
+    public NamedNodeMap getAttributes() {
+      return new AttributeMap(dom, index);
+    }
+
+    public boolean hasAttributes() {
+      return dom.getAttributeCount(index) > 0;
+    }
+
+    // Same name lookup as the Xerces html elements
+    private int findAttribute(String name) {
+      if (dom.getNamespace(index) == null) {
+        name = name.toLowerCase();
+      }
+      int first = dom.getFirstAttribute(index);
+      for (int i = first; i < first + dom.getAttributeCount(index); i++) {
+        if (name.equals(dom.getAttributeName(i))) return i;
+      }
+      return -1;
+    }
+
+    private int findAttribute(String namespaceURI, String localName) {
+      int first = dom.getFirstAttribute(index);
+      for (int i = first; i < first + dom.getAttributeCount(index); i++) {
+        if (equal(namespaceURI, dom.getAttributeNamespace(i))
+            && localName.equals(getLocalName(dom.getAttributeName(i)))) return i;
+      }
+      return -1;
+    }
+
+    public String getAttribute(String name) {
+      int attribute = findAttribute(name);
+      return attribute < 0 ? "" : dom.getAttributeValue(attribute);
+    }
+
+    public Attr getAttributeNode(String name) {
+      int attribute = findAttribute(name);
+      return attribute < 0 ? null : (Attr) dom.getAttributeNode(attribute);
+    }
+
+    public boolean hasAttribute(String name) {
+      return findAttribute(name) >= 0;
+    }
+
+    public String getAttributeNS(String namespaceURI, String localName) {
+      int attribute = findAttribute(namespaceURI, localName);
+      return attribute < 0 ? "" : dom.getAttributeValue(attribute);
+    }
+
+    public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+      int attribute = findAttribute(namespaceURI, localName);
+      return attribute < 0 ? null : (Attr) dom.getAttributeNode(attribute);
+    }
+
+    public boolean hasAttributeNS(String namespaceURI, String localName) {
+      return findAttribute(namespaceURI, localName) >= 0;
+    }
+
+    public NodeList getElementsByTagName(String name) {
+      return getElementsByTagName(null, name, false);
+    }
+
+    public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+      return getElementsByTagName(namespaceURI, localName, true);
+    }
+
+    public TypeInfo getSchemaTypeInfo() {
+      return null;
+    }
+
+    public void setAttribute(String name, String value) {
+      throw readOnly();
+    }
+
+    public void removeAttribute(String name) {
+      throw readOnly();
+    }
+
+    public Attr setAttributeNode(Attr newAttr) {
+      throw readOnly();
+    }
+
+    public Attr removeAttributeNode(Attr oldAttr) {
+      throw readOnly();
+    }
+
+    public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+      throw readOnly();
+    }
+
+    public void removeAttributeNS(String namespaceURI, String localName) {
+      throw readOnly();
+    }
+
+    public Attr setAttributeNodeNS(Attr newAttr) {
+      throw readOnly();
+    }
+
+    public void setIdAttribute(String name, boolean isId) {
+      throw readOnly();
+    }
+
+    public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+      throw readOnly();
+    }
+
+    public void setIdAttributeNode(Attr idAttr, boolean isId) {
+      throw readOnly();
+    }
+  }
+
+  /** Text, cdata section or comment. */
+  abstract static class CharacterDataNode extends CompactNode {
+
+    CharacterDataNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public String getNodeValue() {
+      return dom.getData(index);
+    }
+
+    public String getData() {
+      return dom.getData(index);
+    }
+
+    public int getLength() {
+      return dom.getDataLength(index);
+    }
+
+    public String substringData(int offset, int count) {
+      if (offset < 0 || count < 0 || offset > getLength()) {
+        throw new DOMException(DOMException.INDEX_SIZE_ERR, "Invalid offset or count");
+      }
+      return getData().substring(offset, Math.min(offset + count, getLength()));
+    }
+
+    public void setData(String data) {
+      throw readOnly();
+    }
+
+    public void appendData(String arg) {
+      throw readOnly();
+    }
+
+    public void insertData(int offset, String arg) {
+      throw readOnly();
+    }
+
+    public void deleteData(int offset, int count) {
+      throw readOnly();
+    }
+
+    public void replaceData(int offset, int count, String arg) {
+      throw readOnly();
+    }
+
+    // Text methods, adjacent text is merged in a single node
+
+    public Text splitText(int offset) {
+      throw readOnly();
+    }
+
+    public boolean isElementContentWhitespace() {
+      return false;
+    }
+
+    public String getWholeText() {
+      return getData();
+    }
+
+    public Text replaceWholeText(String content) {
+      throw readOnly();
+    }
+  }
+
+  static class TextNode extends CharacterDataNode implements Text {
+
+    TextNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public short getNodeType() {
+      return TEXT_NODE;
+    }
+
+    public String getNodeName() {
+      return "#text";
+    }
+  }
+
+  static class CDATASectionNode extends CharacterDataNode implements CDATASection {
+
+    CDATASectionNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public short getNodeType() {
+      return CDATA_SECTION_NODE;
+    }
+
+    public String getNodeName() {
+      return "#cdata-section";
+    }
+  }
+
+  static class CommentNode extends CharacterDataNode implements Comment {
+
+    CommentNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public short getNodeType() {
+      return COMMENT_NODE;
+    }
+
+    public String getNodeName() {
+      return "#comment";
+    }
+  }
+
+  /** An attribute, its index is the one of the attribute in the dom. */
+  static class AttrNode extends CompactNode implements Attr {
+
+    AttrNode(CompactDOM dom, int index) {
+      super(dom, index);
+    }
+
+    public short getNodeType() {
+      return ATTRIBUTE_NODE;
+    }
+
+    public String getNodeName() {
+      return dom.getAttributeName(index);
+    }
+
+    public String getName() {
+      return dom.getAttributeName(index);
+    }
+
+    public String getNodeValue() {
+      return dom.getAttributeValue(index);
+    }
+
+    public String getValue() {
+      return dom.getAttributeValue(index);
+    }
+
+    public String getNamespaceURI() {
+      return dom.getAttributeNamespace(index);
+    }
+
+    public String getPrefix() {
+      return getPrefix(dom.getAttributeName(index));
+    }
+
+    public String getLocalName() {
+      return getLocalName(dom.getAttributeName(index));
+    }
+
+    public Node getParentNode() {
+      return null;
+    }
+
+    public Node getPreviousSibling() {
+      return null;
+    }
+
+    public Node getNextSibling() {
+      return null;
+    }
+
+    public Element getOwnerElement() {
+      return (Element) dom.getNode(dom.getOwner(index));
+    }
+
+    public boolean getSpecified() {
+      return true;
+    }
+
+    public TypeInfo getSchemaTypeInfo() {
+      return null;
+    }
+
+    public boolean isId() {
+      return false;
+    }
+
+    public void setValue(String value) {
+      throw readOnly();
+    }
+  }
+
+  /** Attributes of an element, in document order. */
+  static class AttributeMap implements NamedNodeMap {
+
+    private final CompactDOM dom;
+    private final int first;
+    private final int length;
+
+    AttributeMap(CompactDOM dom, int element) {
+      this.dom = dom;
+      this.first = dom.getFirstAttribute(element);
+      this.length = dom.getAttributeCount(element);
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public Node item(int index) {
+      return index >= 0 && index < length ? dom.getAttributeNode(first + index) : null;
+    }
+
+    public Node getNamedItem(String name) {
+      for (int i = first; i < first + length; i++) {
+        if (name.equals(dom.getAttributeName(i))) return dom.getAttributeNode(i);
+      }
+      return null;
+    }
+
+    public Node getNamedItemNS(String namespaceURI, String localName) {
+      for (int i = first; i < first + length; i++) {
+        if (equal(namespaceURI, dom.getAttributeNamespace(i))
+            && localName.equals(getLocalName(dom.getAttributeName(i)))) {
+          return dom.getAttributeNode(i);
+        }
+      }
+      return null;
+    }
+
+    public Node setNamedItem(Node arg) {
+      throw readOnly();
+    }
+
+    public Node removeNamedItem(String name) {
+      throw readOnly();
+    }
+
+    public Node setNamedItemNS(Node arg) {
+      throw readOnly();
+    }
+
+    public Node removeNamedItemNS(String namespaceURI, String localName) {
+      throw readOnly();
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * The text, title, base url and outlinks of a page read in a single pass,
+ * from its DOM by {@link DOMContentWalker} or from the SAX events of the
+ * parser by {@link StreamingContentExtractor}. The results are those of
+ * the <code>getText</code>, <code>getTitle</code>, <code>getBase</code>
+ * and <code>getOutlinks</code> methods of {@link DOMContentUtils}, and the
+ * meta tags those of {@link HTMLMetaProcessor#getMetaTags}.
+ *
+ * <p>Each extraction keeps its own rules: meta tags are read outside of
+ * the body, the title and the base url before it, scripts and styles have
+ * no text, and the text of a link stops at a nested anchor. The links are
+ * resolved once the whole page is read, since the base url may come after
+ * some of them.
+ *
+ * <p>The nodes are numbered by depth, the root being 0, and the text
+ * nodes come with the depth of their deepest script or style ancestor,
+ * or -1.
+ */
+public abstract class ContentExtractor {
+
+  private static final int TITLE_SEARCH = 0;
+  private static final int TITLE_READ = 1;
+  private static final int TITLE_DONE = 2;
+
+  protected final DOMContentUtils utils;
+
+  private final StringBuilder text = new StringBuilder();
+  private final StringBuilder title = new StringBuilder();
+  private URL base;
+  private final ArrayList<Link> links = new ArrayList<Link>();
+
+  // depth of the body the meta tags are ignored in, or -1
+  private int bodyDepth;
+  private int titleState;
+  private int titleDepth;
+  private boolean searchBase;
+
+  // links whose text is being read, the innermost last, with the text
+  // buffer of each nesting level reused by the next links
+  private final ArrayList<Link> openLinks = new ArrayList<Link>();
+  private final ArrayList<StringBuilder> linkTexts = new ArrayList<StringBuilder>();
+
+  protected ContentExtractor(DOMContentUtils utils) {
+    this.utils = utils;
+  }
+
+  void reset(HTMLMetaTags metaTags) {
+    metaTags.reset();
+    text.setLength(0);
+    title.setLength(0);
+    base = null;
+    links.clear();
+    openLinks.clear();
+    bodyDepth = -1;
+    titleState = TITLE_SEARCH;
+    searchBase = true;
+  }
+
+  /**
+   * Appends a text node to the text of the page, of the title and of the
+   * links it is in.
+   */
+  void appendText(String value, int skipDepth) {
+    if (skipDepth < 0) {
+      DOMContentUtils.appendCollapsed(text, value);
+    }
+    if (titleState == TITLE_READ && skipDepth < titleDepth) {
+      DOMContentUtils.appendCollapsed(title, value);
+    }
+    for (int i = 0; i < openLinks.size(); i++) {
+      Link link = openLinks.get(i);
+      if (!link.aborted && skipDepth < link.depth) {
+        DOMContentUtils.appendCollapsed(linkTexts.get(i), value);
+      }
+    }
+  }
+
+  /**
+   * Looks for the title in a node other than text, before its children.
+   */
+  void searchTitle(String nodeName, boolean element, int depth) {
+    if (titleState == TITLE_SEARCH) {
+      if ("body".equalsIgnoreCase(nodeName)) {
+        titleState = TITLE_DONE;
+      } else if (element && "title".equalsIgnoreCase(nodeName)) {
+        titleState = TITLE_READ;
+        titleDepth = depth;
+      }
+    }
+  }
+
+  /**
+   * Returns true if the meta tags of the element are read, it is neither
+   * the body nor in it.
+   */
+  boolean isMetaElement(String elementName, int depth) {
+    if (bodyDepth >= 0) {
+      return false;
+    }
+    if ("body".equalsIgnoreCase(elementName)) {
+      bodyDepth = depth;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the element is a base, and no base url was found
+   * before it or before the body.
+   */
+  boolean isBaseElement(String elementName) {
+    if (searchBase && "body".equalsIgnoreCase(elementName)) {
+      searchBase = false;
+    }
+    return searchBase && "base".equalsIgnoreCase(elementName);
+  }
+
+  void setBase(URL base) {
+    this.base = base;
+    searchBase = false;
+  }
+
+  /**
+   * Counts an anchor in the links it is in, the text of a link stops at
+   * the second anchor below it, its own included.
+   */
+  void countAnchor(String nodeName, int skipDepth) {
+    if ("a".equalsIgnoreCase(nodeName)) {
+      for (int i = 0; i < openLinks.size(); i++) {
+        Link link = openLinks.get(i);
+        if (!link.aborted && skipDepth < link.depth && ++link.anchors > 1) {
+          link.aborted = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Ends a node other than text, after its children. An open link at the
+   * depth is closed by the caller.
+   */
+  void endNode(int depth) {
+    if (titleState == TITLE_READ && depth == titleDepth) {
+      titleState = TITLE_DONE;
+    }
+    if (depth == bodyDepth) {
+      bodyDepth = -1;
+    }
+  }
+
+  /**
+   * Opens a link, which gets the text nodes below it.
+   */
+  void openLink(Link link) {
+    links.add(link);
+    openLinks.add(link);
+    if (linkTexts.size() < openLinks.size()) {
+      linkTexts.add(new StringBuilder());
+    }
+  }
+
+  int getOpenLinkCount() {
+    return openLinks.size();
+  }
+
+  Link getOpenLink(int index) {
+    return openLinks.get(index);
+  }
+
+  /**
+   * Returns the innermost open link if it is at the depth, or null.
+   */
+  Link getOpenLinkAt(int depth) {
+    int last = openLinks.size() - 1;
+    if (last >= 0 && openLinks.get(last).depth == depth) {
+      return openLinks.get(last);
+    }
+    return null;
+  }
+
+  StringBuilder getLinkText(int index) {
+    return linkTexts.get(index);
+  }
+
+  /**
+   * Closes the innermost link, with its anchor or null to drop it.
+   */
+  void closeLink(String anchor) {
+    int last = openLinks.size() - 1;
+    openLinks.remove(last).anchor = anchor;
+    linkTexts.get(last).setLength(0);
+  }
+
+  /**
+   * Returns the text of the page, as {@link DOMContentUtils#getText}.
+   */
+  public String getText() {
+    return text.toString();
+  }
+
+  /**
+   * Returns the text of the first title before the body, as
+   * {@link DOMContentUtils#getTitle}, or an empty string.
+   */
+  public String getTitle() {
+    return title.toString();
+  }
+
+  /**
+   * Returns the url of the first base before the body, as
+   * {@link DOMContentUtils#getBase}, or null.
+   */
+  public URL getBase() {
+    return base;
+  }
+
+  /**
+   * Adds the links of the page resolved against <code>base</code>, in
+   * document order, as {@link DOMContentUtils#getOutlinks}.
+   */
+  public void getOutlinks(URL base, ArrayList<Outlink> outlinks) {
+    for (Link link : links) {
+      if (link.anchor == null) {
+        continue;
+      }
+      try {
+        URL url = URLUtil.resolveURL(base, link.target);
+        outlinks.add(new Outlink(url.toString(), link.anchor));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+  }
+
+  static class Link {
+
+    final String target;
+    final int depth;
+    private int anchors;
+    private boolean aborted;
+    private String anchor;
+
+    Link(String target, int depth) {
+      this.target = target;
+      this.depth = depth;
+    }
+  }
+}
@@ -107,10 +107,13 @@ public class DOMContentUtils {
    */
   public boolean getText(StringBuffer sb, Node node, 
                                       boolean abortOnNestedAnchors) {
-    if (getTextHelper(sb, node, abortOnNestedAnchors, 0)) {
-      return true;
-    } 
-    return false;
+    StringBuilder text = new StringBuilder();
+    boolean abort = appendText(text, node, abortOnNestedAnchors);
+    if (text.length() > 0) {
+      if (sb.length() > 0) sb.append(' ');
+      sb.append(text);
+    }
+    return abort;
   }
 
 
@@ -123,12 +126,30 @@ public class DOMContentUtils {
     getText(sb, node, false);
   }
 
+  /**
+   * Same as {@link #getText(StringBuffer,Node,boolean)}, appending
+   * directly to an unsynchronized <code>StringBuilder</code>.
+   *
+   * @return true if nested anchors were found
+   */
+  public boolean getText(StringBuilder sb, Node node,
+                                      boolean abortOnNestedAnchors) {
+    return appendText(sb, node, abortOnNestedAnchors);
+  }
+
+  /**
+   * This is a convinience method, equivalent to {@link
+   * #getText(StringBuilder,Node,boolean) getText(sb, node, false)}.
+   */
+  public void getText(StringBuilder sb, Node node) {
+    appendText(sb, node, false);
+  }
+
   // returns true if abortOnNestedAnchors is true and we find nested 
   // anchors
-  private boolean getTextHelper(StringBuffer sb, Node node, 
-                                             boolean abortOnNestedAnchors,
-                                             int anchorDepth) {
-    boolean abort = false;
+  static boolean appendText(StringBuilder sb, Node node, 
+                                             boolean abortOnNestedAnchors) {
+    int anchorDepth = 0;
     NodeWalker walker = new NodeWalker(node);
     
     while (walker.hasNext()) {
@@ -146,26 +167,51 @@ public class DOMContentUtils {
       if (abortOnNestedAnchors && "a".equalsIgnoreCase(nodeName)) {
         anchorDepth++;
         if (anchorDepth > 1) {
-          abort = true;
-          break;
+          return true;
         }        
       }
       if (nodeType == Node.COMMENT_NODE) {
         walker.skipChildren();
       }
       if (nodeType == Node.TEXT_NODE) {
-        // cleanup and trim the value
-        String text = currentNode.getNodeValue();
-        text = text.replaceAll("\\s+", " ");
-        text = text.trim();
-        if (text.length() > 0) {
-          if (sb.length() > 0) sb.append(' ');
-        	sb.append(text);
-        }
+        appendCollapsed(sb, currentNode.getNodeValue());
       }
     }
     
-    return abort;
+    return false;
+  }
+
+  /**
+   * Appends the text with its whitespace runs collapsed to a single space
+   * and trimmed, after a space if <code>sb</code> isn't empty. Same result
+   * as <code>text.replaceAll("\\s+", " ").trim()</code>, in a single pass
+   * without intermediate strings.
+   */
+  static void appendCollapsed(StringBuilder sb, String text) {
+    int start = 0;
+    int end = text.length();
+    while (start < end && text.charAt(start) <= ' ') start++;
+    while (end > start && text.charAt(end - 1) <= ' ') end--;
+    if (start == end) return;
+
+    if (sb.length() > 0) sb.append(' ');
+    int i = start;
+    while (i < end) {
+      int run = i;
+      while (i < end && !isSpace(text.charAt(i))) i++;
+      sb.append(text, run, i);
+      if (i < end) {
+        // the last character isn't a space, the run ends before it
+        sb.append(' ');
+        while (isSpace(text.charAt(i))) i++;
+      }
+    }
+  }
+
+  // the characters of the \s regex class
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+        || c == '\f' || c == '\r';
   }
 
   /**
@@ -176,6 +222,30 @@ public class DOMContentUtils {
    * @return true if a title node was found, false otherwise
    */
   public boolean getTitle(StringBuffer sb, Node node) {
+    Node title = findTitle(node);
+    if (title == null) {
+      return false;
+    }
+    getText(sb, title);
+    return true;
+  }
+
+  /**
+   * Same as {@link #getTitle(StringBuffer,Node)}, appending directly to
+   * an unsynchronized <code>StringBuilder</code>.
+   *
+   * @return true if a title node was found, false otherwise
+   */
+  public boolean getTitle(StringBuilder sb, Node node) {
+    Node title = findTitle(node);
+    if (title == null) {
+      return false;
+    }
+    appendText(sb, title, false);
+    return true;
+  }
+
+  private Node findTitle(Node node) {
     
     NodeWalker walker = new NodeWalker(node);
     
@@ -186,18 +256,17 @@ public class DOMContentUtils {
       short nodeType = currentNode.getNodeType();
       
       if ("body".equalsIgnoreCase(nodeName)) { // stop after HEAD
-        return false;
+        return null;
       }
   
       if (nodeType == Node.ELEMENT_NODE) {
         if ("title".equalsIgnoreCase(nodeName)) {
-          getText(sb, currentNode);
-          return true;
+          return currentNode;
         }
       }
     }      
     
-    return false;
+    return null;
   }
 
   /** If Node contains a BASE tag then it's HREF is returned. */
@@ -237,6 +306,10 @@ public class DOMContentUtils {
   }
 
 
+  LinkParams getLinkParams(String elName) {
+    return linkParams.get(elName);
+  }
+
   private boolean hasOnlyWhiteSpace(Node node) {
     String val= node.getNodeValue();
     for (int i= 0; i < val.length(); i++) {
@@ -248,7 +321,7 @@ public class DOMContentUtils {
 
   // this only covers a few cases of empty links that are symptomatic
   // of nekohtml's DOM-fixup process...
-  private boolean shouldThrowAwayLink(Node node, NodeList children, 
+  boolean shouldThrowAwayLink(Node node, NodeList children, 
                                               int childLen, LinkParams params) {
     if (childLen == 0) {
       // this has no inner structure 
@@ -300,6 +373,36 @@ public class DOMContentUtils {
     return false;
   }
   
+  // appends the img alts and the raw text below a link without text
+  static void appendAltText(StringBuilder linkText, Node node) {
+    NodeWalker subWalker = new NodeWalker(node);
+    while (subWalker.hasNext()) {
+      Node subNode = subWalker.nextNode();
+      if (subNode.getNodeType() == Node.ELEMENT_NODE) {
+        if (subNode.getNodeName().toLowerCase().equals("img")) {
+          NamedNodeMap subAttrs = subNode.getAttributes();
+          Node alt = subAttrs.getNamedItem("alt");
+          if (alt != null) {
+            String altTxt = alt.getTextContent();
+            if (altTxt != null && altTxt.trim().length() > 0) {
+              if (linkText.length() > 0) linkText.append(' ');
+              linkText.append(altTxt);
+            }
+          }
+        } else {
+          // ignore other types of elements
+          
+        } 
+      } else if (subNode.getNodeType() == Node.TEXT_NODE) {
+        String txt = subNode.getTextContent();
+        if (txt != null && txt.length() > 0) {
+          if (linkText.length() > 0) linkText.append(' ');
+          linkText.append(txt);
+        }                  
+      }
+    }
+  }
+
   /**
    * This method finds all anchors below the supplied DOM
    * <code>node</code>, and creates appropriate {@link Outlink}
@@ -317,6 +420,8 @@ public class DOMContentUtils {
   public void getOutlinks(URL base, ArrayList<Outlink> outlinks, 
                                        Node node) {
     
+    // reused by the links, the collapsed text has no space to trim
+    StringBuilder linkText = new StringBuilder();
     NodeWalker walker = new NodeWalker(node);
     while (walker.hasNext()) {
       
@@ -333,36 +438,11 @@ public class DOMContentUtils {
         if (params != null) {
           if (!shouldThrowAwayLink(currentNode, children, childLen, params)) {
   
-            StringBuffer linkText = new StringBuffer();
-            getText(linkText, currentNode, true);
-            if (linkText.toString().trim().length() == 0) {
+            linkText.setLength(0);
+            appendText(linkText, currentNode, true);
+            if (linkText.length() == 0) {
               // try harder - use img alt if present
-              NodeWalker subWalker = new NodeWalker(currentNode);
-              while (subWalker.hasNext()) {
-                Node subNode = subWalker.nextNode();
-                if (subNode.getNodeType() == Node.ELEMENT_NODE) {
-                  if (subNode.getNodeName().toLowerCase().equals("img")) {
-                    NamedNodeMap subAttrs = subNode.getAttributes();
-                    Node alt = subAttrs.getNamedItem("alt");
-                    if (alt != null) {
-                      String altTxt = alt.getTextContent();
-                      if (altTxt != null && altTxt.trim().length() > 0) {
-                        if (linkText.length() > 0) linkText.append(' ');
-                        linkText.append(altTxt);
-                      }
-                    }
-                  } else {
-                    // ignore other types of elements
-                    
-                  } 
-                } else if (subNode.getNodeType() == Node.TEXT_NODE) {
-                  String txt = subNode.getTextContent();
-                  if (txt != null && txt.length() > 0) {
-                    if (linkText.length() > 0) linkText.append(' ');
-                    linkText.append(txt);
-                  }                  
-                }
-              }
+              appendAltText(linkText, currentNode);
             }
   
             NamedNodeMap attrs = currentNode.getAttributes();
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Extracts the meta tags, text, title, base url and outlinks of a page in
+ * a single traversal of its DOM.
+ */
+public class DOMContentWalker extends ContentExtractor {
+
+  // nodes of the current path, and the depth of the deepest script or
+  // style on it, or -1
+  private Node[] path = new Node[64];
+  private int[] skipDepths = new int[64];
+
+  public DOMContentWalker(DOMContentUtils utils) {
+    super(utils);
+  }
+
+  /**
+   * Walks the page once, filling <code>metaTags</code> and reading the
+   * text, title, base url and links returned by the other methods.
+   *
+   * @param currURL URL of the page, for the relative meta refresh and base
+   * urls
+   */
+  public void walk(Node root, HTMLMetaTags metaTags, URL currURL) {
+    reset(metaTags);
+
+    Node node = root;
+    int depth = 0;
+    enter(node, depth, metaTags, currURL);
+    while (true) {
+      Node next = node.getFirstChild();
+      if (next != null) {
+        depth++;
+      } else {
+        // back up to the next sibling of the node or of an ancestor
+        while (true) {
+          leave(node, depth);
+          if (depth == 0) {
+            return;
+          }
+          next = node.getNextSibling();
+          if (next != null) {
+            break;
+          }
+          node = path[--depth];
+        }
+      }
+      node = next;
+      enter(node, depth, metaTags, currURL);
+    }
+  }
+
+  private void enter(Node node, int depth, HTMLMetaTags metaTags, URL currURL) {
+    if (depth == path.length) {
+      Node[] newPath = new Node[depth * 2];
+      System.arraycopy(path, 0, newPath, 0, depth);
+      path = newPath;
+      int[] newSkipDepths = new int[depth * 2];
+      System.arraycopy(skipDepths, 0, newSkipDepths, 0, depth);
+      skipDepths = newSkipDepths;
+    }
+    path[depth] = node;
+
+    String nodeName = node.getNodeName();
+    short nodeType = node.getNodeType();
+    int skipDepth = depth > 0 ? skipDepths[depth - 1] : -1;
+    skipDepths[depth] = "script".equalsIgnoreCase(nodeName)
+        || "style".equalsIgnoreCase(nodeName) ? depth : skipDepth;
+
+    if (nodeType == Node.TEXT_NODE) {
+      appendText(node.getNodeValue(), skipDepth);
+      return;
+    }
+
+    searchTitle(nodeName, nodeType == Node.ELEMENT_NODE, depth);
+    if (nodeType == Node.ELEMENT_NODE) {
+      if (isMetaElement(nodeName, depth)) {
+        HTMLMetaProcessor.processElement(metaTags, node, currURL);
+      }
+      if (isBaseElement(nodeName)) {
+        readBase(node);
+      }
+      openLink(node, nodeName, depth);
+    }
+    countAnchor(nodeName, skipDepth);
+  }
+
+  private void leave(Node node, int depth) {
+    endNode(depth);
+
+    if (getOpenLinkAt(depth) != null) {
+      StringBuilder linkText = getLinkText(getOpenLinkCount() - 1);
+      if (linkText.length() == 0) {
+        // try harder - use img alt if present
+        DOMContentUtils.appendAltText(linkText, node);
+      }
+      closeLink(linkText.toString().trim());
+    }
+  }
+
+  private void readBase(Node node) {
+    NamedNodeMap attrs = node.getAttributes();
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Node attr = attrs.item(i);
+      if ("href".equalsIgnoreCase(attr.getNodeName())) {
+        try {
+          setBase(new URL(attr.getNodeValue()));
+          return;
+        } catch (MalformedURLException e) {}
+      }
+    }
+  }
+
+  private void openLink(Node node, String nodeName, int depth) {
+    DOMContentUtils.LinkParams params = utils.getLinkParams(nodeName.toLowerCase());
+    if (params == null) {
+      return;
+    }
+    NodeList children = node.getChildNodes();
+    int childLen = (children != null) ? children.getLength() : 0;
+    if (utils.shouldThrowAwayLink(node, children, childLen, params)) {
+      return;
+    }
+
+    NamedNodeMap attrs = node.getAttributes();
+    String target = null;
+    boolean post = false;
+    for (int i = 0; i < attrs.getLength(); i++) {
+      Node attr = attrs.item(i);
+      String attrName = attr.getNodeName();
+      if (params.attrName.equalsIgnoreCase(attrName)) {
+        target = attr.getNodeValue();
+      } else if ("method".equalsIgnoreCase(attrName) &&
+                 "post".equalsIgnoreCase(attr.getNodeValue())) {
+        post = true;
+      }
+    }
+    // links posting a form, or without target, have no outlink and
+    // their text isn't needed
+    if (target == null || post) {
+      return;
+    }
+    openLink(new Link(target, depth));
+  }
+}
@@ -19,15 +19,17 @@ package org.apache.nutch.parse.html;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.MalformedURLException;
-import java.nio.charset.Charset;
 import java.io.*;
-import java.util.regex.*;
 
 import org.cyberneko.html.parsers.*;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
 import org.w3c.dom.*;
 import org.apache.html.dom.*;
 import org.slf4j.Logger;
@@ -49,14 +51,6 @@ public class HtmlParser implements Parser {
   // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
   private static final int CHUNK_SIZE = 2000;
 
-  // NUTCH-1006 Meta equiv with single quotes not accepted
-  private static Pattern metaPattern =
-    Pattern.compile("<meta\\s+([^>]*http-equiv=(\"|')?content-type(\"|')?[^>]*)>",
-                    Pattern.CASE_INSENSITIVE);
-  private static Pattern charsetPattern =
-    Pattern.compile("charset=\\s*([a-z][_\\-0-9a-z]*)",
-                    Pattern.CASE_INSENSITIVE);
-  
   private String parserImpl;
   
   //added in order to crawl more agressivly
@@ -64,46 +58,19 @@ public class HtmlParser implements Parser {
 
   /**
    * Given a <code>byte[]</code> representing an html file of an 
-   * <em>unknown</em> encoding,  read out 'charset' parameter in the meta tag   
-   * from the first <code>CHUNK_SIZE</code> bytes.
-   * If there's no meta tag for Content-Type or no charset is specified,
-   * <code>null</code> is returned.  <br />
-   * FIXME: non-byte oriented character encodings (UTF-16, UTF-32)
-   * can't be handled with this. 
-   * We need to do something similar to what's done by mozilla
-   * (http://lxr.mozilla.org/seamonkey/source/parser/htmlparser/src/nsParser.cpp#1993).
-   * See also http://www.w3.org/TR/REC-xml/#sec-guessing
+   * <em>unknown</em> encoding,  read out the encoding of the XML declaration
+   * or the 'charset' of the meta tags from the first <code>CHUNK_SIZE</code>
+   * bytes, with the prescan of the HTML5 encoding sniffing algorithm.
+   * If no supported charset is specified, <code>null</code> is returned.
    * <br />
+   * The byte order marks are handled by
+   * {@link CharsetSniffer#sniffByteOrder(byte[])}.
    *
    * @param content <code>byte[]</code> representation of an html file
    */
 
   private static String sniffCharacterEncoding(byte[] content) {
-    int length = content.length < CHUNK_SIZE ? 
-                 content.length : CHUNK_SIZE;
-
-    // We don't care about non-ASCII parts so that it's sufficient
-    // to just inflate each byte to a 16-bit value by padding. 
-    // For instance, the sequence {0x41, 0x82, 0xb7} will be turned into 
-    // {U+0041, U+0082, U+00B7}. 
-    String str = "";
-    try {
-      str = new String(content, 0, length,
-                       Charset.forName("ASCII").toString());
-    } catch (UnsupportedEncodingException e) {
-      // code should never come here, but just in case... 
-      return null;
-    }
-
-    Matcher metaMatcher = metaPattern.matcher(str);
-    String encoding = null;
-    if (metaMatcher.find()) {
-      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
-      if (charsetMatcher.find()) 
-        encoding = new String(charsetMatcher.group(1));
-    }
-
-    return encoding;
+    return CharsetSniffer.sniff(content, CHUNK_SIZE);
   }
 
   private String defaultCharEncoding;
@@ -115,6 +82,20 @@ public class HtmlParser implements Parser {
   private HtmlParseFilters htmlParseFilters;
   
   private String cachingPolicy;
+
+  private ThreadLocal<DOMFragmentParser> nekoParsers;
+
+  private ThreadLocal<org.ccil.cowan.tagsoup.Parser> tagSoupParsers;
+
+  private ThreadLocal<SAXParser> nekoSAXParsers;
+
+  // read-only array backed DOM instead of the Xerces one
+  private boolean compactDom;
+
+  // the parse filters and their needsDocument methods, null if the DOM
+  // is always built
+  private HtmlParseFilter[] parseFilters;
+  private Method[] needsDocumentMethods;
   
   public ParseResult getParse(Content content) {
     HTMLMetaTags metaTags = new HTMLMetaTags();
@@ -132,22 +113,34 @@ public class HtmlParser implements Parser {
     Metadata metadata = new Metadata();
 
     // parse the content
-    DocumentFragment root;
+    DocumentFragment root = null;
+    StreamingContentExtractor streamed = null;
     try {
       byte[] contentInOctets = content.getContent();
       InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets));
 
-      EncodingDetector detector = new EncodingDetector(conf);
-      detector.autoDetectClues(content, true);
-      detector.addClue(sniffCharacterEncoding(contentInOctets), "sniffed");
-      String encoding = detector.guessEncoding(content, defaultCharEncoding);
+      // a byte order mark wins over the headers and the meta tags
+      String encoding = CharsetSniffer.sniffByteOrder(contentInOctets);
+      if (encoding == null) {
+        EncodingDetector detector = new EncodingDetector(conf);
+        detector.autoDetectClues(content, true);
+        detector.addClue(sniffCharacterEncoding(contentInOctets), "sniffed");
+        encoding = detector.guessEncoding(content, defaultCharEncoding);
+      }
       
+      // published once for the parse filters, which decode the content
+      // with it instead of detecting it again
       metadata.set(Metadata.ORIGINAL_CHAR_ENCODING, encoding);
       metadata.set(Metadata.CHAR_ENCODING_FOR_CONVERSION, encoding);
 
       input.setEncoding(encoding);
-      if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
-      root = parse(input);
+      if (needsDocument(content)) {
+        if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
+        root = parse(input);
+      } else {
+        if (LOG.isTraceEnabled()) { LOG.trace("Streaming..."); }
+        streamed = stream(input, metaTags, base);
+      }
     } catch (IOException e) {
       return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
     } catch (DOMException e) {
@@ -159,28 +152,22 @@ public class HtmlParser implements Parser {
       return new ParseStatus(e).getEmptyParseResult(content.getUrl(), getConf());
     }
       
-    // get meta directives
-    HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    // get meta directives, text, title, base and links in one pass
+    ContentExtractor extractor = streamed != null ? streamed 
+      : walk(root, metaTags, base);
     if (LOG.isTraceEnabled()) {
       LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
     }
     // check meta directives
     if (relaxedCrawlRestrictions || !metaTags.getNoIndex()) {               // okay to index
-      StringBuffer sb = new StringBuffer();
-      if (LOG.isTraceEnabled()) { LOG.trace("Getting text..."); }
-      utils.getText(sb, root);          // extract text
-      text = sb.toString();
-      sb.setLength(0);
-      if (LOG.isTraceEnabled()) { LOG.trace("Getting title..."); }
-      utils.getTitle(sb, root);         // extract title
-      title = sb.toString().trim();
+      text = extractor.getText();
+      title = extractor.getTitle().trim();
     }
       
     if (relaxedCrawlRestrictions|| !metaTags.getNoFollow()) {              // okay to follow links
       ArrayList<Outlink> l = new ArrayList<Outlink>();   // extract outlinks
-      URL baseTag = utils.getBase(root);
-      if (LOG.isTraceEnabled()) { LOG.trace("Getting links..."); }
-      utils.getOutlinks(baseTag!=null?baseTag:base, l, root);
+      URL baseTag = extractor.getBase();
+      extractor.getOutlinks(baseTag!=null?baseTag:base, l);
       
       outlinks = l.toArray(new Outlink[l.size()]);
       if (LOG.isTraceEnabled()) {
@@ -257,49 +244,152 @@ public class HtmlParser implements Parser {
     return filteredParse;
   }
 
-  private DocumentFragment parse(InputSource input) throws Exception {
+  // package protected for tests
+  DocumentFragment parse(InputSource input) throws Exception {
+    if (compactDom)
+      return parseCompact(input);
     if (parserImpl.equalsIgnoreCase("tagsoup"))
       return parseTagSoup(input);
     else return parseNeko(input);
   }
   
+  /**
+   * Reads the content from the DOM of the page.
+   */
+  // package protected for tests
+  ContentExtractor walk(DocumentFragment root, HTMLMetaTags metaTags, 
+      URL base) {
+    DOMContentWalker walker = new DOMContentWalker(utils);
+    walker.walk(root, metaTags, base);
+    return walker;
+  }
+
+  /**
+   * Reads the content from the SAX events of the parser, without DOM.
+   */
+  // package protected for tests
+  StreamingContentExtractor stream(InputSource input, 
+      HTMLMetaTags metaTags, URL base) throws Exception {
+    StreamingContentExtractor extractor = 
+      new StreamingContentExtractor(utils, metaTags, base);
+    if (parserImpl.equalsIgnoreCase("tagsoup"))
+      parseSAX(tagSoupParsers, input, extractor, extractor);
+    else parseSAX(nekoSAXParsers, input, extractor, extractor);
+    return extractor;
+  }
+
+  /**
+   * Returns true if a parse filter reads the DOM of the page. A filter
+   * which doesn't always read it tells so with a public
+   * <code>boolean needsDocument(Content)</code> method, and gets a null
+   * DOM when no filter needs it. Without this method, the DOM is built.
+   */
+  private boolean needsDocument(Content content) {
+    if (needsDocumentMethods == null) {
+      return true;
+    }
+    for (int i = 0; i < parseFilters.length; i++) {
+      try {
+        if ((Boolean) needsDocumentMethods[i].invoke(parseFilters[i], content)) {
+          return true;
+        }
+      } catch (Exception e) {
+        LOG.warn("Can't ask " + parseFilters[i].getClass().getName() 
+            + " whether it needs the DOM: " + e);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the filters all have a needsDocument method, or the DOM is always built;
+  // streaming is only tried when parser.html.dom.streaming is set
+  private void initNeedsDocument() {
+    parseFilters = null;
+    needsDocumentMethods = null;
+    if (!getConf().getBoolean("parser.html.dom.streaming", false)) {
+      return;
+    }
+    // cached by HtmlParseFilters, in the order they are run
+    Object filters = ObjectCache.get(getConf())
+      .getObject(HtmlParseFilter.class.getName());
+    if (!(filters instanceof HtmlParseFilter[])) {
+      return;
+    }
+    HtmlParseFilter[] cachedFilters = (HtmlParseFilter[]) filters;
+    Method[] methods = new Method[cachedFilters.length];
+    for (int i = 0; i < cachedFilters.length; i++) {
+      try {
+        methods[i] = cachedFilters[i].getClass()
+          .getMethod("needsDocument", Content.class);
+      } catch (NoSuchMethodException e) {
+        return;
+      }
+      if (methods[i].getReturnType() != boolean.class) {
+        return;
+      }
+    }
+    parseFilters = cachedFilters;
+    needsDocumentMethods = methods;
+  }
+
   private DocumentFragment parseTagSoup(InputSource input) throws Exception {
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     DocumentFragment frag = doc.createDocumentFragment();
     DOMBuilder builder = new DOMBuilder(doc, frag);
+    parseSAX(tagSoupParsers, input, builder, builder);
+    return frag;
+  }
+
+  private DocumentFragment parseCompact(InputSource input) throws Exception {
+    CompactDOMBuilder builder = new CompactDOMBuilder();
+    if (parserImpl.equalsIgnoreCase("tagsoup"))
+      parseSAX(tagSoupParsers, input, builder, builder);
+    else parseSAX(nekoSAXParsers, input, builder, builder);
+    return builder.getFragment();
+  }
+
+  private void parseSAX(ThreadLocal<? extends XMLReader> readers, 
+                        InputSource input, ContentHandler handler, 
+                        LexicalHandler lexicalHandler) throws Exception {
+    XMLReader reader = readers.get();
+    try {
+      reader.setContentHandler(handler);
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", lexicalHandler);
+      reader.parse(input);
+    } catch (Exception e) {
+      // not reused after a failure
+      readers.remove();
+      throw e;
+    } finally {
+      // the reused parser doesn't keep the document
+      reader.setContentHandler(null);
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", null);
+    }
+  }
+
+  private static org.ccil.cowan.tagsoup.Parser createTagSoupParser() 
+    throws SAXException {
     org.ccil.cowan.tagsoup.Parser reader = new org.ccil.cowan.tagsoup.Parser();
-    reader.setContentHandler(builder);
     reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
     reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
-    reader.setProperty("http://xml.org/sax/properties/lexical-handler", builder);
-    reader.parse(input);
-    return frag;
+    return reader;
   }
   
   private DocumentFragment parseNeko(InputSource input) throws Exception {
-    DOMFragmentParser parser = new DOMFragmentParser();
-    try {
-      parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe",
-              true);
-      parser.setFeature("http://cyberneko.org/html/features/augmentations",
-              true);
-      parser.setProperty("http://cyberneko.org/html/properties/default-encoding",
-              defaultCharEncoding);
-      parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
-              true);
-      parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content",
-              false);
-      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
-              true);
-      parser.setFeature("http://cyberneko.org/html/features/report-errors",
-              LOG.isTraceEnabled());
-    } catch (SAXException e) {}
+    DOMFragmentParser parser = nekoParsers.get();
     // convert Document to DocumentFragment
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     doc.setErrorChecking(false);
     DocumentFragment res = doc.createDocumentFragment();
     DocumentFragment frag = doc.createDocumentFragment();
-    parser.parse(input, frag);
+    try {
+      parser.parse(input, frag);
+    } catch (Exception e) {
+      // not reused after a failure
+      nekoParsers.remove();
+      throw e;
+    }
     res.appendChild(frag);
     
     try {
@@ -313,10 +403,54 @@ public class HtmlParser implements Parser {
         res.appendChild(frag);
       }
     } catch (Exception e) { 
+      nekoParsers.remove();
       LOG.error("Error: ", e);
       };
     return res;
   }
+
+  private DOMFragmentParser createNekoParser() {
+    return configureNeko(new NekoDOMFragmentParser());
+  }
+
+  private SAXParser createNekoSAXParser() {
+    return configureNeko(new NekoSAXParser());
+  }
+
+  private <T extends NekoSettings> T configureNeko(T parser) {
+    try {
+      parser.setFeature("http://cyberneko.org/html/features/scanner/allow-selfclosing-iframe",
+              true);
+      parser.setFeature("http://cyberneko.org/html/features/augmentations",
+              true);
+      parser.setProperty("http://cyberneko.org/html/properties/default-encoding",
+              defaultCharEncoding);
+      parser.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+              true);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content",
+              false);
+      parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+              true);
+      parser.setFeature("http://cyberneko.org/html/features/report-errors",
+              LOG.isTraceEnabled());
+    } catch (SAXException e) {}
+    return parser;
+  }
+
+  // the Neko DOM and SAX parsers take the same settings, but share no
+  // interface to set them
+  private interface NekoSettings {
+    void setFeature(String featureId, boolean state) throws SAXException;
+    void setProperty(String propertyId, Object value) throws SAXException;
+  }
+
+  private static class NekoDOMFragmentParser extends DOMFragmentParser
+    implements NekoSettings {
+  }
+
+  private static class NekoSAXParser extends SAXParser
+    implements NekoSettings {
+  }
   
   public static void main(String[] args) throws Exception {
     //LOG.setLevel(Level.FINE);
@@ -340,10 +474,35 @@ public class HtmlParser implements Parser {
   public void setConf(Configuration conf) {
     this.conf = conf;
     this.htmlParseFilters = new HtmlParseFilters(getConf());
+    initNeedsDocument();
     this.parserImpl = getConf().get("parser.html.impl", "neko");
+    this.compactDom = getConf().getBoolean("parser.html.dom.compact", false);
     this.defaultCharEncoding = getConf().get(
         "parser.character.encoding.default", "windows-1252");
     this.utils = new DOMContentUtils(conf);
+    // the parsers are configured once per thread, and reset by each parse
+    this.nekoParsers = new ThreadLocal<DOMFragmentParser>() {
+      @Override
+      protected DOMFragmentParser initialValue() {
+        return createNekoParser();
+      }
+    };
+    this.nekoSAXParsers = new ThreadLocal<SAXParser>() {
+      @Override
+      protected SAXParser initialValue() {
+        return createNekoSAXParser();
+      }
+    };
+    this.tagSoupParsers = new ThreadLocal<org.ccil.cowan.tagsoup.Parser>() {
+      @Override
+      protected org.ccil.cowan.tagsoup.Parser initialValue() {
+        try {
+          return createTagSoupParser();
+        } catch (SAXException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
     this.cachingPolicy = getConf().get("parser.caching.forbidden.policy",
         Nutch.CACHING_FORBIDDEN_CONTENT);
     
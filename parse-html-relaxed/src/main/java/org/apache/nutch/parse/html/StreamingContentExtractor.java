@@ -0,0 +1,366 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+
+/**
+ * Extracts the meta tags, text, title, base url and outlinks of a page
+ * from the SAX events of Neko or TagSoup, without building its DOM. The
+ * text nodes are merged as {@link DOMBuilder} does, and the results are
+ * the same as those of {@link DOMContentWalker} on the built DOM.
+ *
+ * <p>A link is dropped at its end when its children show it is one of the
+ * empty links {@link DOMContentUtils} throws away. The img alts and raw
+ * text used for a link without text are kept until some text is found.
+ */
+public class StreamingContentExtractor extends ContentExtractor
+    implements ContentHandler, LexicalHandler {
+
+  private final HTMLMetaTags metaTags;
+  private final URL currURL;
+
+  // depth of the current element, the root being 0, and the depth of the
+  // deepest script or style at or above each element, or -1
+  private int depth;
+  private int[] skipDepths = new int[64];
+
+  // the text node being read, until a sibling or the end of its parent
+  private final StringBuilder chars = new StringBuilder();
+  private boolean inText;
+  private boolean inCData;
+
+  // img alts and raw text of the open links, by nesting level
+  private final ArrayList<StringBuilder> altTexts = new ArrayList<StringBuilder>();
+
+  /**
+   * @param currURL URL of the page, for the relative meta refresh and base
+   * urls
+   */
+  public StreamingContentExtractor(DOMContentUtils utils,
+      HTMLMetaTags metaTags, URL currURL) {
+    super(utils);
+    this.metaTags = metaTags;
+    this.currURL = currURL;
+    reset(metaTags);
+    skipDepths[0] = -1;
+  }
+
+  public void startElement(String ns, String localName, String name, Attributes atts)
+      throws SAXException {
+    endText();
+    addChild(name);
+
+    depth++;
+    if (depth == skipDepths.length) {
+      int[] newSkipDepths = new int[depth * 2];
+      System.arraycopy(skipDepths, 0, newSkipDepths, 0, depth);
+      skipDepths = newSkipDepths;
+    }
+    int skipDepth = skipDepths[depth - 1];
+    skipDepths[depth] = "script".equalsIgnoreCase(name)
+        || "style".equalsIgnoreCase(name) ? depth : skipDepth;
+
+    searchTitle(name, true, depth);
+    if (isMetaElement(name, depth)) {
+      readMeta(name, atts);
+    }
+    if (isBaseElement(name)) {
+      readBase(atts);
+    }
+    openLink(name, atts);
+    if (name.toLowerCase().equals("img")) {
+      String alt = atts.getValue("alt");
+      if (alt != null && alt.trim().length() > 0) {
+        appendAltText(alt);
+      }
+    }
+    countAnchor(name, skipDepth);
+  }
+
+  public void endElement(String ns, String localName, String name)
+      throws SAXException {
+    endText();
+    endNode(depth);
+
+    StreamedLink link = (StreamedLink) getOpenLinkAt(depth);
+    if (link != null) {
+      int level = getOpenLinkCount() - 1;
+      StringBuilder linkText = getLinkText(level);
+      StringBuilder altText = altTexts.get(level);
+      if (link.isThrownAway()) {
+        closeLink(null);
+      } else if (linkText.length() == 0) {
+        closeLink(altText.toString().trim());
+      } else {
+        closeLink(linkText.toString().trim());
+      }
+      altText.setLength(0);
+    }
+    depth--;
+  }
+
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+    if (inCData) {
+      return;
+    }
+    if (!inText) {
+      inText = true;
+      addChild(null);
+    }
+    chars.append(ch, start, length);
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length)
+      throws SAXException {
+    // a new text node, the next characters are appended to it
+    endText();
+    characters(ch, start, length);
+  }
+
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    if (ch == null || start < 0 || length >= (ch.length - start) || length < 0) return;
+    endText();
+    addChild(null);
+  }
+
+  public void startCDATA() throws SAXException {
+    endText();
+    addChild(null);
+    inCData = true;
+  }
+
+  public void endCDATA() throws SAXException {
+    inCData = false;
+  }
+
+  public void processingInstruction(String target, String data)
+      throws SAXException {
+    endText();
+    addChild(null);
+  }
+
+  public void endDocument() throws SAXException {
+    endText();
+  }
+
+  public void setDocumentLocator(Locator locator) {
+  }
+
+  public void startDocument() throws SAXException {
+  }
+
+  public void startPrefixMapping(String prefix, String uri)
+      throws SAXException {
+  }
+
+  public void endPrefixMapping(String prefix) throws SAXException {
+  }
+
+  public void skippedEntity(String name) throws SAXException {
+  }
+
+  public void startDTD(String name, String publicId, String systemId)
+      throws SAXException {
+  }
+
+  public void endDTD() throws SAXException {
+  }
+
+  public void startEntity(String name) throws SAXException {
+  }
+
+  public void endEntity(String name) throws SAXException {
+  }
+
+  // ends the text node being read, a child of the current element
+  private void endText() {
+    if (!inText) {
+      return;
+    }
+    inText = false;
+    String value = chars.toString();
+    chars.setLength(0);
+
+    StreamedLink parent = (StreamedLink) getOpenLinkAt(depth);
+    if (parent != null) {
+      parent.setLastChildText(value);
+    }
+    appendText(value, skipDepths[depth]);
+    if (value.length() > 0) {
+      appendAltText(value);
+    }
+  }
+
+  // a child of the current element, an element or another node (null)
+  private void addChild(String elementName) {
+    StreamedLink parent = (StreamedLink) getOpenLinkAt(depth);
+    if (parent != null) {
+      parent.addChild(elementName);
+    }
+  }
+
+  // appended to the links without text yet, for the img alt fallback
+  private void appendAltText(String value) {
+    for (int i = 0; i < getOpenLinkCount(); i++) {
+      StringBuilder altText = altTexts.get(i);
+      if (getLinkText(i).length() == 0) {
+        if (altText.length() > 0) altText.append(' ');
+        altText.append(value);
+      } else if (altText.length() > 0) {
+        altText.setLength(0);
+      }
+    }
+  }
+
+  private void readMeta(String name, Attributes atts) {
+    if ("meta".equalsIgnoreCase(name)) {
+      String nameValue = null;
+      String equivValue = null;
+      String contentValue = null;
+      for (int i = 0; i < atts.getLength(); i++) {
+        String attrName = atts.getQName(i).toLowerCase();
+        if (attrName.equals("name")) {
+          nameValue = atts.getValue(i);
+        } else if (attrName.equals("http-equiv")) {
+          equivValue = atts.getValue(i);
+        } else if (attrName.equals("content")) {
+          contentValue = atts.getValue(i);
+        }
+      }
+      HTMLMetaProcessor.processMeta(metaTags, nameValue, equivValue,
+          contentValue, currURL);
+    } else if ("base".equalsIgnoreCase(name)) {
+      String href = atts.getValue("href");
+      if (href != null) {
+        HTMLMetaProcessor.processBase(metaTags, href, currURL);
+      }
+    }
+  }
+
+  private void readBase(Attributes atts) {
+    for (int i = 0; i < atts.getLength(); i++) {
+      if ("href".equalsIgnoreCase(atts.getQName(i))) {
+        try {
+          setBase(new URL(atts.getValue(i)));
+          return;
+        } catch (MalformedURLException e) {}
+      }
+    }
+  }
+
+  private void openLink(String name, Attributes atts) {
+    DOMContentUtils.LinkParams params = utils.getLinkParams(name.toLowerCase());
+    if (params == null) {
+      return;
+    }
+
+    String target = null;
+    boolean post = false;
+    for (int i = 0; i < atts.getLength(); i++) {
+      String attrName = atts.getQName(i);
+      if (params.attrName.equalsIgnoreCase(attrName)) {
+        target = atts.getValue(i);
+      } else if ("method".equalsIgnoreCase(attrName) &&
+                 "post".equalsIgnoreCase(atts.getValue(i))) {
+        post = true;
+      }
+    }
+    // links posting a form, or without target, have no outlink and
+    // their text isn't needed
+    if (target == null || post) {
+      return;
+    }
+    openLink(new StreamedLink(target, depth, params));
+    if (altTexts.size() < getOpenLinkCount()) {
+      altTexts.add(new StringBuilder());
+    }
+  }
+
+  /**
+   * A link and its first children, for the empty links checks of
+   * {@link DOMContentUtils#shouldThrowAwayLink}.
+   */
+  private static class StreamedLink extends Link {
+
+    private static final int OTHER = 0;
+    private static final int NESTED_LINK = 1;
+    private static final int SPACE = 2;
+
+    private final DOMContentUtils.LinkParams params;
+    private int children;
+    private final int[] kinds = new int[3];
+
+    StreamedLink(String target, int depth, DOMContentUtils.LinkParams params) {
+      super(target, depth);
+      this.params = params;
+    }
+
+    void addChild(String elementName) {
+      if (children < kinds.length) {
+        kinds[children] = elementName != null
+            && params.elName.equalsIgnoreCase(elementName) ? NESTED_LINK : OTHER;
+      }
+      children++;
+    }
+
+    void setLastChildText(String value) {
+      if (children <= kinds.length && isWhiteSpace(value)) {
+        kinds[children - 1] = SPACE;
+      }
+    }
+
+    boolean isThrownAway() {
+      switch (children) {
+      case 0:
+        // this has no inner structure
+        return params.childLen != 0;
+      case 1:
+        // single nested link
+        return kinds[0] == NESTED_LINK;
+      case 2:
+        // single link followed or preceded by whitespace node
+        return (kinds[0] == NESTED_LINK && kinds[1] == SPACE)
+            || (kinds[0] == SPACE && kinds[1] == NESTED_LINK);
+      case 3:
+        // single link surrounded by whitespace nodes
+        return kinds[0] == SPACE && kinds[1] == NESTED_LINK && kinds[2] == SPACE;
+      default:
+        return false;
+      }
+    }
+
+    private static boolean isWhiteSpace(String value) {
+      for (int i = 0; i < value.length(); i++) {
+        if (!Character.isWhitespace(value.charAt(i)))
+          return false;
+      }
+      return true;
+    }
+  }
+}
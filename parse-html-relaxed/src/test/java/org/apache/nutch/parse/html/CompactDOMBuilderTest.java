@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.html.dom.HTMLDocumentImpl;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Checks that {@link CompactDOMBuilder} builds the same nodes as
+ * {@link DOMBuilder} from the same SAX events.
+ */
+public class CompactDOMBuilderTest {
+
+  @Test
+  public void testTextNodes() throws Exception {
+    HTMLDocumentImpl doc = new HTMLDocumentImpl();
+    DocumentFragment fragment = doc.createDocumentFragment();
+    DOMBuilder builder = new DOMBuilder(doc, fragment);
+    sendEvents(builder, builder);
+
+    CompactDOMBuilder compactBuilder = new CompactDOMBuilder();
+    sendEvents(compactBuilder, compactBuilder);
+
+    assertEquals(describe(fragment), describe(compactBuilder.getFragment()));
+  }
+
+  private static void sendEvents(ContentHandler handler,
+      LexicalHandler lexicalHandler) throws SAXException {
+    AttributesImpl attributes = new AttributesImpl();
+    attributes.addAttribute("", "class", "class", "CDATA", "job");
+
+    handler.startDocument();
+    handler.startElement("", "p", "p", new AttributesImpl());
+    text(handler, "Java ");
+    text(handler, "developer");
+    ignorableWhitespace(handler, "\n  ");
+    text(handler, "in ");
+    text(handler, "Sarajevo");
+    handler.startElement("", "span", "span", attributes);
+    ignorableWhitespace(handler, " ");
+    ignorableWhitespace(handler, "\t");
+    handler.endElement("", "span", "span");
+    lexicalHandler.comment("a comment".toCharArray(), 0, 9);
+    text(handler, "Full time");
+    handler.endElement("", "p", "p");
+    handler.endDocument();
+  }
+
+  private static void text(ContentHandler handler, String text)
+      throws SAXException {
+    handler.characters(text.toCharArray(), 0, text.length());
+  }
+
+  private static void ignorableWhitespace(ContentHandler handler, String text)
+      throws SAXException {
+    handler.ignorableWhitespace(text.toCharArray(), 0, text.length());
+  }
+
+  /**
+   * The nodes in document order, with their type and name or value.
+   */
+  private static String describe(Node node) {
+    StringBuilder description = new StringBuilder();
+    describe(node, description);
+    return description.toString();
+  }
+
+  private static void describe(Node node, StringBuilder description) {
+    description.append('(').append(node.getNodeType()).append(' ');
+    if (node.getNodeType() == Node.ELEMENT_NODE) {
+      description.append(node.getNodeName().toLowerCase());
+    } else {
+      description.append('"').append(node.getNodeValue()).append('"');
+    }
+    for (Node child = node.getFirstChild(); child != null;
+        child = child.getNextSibling()) {
+      describe(child, description);
+    }
+    description.append(')');
+  }
+}
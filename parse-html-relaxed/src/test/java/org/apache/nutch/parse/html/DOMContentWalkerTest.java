@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.HtmlParseFilter;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.ObjectCache;
+import org.junit.Test;
+import org.w3c.dom.DocumentFragment;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks that walking the DOM once gives the same meta tags, text, title,
+ * base url and outlinks as the separate {@link HTMLMetaProcessor} and
+ * {@link DOMContentUtils} extractions, with Neko and TagSoup and with the
+ * Xerces and compact DOMs.
+ */
+public class DOMContentWalkerTest {
+
+  private static final String[] PARSER_IMPLS = { "neko", "tagsoup" };
+
+  private static final String URL = "http://www.example-jobs.com/jobs/search?q=java";
+
+  @Test
+  public void testScriptAndStyle() throws Exception {
+    checkSameAsUtils("<html><head><title>Jobs <script>var t = 'no';</script>"
+        + "search</title><style>p { color: red; }</style></head><body>"
+        + "<p>Java <script>document.write('<a href=\"/hidden\">x</a>');</script>"
+        + "developer</p><style>a { color: blue; }</style>"
+        + "<a href=\"/job/1\">Senior <script>var s;</script>Java</a>"
+        + "<noscript>Enable scripts</noscript></body></html>");
+  }
+
+  @Test
+  public void testNestedAnchors() throws Exception {
+    checkSameAsUtils("<html><head><title>Nested</title></head><body>"
+        + "<a href=\"/outer\">Outer <a href=\"/inner\">inner</a> after</a>"
+        + "<a href=\"/wrapper\"><a href=\"/only\">only child</a></a>"
+        + "<div><a href=\"/list\">List <b>of <a href=\"/deep\">deep"
+        + "</a> jobs</b></a></div>"
+        + "<a href=\"/empty\"></a><a href=\"/blank\">   </a></body></html>");
+  }
+
+  @Test
+  public void testImageAltText() throws Exception {
+    checkSameAsUtils("<html><head><title>Images</title></head><body>"
+        + "<a href=\"/logo\"><img src=\"/logo.png\" alt=\"Example Jobs\"></a>"
+        + "<a href=\"/text\">Apply <img src=\"/go.png\" alt=\"now\"></a>"
+        + "<a href=\"/noalt\"><img src=\"/noalt.png\"></a>"
+        + "<a href=\"/emptyalt\"><img src=\"/e.png\" alt=\"\"></a>"
+        + "<img src=\"/banner.png\" alt=\"Banner\">"
+        + "<area href=\"/area\" alt=\"Area\"><frame src=\"/frame.html\">"
+        + "</body></html>");
+  }
+
+  @Test
+  public void testBaseAndMetaAfterBody() throws Exception {
+    checkSameAsUtils("<html><head><title>First</title>"
+        + "<meta name=\"keywords\" content=\"java, jobs\">"
+        + "<meta http-equiv=\"refresh\" content=\"5; url=/refreshed\">"
+        + "</head><body><a href=\"before\">Before</a>"
+        + "<base href=\"http://www.example-jobs.com/ignored/\">"
+        + "<meta name=\"robots\" content=\"noindex,nofollow\">"
+        + "<meta name=\"description\" content=\"In the body\">"
+        + "<title>Second</title><a href=\"after\">After</a></body>"
+        + "<meta name=\"author\" content=\"After the body\"></html>");
+    checkSameAsUtils("<html><head><base href=\"/jobs/base/\">"
+        + "<meta name=\"robots\" content=\"noindex\"></head><body>"
+        + "<a href=\"relative\">Relative</a></body></html>");
+  }
+
+  private static void checkSameAsUtils(String page) throws Exception {
+    URL base = new URL(URL);
+    for (String parserImpl : PARSER_IMPLS) {
+      for (boolean compactDom : new boolean[] { false, true }) {
+        Configuration conf = newConf(parserImpl, compactDom);
+        HtmlParser parser = new HtmlParser();
+        parser.setConf(conf);
+        DOMContentUtils utils = new DOMContentUtils(conf);
+        String impl = parserImpl + (compactDom ? " compact DOM: " : " DOM: ");
+
+        DocumentFragment root = parser.parse(newInput(page));
+        HTMLMetaTags walkedMetaTags = new HTMLMetaTags();
+        ContentExtractor walked = parser.walk(root, walkedMetaTags, base);
+
+        HTMLMetaTags metaTags = new HTMLMetaTags();
+        HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+        StringBuilder text = new StringBuilder();
+        utils.getText(text, root);
+        StringBuilder title = new StringBuilder();
+        utils.getTitle(title, root);
+        URL baseTag = utils.getBase(root);
+        ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+        utils.getOutlinks(baseTag != null ? baseTag : base, outlinks, root);
+
+        assertFalse(impl + "nothing extracted", outlinks.isEmpty());
+        assertEquals(impl + "noindex", metaTags.getNoIndex(), walkedMetaTags.getNoIndex());
+        assertEquals(impl + "nofollow", metaTags.getNoFollow(), walkedMetaTags.getNoFollow());
+        assertEquals(impl + "refresh", metaTags.getRefresh(), walkedMetaTags.getRefresh());
+        assertEquals(impl + "refresh url", String.valueOf(metaTags.getRefreshHref()),
+            String.valueOf(walkedMetaTags.getRefreshHref()));
+        assertEquals(impl + "base meta", String.valueOf(metaTags.getBaseHref()),
+            String.valueOf(walkedMetaTags.getBaseHref()));
+        assertEquals(impl + "meta tags", metaTags.getGeneralTags(), walkedMetaTags.getGeneralTags());
+        assertEquals(impl + "http-equiv tags", metaTags.getHttpEquivTags(),
+            walkedMetaTags.getHttpEquivTags());
+
+        assertEquals(impl + "text", text.toString(), walked.getText());
+        assertEquals(impl + "title", title.toString(), walked.getTitle());
+        assertEquals(impl + "base", String.valueOf(baseTag),
+            String.valueOf(walked.getBase()));
+        ArrayList<Outlink> walkedOutlinks = new ArrayList<Outlink>();
+        walked.getOutlinks(walked.getBase() != null ? walked.getBase() : base,
+            walkedOutlinks);
+        assertEquals(impl + "outlinks", describe(outlinks), describe(walkedOutlinks));
+      }
+    }
+  }
+
+  private static List<String> describe(List<Outlink> outlinks) {
+    List<String> descriptions = new ArrayList<String>();
+    for (Outlink outlink : outlinks) {
+      descriptions.add(outlink.getToUrl() + " [" + outlink.getAnchor() + "]");
+    }
+    return descriptions;
+  }
+
+  private static Configuration newConf(String parserImpl, boolean compactDom) {
+    Configuration conf = NutchConfiguration.create();
+    conf.set("parser.html.impl", parserImpl);
+    conf.setBoolean("parser.html.dom.compact", compactDom);
+    // The parse filters are looked up in the object cache first, which
+    // keeps the plugin repository out of the test
+    ObjectCache.get(conf).setObject(HtmlParseFilter.class.getName(),
+        new HtmlParseFilter[0]);
+    return conf;
+  }
+
+  private static InputSource newInput(String page) throws Exception {
+    InputSource input = new InputSource(new ByteArrayInputStream(
+        page.getBytes("UTF-8")));
+    input.setEncoding("UTF-8");
+    return input;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.HtmlParseFilter;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.ObjectCache;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks that streaming a page gives the same meta directives, text,
+ * title, base url and outlinks as walking its DOM, with Neko and TagSoup
+ * and with the Xerces and compact DOMs.
+ */
+public class StreamingContentExtractorTest {
+
+  private static final String[] PARSER_IMPLS = { "neko", "tagsoup" };
+
+  @Test
+  public void testCorpus() throws Exception {
+    BufferedReader index = new BufferedReader(new InputStreamReader(
+        getResource("/corpus/index.txt"), "UTF-8"));
+    int pages = 0;
+    try {
+      String line;
+      while ((line = index.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        // file, url and content type
+        String[] fields = line.split("\\s+");
+        if (fields[2].equals("text/html")) {
+          checkSameAsDOM(readResource("/corpus/" + fields[0]), fields[1]);
+          pages++;
+        }
+      }
+    } finally {
+      index.close();
+    }
+    assertTrue(pages > 0);
+  }
+
+  @Test
+  public void testDirectives() throws Exception {
+    // base, robots, refresh and no-cache meta tags, and badly nested markup
+    checkSameAsDOM(readResource("/directives.html"),
+        "http://www.example-jobs.com/jobs/search?q=java");
+  }
+
+  @Test
+  public void testEmptyPage() throws Exception {
+    checkSameAsDOM(new byte[0], "http://www.example-jobs.com/");
+    checkSameAsDOM("<html><head></head><body></body></html>".getBytes("UTF-8"),
+        "http://www.example-jobs.com/");
+  }
+
+  private static void checkSameAsDOM(byte[] content, String url)
+      throws Exception {
+    URL base = new URL(url);
+    for (String parserImpl : PARSER_IMPLS) {
+      for (boolean compactDom : new boolean[] { false, true }) {
+        HtmlParser parser = newParser(parserImpl, compactDom);
+        String page = parserImpl + (compactDom ? " compact DOM " : " DOM ")
+            + url + ": ";
+
+        HTMLMetaTags domMetaTags = new HTMLMetaTags();
+        ContentExtractor walked = parser.walk(parser.parse(newInput(content)),
+            domMetaTags, base);
+        HTMLMetaTags streamedMetaTags = new HTMLMetaTags();
+        ContentExtractor streamed = parser.stream(newInput(content),
+            streamedMetaTags, base);
+
+        assertEquals(page + "noindex", domMetaTags.getNoIndex(), streamedMetaTags.getNoIndex());
+        assertEquals(page + "nofollow", domMetaTags.getNoFollow(), streamedMetaTags.getNoFollow());
+        assertEquals(page + "nocache", domMetaTags.getNoCache(), streamedMetaTags.getNoCache());
+        assertEquals(page + "refresh", domMetaTags.getRefresh(), streamedMetaTags.getRefresh());
+        assertEquals(page + "refresh time", domMetaTags.getRefreshTime(), streamedMetaTags.getRefreshTime());
+        assertEquals(page + "refresh url", String.valueOf(domMetaTags.getRefreshHref()),
+            String.valueOf(streamedMetaTags.getRefreshHref()));
+        assertEquals(page + "base meta", String.valueOf(domMetaTags.getBaseHref()),
+            String.valueOf(streamedMetaTags.getBaseHref()));
+        assertEquals(page + "meta tags", domMetaTags.getGeneralTags(), streamedMetaTags.getGeneralTags());
+        assertEquals(page + "http-equiv tags", domMetaTags.getHttpEquivTags(),
+            streamedMetaTags.getHttpEquivTags());
+
+        assertEquals(page + "text", walked.getText(), streamed.getText());
+        assertEquals(page + "title", walked.getTitle(), streamed.getTitle());
+        assertEquals(page + "base", String.valueOf(walked.getBase()),
+            String.valueOf(streamed.getBase()));
+        assertEquals(page + "outlinks", getOutlinks(walked, base),
+            getOutlinks(streamed, base));
+      }
+    }
+  }
+
+  /**
+   * Outlinks resolved like {@link HtmlParser} does, with their anchors.
+   */
+  private static List<String> getOutlinks(ContentExtractor extractor, URL base) {
+    ArrayList<Outlink> outlinks = new ArrayList<Outlink>();
+    URL baseTag = extractor.getBase();
+    extractor.getOutlinks(baseTag != null ? baseTag : base, outlinks);
+    List<String> descriptions = new ArrayList<String>();
+    for (Outlink outlink : outlinks) {
+      descriptions.add(outlink.getToUrl() + " [" + outlink.getAnchor() + "]");
+    }
+    return descriptions;
+  }
+
+  private static HtmlParser newParser(String parserImpl, boolean compactDom) {
+    Configuration conf = NutchConfiguration.create();
+    conf.set("parser.html.impl", parserImpl);
+    conf.setBoolean("parser.html.dom.compact", compactDom);
+    // The parse filters are looked up in the object cache first, which
+    // keeps the plugin repository out of the test
+    ObjectCache.get(conf).setObject(HtmlParseFilter.class.getName(),
+        new HtmlParseFilter[0]);
+    HtmlParser parser = new HtmlParser();
+    parser.setConf(conf);
+    return parser;
+  }
+
+  private static InputSource newInput(byte[] content) {
+    InputSource input = new InputSource(new ByteArrayInputStream(content));
+    input.setEncoding("UTF-8");
+    return input;
+  }
+
+  private static InputStream getResource(String name) throws IOException {
+    InputStream inputStream = StreamingContentExtractorTest.class
+        .getResourceAsStream(name);
+    if (inputStream == null) {
+      throw new IOException("Missing test resource " + name);
+    }
+    return inputStream;
+  }
+
+  private static byte[] readResource(String name) throws IOException {
+    InputStream inputStream = getResource(name);
+    try {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, read);
+      }
+      return outputStream.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+}